@@ -64,6 +64,11 @@ static int
 onSctpOutboundPacket
     (void *addr, void *buffer, size_t length, uint8_t tos, uint8_t set_df);
 
+static jint
+sendSctp
+    (SctpSocket *sctpSocket, void *data, size_t len, jboolean ordered, jint sid,
+        jint ppid);
+
 static int SCTP_EVENT_TYPES[]
     = {
         SCTP_ASSOC_CHANGE,
@@ -102,6 +107,30 @@ Java_org_atalk_sctp4j_Sctp_on_1network_1in
     }
 }
 
+/*
+ * Class:     org_atalk_sctp4j_Sctp
+ * Method:    on_network_in_direct
+ * Signature: (JLjava/nio/ByteBuffer;II)V
+ *
+ * Passes the network packet held in a direct ByteBuffer to the SCTP stack
+ * without copying it across JNI.
+ */
+JNIEXPORT void JNICALL
+Java_org_atalk_sctp4j_Sctp_on_1network_1in_1direct
+    (JNIEnv *env, jclass clazz, jlong ptr, jobject pkt, jint off, jint len)
+{
+    jbyte *pkt_;
+
+    pkt_ = (*env)->GetDirectBufferAddress(env, pkt);
+    if (pkt_)
+    {
+        usrsctp_conninput(
+                (void *) (intptr_t) ptr,
+                pkt_ + off, len,
+                /* ecn_bits */ 0);
+    }
+}
+
 /*
  * Class:     org_atalk_sctp4j_Sctp
  * Method:    usrsctp_accept
@@ -237,44 +266,59 @@ Java_org_atalk_sctp4j_Sctp_usrsctp_1send
         jboolean ordered, jint sid, jint ppid)
 {
     jbyte *data_;
-    ssize_t r;  /* returned by usrsctp_sendv */
+    jint r;
 
     data_ = (*env)->GetByteArrayElements(env, data, NULL);
     if (data_)
     {
-        SctpSocket *sctpSocket;
-        struct sctp_sndinfo sndinfo;
-
-        sctpSocket = (SctpSocket *) (intptr_t) ptr;
-
-        sndinfo.snd_assoc_id = 0;
-        sndinfo.snd_context = 0;
-        sndinfo.snd_flags = 0;
-        if (JNI_FALSE == ordered)
-            sndinfo.snd_flags |= SCTP_UNORDERED;
-        sndinfo.snd_ppid = htonl(ppid);
-        sndinfo.snd_sid = sid;
-
         r
-            = usrsctp_sendv(
-                    sctpSocket->so,
+            = sendSctp(
+                    (SctpSocket *) (intptr_t) ptr,
                     data_ + off,
                     len,
-                    /* to */ NULL,
-                    /* addrcnt */ 0,
-                    &sndinfo,
-                    (socklen_t) sizeof(sndinfo),
-                    SCTP_SENDV_SNDINFO,
-                    /* flags */ 0);
+                    ordered,
+                    sid,
+                    ppid);
         (*env)->ReleaseByteArrayElements(env, data, data_, JNI_ABORT);
     }
     else
     {
         r = -1;
     }
-    if (r < 0)
-        perror("Sctp send error: ");
-    return (jint) r;
+    return r;
+}
+
+/*
+ * Class:     org_atalk_sctp4j_Sctp
+ * Method:    usrsctp_send_direct
+ * Signature: (JLjava/nio/ByteBuffer;IIZII)I
+ *
+ * Sends the data held in a direct ByteBuffer without copying it across JNI.
+ */
+JNIEXPORT jint JNICALL
+Java_org_atalk_sctp4j_Sctp_usrsctp_1send_1direct
+    (JNIEnv *env, jclass clazz, jlong ptr, jobject data, jint off, jint len,
+        jboolean ordered, jint sid, jint ppid)
+{
+    jbyte *data_;
+
+    data_ = (*env)->GetDirectBufferAddress(env, data);
+    if (data_)
+    {
+        return
+            sendSctp(
+                    (SctpSocket *) (intptr_t) ptr,
+                    data_ + off,
+                    len,
+                    ordered,
+                    sid,
+                    ppid);
+    }
+    else
+    {
+        perror("Sctp send error: not a direct buffer");
+        return -1;
+    }
 }
 
 /*
@@ -405,7 +449,7 @@ JNI_OnLoad(JavaVM *vm, void *reserved)
                         env,
                         clazz,
                         "onSctpInboundPacket",
-                        "(J[BIIIJII)V");
+                        "(JLjava/nio/ByteBuffer;IIIJII)V");
 
             if (receiveCb)
             {
@@ -414,7 +458,7 @@ JNI_OnLoad(JavaVM *vm, void *reserved)
                             env,
                             clazz,
                             "onSctpOutboundPacket",
-                            "(J[BII)I");
+                            "(JLjava/nio/ByteBuffer;II)I");
 
                 if (sendCb)
                 {
@@ -482,16 +526,15 @@ callOnSctpInboundPacket
 
             if (receiveCb)
             {
-                jbyteArray data_ = (*env)->NewByteArray(env, length);
+                /*
+                 * Wrap the usrsctp buffer without copying; it is valid only
+                 * for the duration of the Java callback.
+                 */
+                jobject data_
+                    = (*env)->NewDirectByteBuffer(env, data, (jlong) length);
 
                 if (data_)
                 {
-                    (*env)->SetByteArrayRegion(
-                            env,
-                            data_,
-                            0,
-                            length,
-                            (jbyte *) data);
                     (*env)->CallStaticVoidMethod(
                             env,
                             clazz,
@@ -552,16 +595,15 @@ callOnSctpOutboundPacket
 
             if (sendCb)
             {
-                jbyteArray data_ = (*env)->NewByteArray(env, length);
+                /*
+                 * Wrap the usrsctp buffer without copying; it is valid only
+                 * for the duration of the Java callback.
+                 */
+                jobject data_
+                    = (*env)->NewDirectByteBuffer(env, data, (jlong) length);
 
                 if (data_)
                 {
-                    (*env)->SetByteArrayRegion(
-                            env,
-                            data_,
-                            0,
-                            length,
-                            (jbyte *) data);
                     r
                         = (*env)->CallStaticIntMethod(
                                 env,
@@ -706,3 +748,35 @@ onSctpOutboundPacket
     /* FIXME not sure about this value, but an error for now */
     return -1;
 }
+
+static jint
+sendSctp
+    (SctpSocket *sctpSocket, void *data, size_t len, jboolean ordered, jint sid,
+        jint ppid)
+{
+    struct sctp_sndinfo sndinfo;
+    ssize_t r;  /* returned by usrsctp_sendv */
+
+    sndinfo.snd_assoc_id = 0;
+    sndinfo.snd_context = 0;
+    sndinfo.snd_flags = 0;
+    if (JNI_FALSE == ordered)
+        sndinfo.snd_flags |= SCTP_UNORDERED;
+    sndinfo.snd_ppid = htonl(ppid);
+    sndinfo.snd_sid = sid;
+
+    r
+        = usrsctp_sendv(
+                sctpSocket->so,
+                data,
+                len,
+                /* to */ NULL,
+                /* addrcnt */ 0,
+                &sndinfo,
+                (socklen_t) sizeof(sndinfo),
+                SCTP_SENDV_SNDINFO,
+                /* flags */ 0);
+    if (r < 0)
+        perror("Sctp send error: ");
+    return (jint) r;
+}
@@ -43,6 +43,7 @@ import net.java.sip.communicator.service.callhistory.event.CallHistoryPeerRecord
 import net.java.sip.communicator.service.callhistory.event.CallHistoryPeerRecordListener;
 import net.java.sip.communicator.service.callhistory.event.CallHistorySearchProgressListener;
 import net.java.sip.communicator.service.contactlist.MetaContact;
+import net.java.sip.communicator.service.history.HistoryCursor;
 import net.java.sip.communicator.service.history.HistoryService;
 import net.java.sip.communicator.service.history.event.HistorySearchProgressListener;
 import net.java.sip.communicator.service.history.event.ProgressEvent;
@@ -487,6 +488,45 @@ public class CallHistoryServiceImpl implements CallHistoryService, CallListener,
         return result;
     }
 
+    /**
+     * Returns a cursor of the calls made before and include the given date; lazily read from the
+     * database with the most recent call first.
+     *
+     * @param endDate Date the end date of the calls; null for all the calls
+     * @param count max calls count
+     *
+     * @return HistoryCursor of CallRecords in descending callStart order
+     */
+    public HistoryCursor<CallRecord> cursorLastCallsBefore(Date endDate, int count) {
+        String selection = null;
+        String[] args = null;
+        if (endDate != null) {
+            selection = CallHistoryService.CALL_START + "<=?";
+            args = new String[]{String.valueOf(endDate.getTime())};
+        }
+
+        Cursor cursor = mDB.query(CallHistoryService.TABLE_NAME, null,
+                selection, args, null, null, ORDER_DESC, String.valueOf(count));
+        return new HistoryCursor<>(cursor, this::convertHistoryRecordToCallRecord);
+    }
+
+    /**
+     * Returns a cursor of the calls made after and include the given date; lazily read from the
+     * database with the oldest call first.
+     *
+     * @param startDate Date the start date of the calls
+     * @param count max calls count
+     *
+     * @return HistoryCursor of CallRecords in ascending callStart order
+     */
+    public HistoryCursor<CallRecord> cursorFirstCallsAfter(Date startDate, int count) {
+        String[] args = {String.valueOf(startDate.getTime())};
+
+        Cursor cursor = mDB.query(CallHistoryService.TABLE_NAME, null,
+                CallHistoryService.CALL_START + ">=?", args, null, null, ORDER_ASC, String.valueOf(count));
+        return new HistoryCursor<>(cursor, this::convertHistoryRecordToCallRecord);
+    }
+
     /**
      * Find the calls made by the supplied peer address
      *
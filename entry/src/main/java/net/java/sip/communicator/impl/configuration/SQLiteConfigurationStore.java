@@ -9,11 +9,12 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import net.java.sip.communicator.service.protocol.AccountID;
 import net.java.sip.communicator.util.ServiceUtils;
@@ -23,6 +24,7 @@ import org.atalk.impl.configuration.DatabaseConfigurationStore;
 import org.atalk.impl.configuration.HashtableConfigurationStore;
 import org.atalk.impl.timberlog.TimberLog;
 import org.atalk.persistance.DatabaseBackend;
+import org.atalk.persistance.WriteBehindQueue;
 import org.atalk.service.osgi.OSGiService;
 
 import timber.log.Timber;
@@ -30,6 +32,11 @@ import timber.log.Timber;
 /**
  * Implements a <code>ConfigurationStore</code> which stores property name-value associations in an
  * SQLite database.
+ * <p>
+ * Both the properties and the accountProperties tables are loaded into memory once, and are shared by
+ * all the instances of this store; so a property lookup never queries the database, and the lookup of
+ * an unset property is answered as absent from memory. Changes are committed to the database in the
+ * background via the group commits of the {@link WriteBehindQueue}.
  *
  * @author Lyubomir Marinov
  * @author Eng Chong Meng
@@ -39,12 +46,29 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
     public static final String COLUMN_NAME = "Name";
     public static final String COLUMN_VALUE = "Value";
 
+    /**
+     * In-memory copy of the properties table, sorted by name for the prefix queries. Replaced as a whole
+     * on reload, so the readers never see a partially loaded table.
+     */
+    private static volatile ConcurrentSkipListMap<String, String> mProperties = new ConcurrentSkipListMap<>();
+
+    /**
+     * In-memory copy of the accountProperties table, keyed by the full property name i.e. accountUuid.name
+     */
+    private static volatile ConcurrentSkipListMap<String, String> mAccountProperties = new ConcurrentSkipListMap<>();
+
+    /**
+     * Set when the in-memory maps have been loaded from the database; guarded by SQLiteConfigurationStore.class.
+     */
+    private static boolean isLoaded = false;
+
     /**
      * aTalk backend SQLite database
      */
-    private final SQLiteOpenHelper openHelper;
     private static SQLiteDatabase mDB = null;
 
+    private final WriteBehindQueue mWriteQueue;
+
     /**
      * Initializes a new <code>SQLiteConfigurationStore</code> instance.
      */
@@ -53,8 +77,15 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
     }
 
     public SQLiteConfigurationStore(Context context) {
-        openHelper = DatabaseBackend.getInstance(context);
-        mDB = openHelper.getReadableDatabase();
+        mDB = DatabaseBackend.getInstance(context).getReadableDatabase();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
+
+        synchronized (SQLiteConfigurationStore.class) {
+            if (!isLoaded) {
+                loadProperties();
+                isLoaded = true;
+            }
+        }
     }
 
     /**
@@ -74,36 +105,19 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public Object getProperty(String name) {
-        Cursor cursor = null;
         Object value = properties.get(name);
         if (value == null) {
-            String[] columns = {COLUMN_VALUE};
-            synchronized (openHelper) {
-                if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                    int idx = name.indexOf(".");
-                    if (idx == -1) {
-                        value = name;  // just return the accountUuid
-                    }
-                    else {
-                        String[] args = {name.substring(0, idx), name.substring(idx + 1)};
-                        cursor = mDB.query(AccountID.TBL_PROPERTIES, columns,
-                                AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?",
-                                args, null, null, null, "1");
-                    }
-                }
-                else {
-                    cursor = mDB.query(TABLE_NAME, columns,
-                            COLUMN_NAME + "=?", new String[]{name}, null, null, null, "1");
-                }
-                if (cursor != null) {
-                    try {
-                        if ((cursor.getCount() == 1) && cursor.moveToFirst())
-                            value = cursor.getString(0);
-                    } finally {
-                        cursor.close();
-                    }
-                }
+            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+                if (name.indexOf('.') == -1)
+                    return name;  // just return the accountUuid
+
+                value = mAccountProperties.get(name);
+            }
+            else {
+                value = mProperties.get(name);
             }
+
+            // Both tables are fully memory-resident; so a miss here means the property is not set.
             if (value == null)
                 value = System.getProperty(name);
         }
@@ -113,6 +127,7 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
     /**
      * Overrides {@link HashtableConfigurationStore#getPropertyNames(String)}. Gets the names of
      * the properties which have values associated in this <code>ConfigurationStore</code>.
+     * If name starts with "acc", returns the names without the accountUuid prefix of the account properties.
      *
      * @return an array of <code>String</code>s which specify the names of the properties that have
      * values associated in this <code>ConfigurationStore</code>; an empty array if this instance
@@ -122,25 +137,36 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public String[] getPropertyNames(String name) {
-        List<String> propertyNames = new ArrayList<>();
-        String tableName;
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            String accountUuid = (idx == -1) ? name : name.substring(0, idx);
 
-        synchronized (openHelper) {
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                tableName = AccountID.TBL_PROPERTIES;
-            }
-            else {
-                tableName = TABLE_NAME;
-            }
-
-            try (Cursor cursor = mDB.query(tableName, new String[]{COLUMN_NAME},
-                    null, null, null, null, COLUMN_NAME + " ASC")) {
-                while (cursor.moveToNext()) {
-                    propertyNames.add(cursor.getString(0));
-                }
+            List<String> propertyNames = new ArrayList<>();
+            for (String key : getPrefixMap(mAccountProperties, accountUuid + ".").keySet()) {
+                propertyNames.add(key.substring(accountUuid.length() + 1));
             }
+            return propertyNames.toArray(new String[0]);
         }
-        return propertyNames.toArray(new String[0]);
+        return mProperties.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Gets the names of the properties which start with the given prefix from the in-memory maps.
+     *
+     * @param prefix the property name prefix
+     *
+     * @return the names of the properties starting with the prefix, in ascending order.
+     */
+    @Override
+    public String[] getPropertyNamesByPrefix(String prefix) {
+        ConcurrentSkipListMap<String, String> propertyMap
+                = prefix.startsWith(AccountID.ACCOUNT_UUID_PREFIX) ? mAccountProperties : mProperties;
+        return getPrefixMap(propertyMap, prefix).keySet().toArray(new String[0]);
+    }
+
+    private static NavigableMap<String, String> getPrefixMap(ConcurrentSkipListMap<String, String> propertyMap,
+            String prefix) {
+        return propertyMap.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
     }
 
     /**
@@ -150,10 +176,46 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      *
      * @throws IOException if there is an input error while reading from the underlying database (storage)
      */
-
     protected void reloadConfiguration()
             throws IOException {
-        // TODO Auto-generated method stub
+        synchronized (SQLiteConfigurationStore.class) {
+            loadProperties();
+            isLoaded = true;
+        }
+    }
+
+    /**
+     * Loads both the properties and accountProperties tables into new in-memory maps, and swaps them in
+     * once fully loaded; the live maps are never cleared in place, so the concurrent readers never see
+     * an empty or partially loaded table.
+     */
+    private void loadProperties() {
+        mWriteQueue.flush();
+        ConcurrentSkipListMap<String, String> propertyMap = new ConcurrentSkipListMap<>();
+        ConcurrentSkipListMap<String, String> accountPropertyMap = new ConcurrentSkipListMap<>();
+
+        try (Cursor cursor = mDB.query(TABLE_NAME, new String[]{COLUMN_NAME, COLUMN_VALUE},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(1);
+                if (value != null)
+                    propertyMap.put(cursor.getString(0), value);
+            }
+        }
+
+        try (Cursor cursor = mDB.query(AccountID.TBL_PROPERTIES,
+                new String[]{AccountID.ACCOUNT_UUID, COLUMN_NAME, COLUMN_VALUE}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(2);
+                if (value != null)
+                    accountPropertyMap.put(cursor.getString(0) + "." + cursor.getString(1), value);
+            }
+        }
+
+        mProperties = propertyMap;
+        mAccountProperties = accountPropertyMap;
+        Timber.d("Loaded configuration properties: %s; account properties: %s",
+                mProperties.size(), mAccountProperties.size());
     }
 
     /**
@@ -169,25 +231,27 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     public void removeProperty(String name) {
         super.removeProperty(name);
-        synchronized (openHelper) {
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                int idx = name.indexOf(".");
-                // remove user account if only accountUuid is specified
-                if (idx == -1) {
-                    String[] args = {name};
-                    mDB.delete(AccountID.TABLE_NAME, AccountID.ACCOUNT_UUID + "=?", args);
-                }
-                // Otherwise, remove the accountProperty from the AccountID.TBL_PROPERTIES
-                else {
-                    String[] args = {name.substring(0, idx), name.substring(idx + 1)};
-                    mDB.delete(AccountID.TBL_PROPERTIES,
-                            AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?", args);
-                }
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            // remove user account if only accountUuid is specified
+            if (idx == -1) {
+                getPrefixMap(mAccountProperties, name + ".").clear();
+                // Delete now, as the AccountID table is accessed directly by DatabaseBackend
+                String[] args = {name};
+                mWriteQueue.deleteNow(AccountID.TABLE_NAME, AccountID.ACCOUNT_UUID + "=?", args);
             }
+            // Otherwise, remove the accountProperty from the AccountID.TBL_PROPERTIES
             else {
-                mDB.delete(TABLE_NAME, COLUMN_NAME + "=?", new String[]{name});
+                mAccountProperties.remove(name);
+                String[] args = {name.substring(0, idx), name.substring(idx + 1)};
+                mWriteQueue.delete(AccountID.TBL_PROPERTIES,
+                        AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?", args);
             }
         }
+        else {
+            mProperties.remove(name);
+            mWriteQueue.delete(TABLE_NAME, COLUMN_NAME + "=?", new String[]{name});
+        }
         Timber.log(TimberLog.FINER, "### Remove property from table: %s", name);
     }
 
@@ -203,29 +267,28 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public void setNonSystemProperty(String name, Object value) {
-        synchronized (openHelper) {
-            String tableName = TABLE_NAME;
+        String tableName = TABLE_NAME;
+        String strValue = value.toString();
 
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COLUMN_VALUE, value.toString());
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(COLUMN_VALUE, strValue);
 
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                int idx = name.indexOf(".");
-                contentValues.put(AccountID.ACCOUNT_UUID, name.substring(0, idx));
-                contentValues.put(COLUMN_NAME, name.substring(idx + 1));
-                tableName = AccountID.TBL_PROPERTIES;
-            }
-            else {
-                contentValues.put(COLUMN_NAME, name);
-            }
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            contentValues.put(AccountID.ACCOUNT_UUID, name.substring(0, idx));
+            contentValues.put(COLUMN_NAME, name.substring(idx + 1));
+            tableName = AccountID.TBL_PROPERTIES;
+            mAccountProperties.put(name, strValue);
+        }
+        else {
+            contentValues.put(COLUMN_NAME, name);
+            mProperties.put(name, strValue);
+        }
 
-            // Insert the properties in DB, replace if exist
-            long rowId = mDB.replace(tableName, null, contentValues);
-            if (rowId == -1)
-                Timber.e("Failed to set non-system property: %s: %s <= %s", tableName, name, value);
+        // Insert the properties in DB, replace if exist
+        mWriteQueue.replace(tableName, contentValues);
+        Timber.log(TimberLog.FINER, "### Set non-system property: %s: %s <= %s", tableName, name, value);
 
-            Timber.log(TimberLog.FINER, "### Set non-system property: %s: %s <= %s", tableName, name, value);
-        }
         // To take care of cached properties and accountProperties
         super.setNonSystemProperty(name, value);
     }
@@ -19,16 +19,23 @@ package net.java.sip.communicator.impl.contactlist;
 import static net.java.sip.communicator.service.contactlist.MetaContactGroup.TBL_CHILD_CONTACTS;
 
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import net.java.sip.communicator.service.contactlist.MetaContact;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
@@ -44,8 +51,10 @@ import net.java.sip.communicator.service.protocol.Contact;
 import net.java.sip.communicator.service.protocol.ContactGroup;
 
 import org.apache.commons.lang3.StringUtils;
+import org.atalk.ohos.aTalkApp;
 import org.atalk.persistance.DatabaseBackend;
-import org.json.JSONArray;
+import org.atalk.persistance.SQLiteRosterStore;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.osgi.framework.BundleContext;
@@ -62,6 +71,12 @@ import timber.log.Timber;
  * simply retrieve one that was already in the bundle <br>
  * 3) We look through the database and load groups and contacts belonging to this new provider.
  * Unresolved proto groups and contacts will be created for every one of them.
+ * <p>
+ * The table updates for the MetaContactListListener events are queued and committed in a single
+ * transaction, MCL_COMMIT_DELAY ms after the first queued event; repeated rename/modify events of
+ * the same MetaContact within a batch are collapsed. A journal flag is kept set while there are
+ * uncommitted updates; if found set on start, the roster stores are reset so the contact list is
+ * fully re-synchronized with the server.
  *
  * @author Eng Chong Meng
  */
@@ -84,6 +99,41 @@ public class MclStorageManager implements MetaContactListListener {
     private final ContentValues mcValues = new ContentValues();
     private final ContentValues ccValues = new ContentValues();
 
+    /**
+     * Delay in ms after the first queued event before the pending updates are committed.
+     */
+    private static final long MCL_COMMIT_DELAY = 200;
+
+    /**
+     * The SharedPreferences name and key of the journal flag.
+     */
+    private static final String JOURNAL_STORE_ID = "org.atalk.mcl.journal";
+    private static final String JOURNAL_DIRTY = "dirty";
+
+    /**
+     * Pending table updates in the order queued, keyed for the collapsible updates; guarded by itself.
+     */
+    private final Map<String, Runnable> mPendingUpdates = new LinkedHashMap<>();
+
+    /**
+     * Sequence number to generate the unique keys of the non-collapsible updates.
+     */
+    private long mUpdateSeq = 0;
+
+    /**
+     * In memory copy of the journal flag; guarded by mPendingUpdates.
+     */
+    private boolean isJournalDirty = false;
+
+    /**
+     * Serializes the batch commits; the ContentValues are also only used while holding this lock.
+     */
+    private final Object commitLock = new Object();
+
+    private final ScheduledExecutorService mExecutor = ExecutorUtils.newScheduledThreadPool(1, true, "MclStorage");
+
+    private ScheduledFuture<?> mCommitTask = null;
+
     /**
      * Initializes the storage manager to perform the initial loading and parsing of the
      * contacts and groups in the database
@@ -95,9 +145,105 @@ public class MclStorageManager implements MetaContactListListener {
     void start(BundleContext bc, MetaContactListServiceImpl mclServiceImpl) {
         this.mclServiceImpl = mclServiceImpl;
         mDB = DatabaseBackend.getWritableDB();
+
+        SharedPreferences journal = aTalkApp.getInstance().getSharedPreferences(JOURNAL_STORE_ID, Context.MODE_PRIVATE);
+        if (journal.getBoolean(JOURNAL_DIRTY, false)) {
+            Timber.w("Contact list updates were not all committed; force full roster synchronization");
+            resetRosterStores();
+            journal.edit().putBoolean(JOURNAL_DIRTY, false).apply();
+        }
         mclServiceImpl.addMetaContactListListener(this);
     }
 
+    /**
+     * Commits all the pending updates and stops listening for the contact list changes.
+     */
+    void stop() {
+        mclServiceImpl.removeMetaContactListListener(this);
+        flush();
+    }
+
+    /**
+     * Queues the given table update for the next batch commit.
+     *
+     * @param key the key of a collapsible update, replacing any pending update with the same key;
+     * or null to append the update
+     * @param update the table update to perform
+     */
+    private void enqueue(String key, Runnable update) {
+        synchronized (mPendingUpdates) {
+            if (key == null) {
+                key = "#" + mUpdateSeq++;
+            }
+            else {
+                // remove first so the update is moved to the end of the queue
+                mPendingUpdates.remove(key);
+            }
+            mPendingUpdates.put(key, update);
+
+            if (!isJournalDirty) {
+                // Must be on disk before the updates may get lost
+                aTalkApp.getInstance().getSharedPreferences(JOURNAL_STORE_ID, Context.MODE_PRIVATE)
+                        .edit().putBoolean(JOURNAL_DIRTY, true).commit();
+                isJournalDirty = true;
+            }
+            if (mCommitTask == null) {
+                mCommitTask = mExecutor.schedule(this::flush, MCL_COMMIT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Commits all the pending updates in a single transaction on the caller thread. Called on the
+     * commit timer, and when the contact list service is stopped or an account is removed.
+     */
+    void flush() {
+        synchronized (commitLock) {
+            List<Runnable> updates;
+            synchronized (mPendingUpdates) {
+                if (mCommitTask != null) {
+                    mCommitTask.cancel(false);
+                    mCommitTask = null;
+                }
+                if (mPendingUpdates.isEmpty())
+                    return;
+
+                updates = new ArrayList<>(mPendingUpdates.values());
+                mPendingUpdates.clear();
+            }
+
+            mDB.beginTransaction();
+            try {
+                for (Runnable update : updates) {
+                    try {
+                        update.run();
+                    } catch (RuntimeException e) {
+                        // Skip only the failed update; keep the rest of the batch
+                        Timber.w(e, "Contact list storage update failed");
+                    }
+                }
+                mDB.setTransactionSuccessful();
+            } finally {
+                mDB.endTransaction();
+            }
+
+            synchronized (mPendingUpdates) {
+                if (mPendingUpdates.isEmpty() && isJournalDirty) {
+                    aTalkApp.getInstance().getSharedPreferences(JOURNAL_STORE_ID, Context.MODE_PRIVATE)
+                            .edit().putBoolean(JOURNAL_DIRTY, false).apply();
+                    isJournalDirty = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the stored roster versions of all accounts, so the server sends the full roster on next login.
+     */
+    private void resetRosterStores() {
+        SQLiteRosterStore.resetAllRosterVersions();
+    }
+
     /**
      * Parses the contacts in childContacts table and calls corresponding "add" methods belonging
      * to <code>mclServiceImpl</code> for every metaContact and metaContactGroup stored in the
@@ -112,6 +258,9 @@ public class MclStorageManager implements MetaContactListListener {
         // received while we're off the channel.
         mclServiceImpl.removeMetaContactListListener(this);
 
+        // Load from the tables with all the pending updates committed
+        flush();
+
         // Extract all its child groups and contacts
         processGroupContact(accountUuid, accountUid);
 
@@ -400,13 +549,23 @@ public class MclStorageManager implements MetaContactListListener {
 
     // ============= Event triggered handlers for MetaContactListService Implementation ===========
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactGroupEvent containing the corresponding info
+     * @see #processMetaContactGroupAdded(MetaContactGroupEvent)
+     */
+    public void metaContactGroupAdded(MetaContactGroupEvent evt) {
+        enqueue(null, () -> processMetaContactGroupAdded(evt));
+    }
+
     /**
      * Creates a table entry for the source metaContact group, its child metaContacts and
      * associated proto-groups.
      *
      * @param evt the MetaContactListEvent containing the corresponding contact
      */
-    public void metaContactGroupAdded(MetaContactGroupEvent evt) {
+    private void processMetaContactGroupAdded(MetaContactGroupEvent evt) {
         // create metaContactGroup entry only if it is not null and has a parent associated with it
         MetaContactGroup mcGroup = evt.getSourceMetaContactGroup();
         if ((mcGroup == null) || (mcGroup.getParentMetaContactGroup() == null)) {
@@ -419,12 +578,22 @@ public class MclStorageManager implements MetaContactListListener {
         createMetaContactGroupEntry(mcGroup);
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactGroupEvent containing the corresponding info
+     * @see #processMetaContactGroupModified(MetaContactGroupEvent)
+     */
+    public void metaContactGroupModified(MetaContactGroupEvent evt) {
+        enqueue(null, () -> processMetaContactGroupModified(evt));
+    }
+
     /**
      * Determines the exact type of the change and acts accordingly either updating group name
      *
      * @param evt the MetaContactListEvent containing the corresponding contact
      */
-    public void metaContactGroupModified(MetaContactGroupEvent evt) {
+    private void processMetaContactGroupModified(MetaContactGroupEvent evt) {
         // ignore modification of non-persistent metaContactGroup
         MetaContactGroup mcGroup = evt.getSourceMetaContactGroup();
         if (!mcGroup.isPersistent())
@@ -464,12 +633,22 @@ public class MclStorageManager implements MetaContactListListener {
         }
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactGroupEvent containing the corresponding info
+     * @see #processMetaContactGroupRemoved(MetaContactGroupEvent)
+     */
+    public void metaContactGroupRemoved(MetaContactGroupEvent evt) {
+        enqueue(null, () -> processMetaContactGroupRemoved(evt));
+    }
+
     /**
      * Removes the corresponding metaContactGroup from the metaContactGroup table.
      *
      * @param evt the MetaContactGroupEvent containing the corresponding contact
      */
-    public void metaContactGroupRemoved(MetaContactGroupEvent evt) {
+    private void processMetaContactGroupRemoved(MetaContactGroupEvent evt) {
         // ignore removal of non-persistent metaContactGroup
         MetaContactGroupImpl mcGroup = (MetaContactGroupImpl) evt.getSourceMetaContactGroup();
         if (!mcGroup.isPersistent())
@@ -590,13 +769,23 @@ public class MclStorageManager implements MetaContactListListener {
         cursor.close();
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactEvent containing the corresponding info
+     * @see #processMetaContactAdded(MetaContactEvent)
+     */
+    public void metaContactAdded(MetaContactEvent evt) {
+        enqueue(null, () -> processMetaContactAdded(evt));
+    }
+
     /**
      * Creates new table entry for the source metaContact, its contacts with the associated
      * protoGroups in childContacts table.
      *
      * @param evt the MetaContactListEvent containing the corresponding contact
      */
-    public void metaContactAdded(MetaContactEvent evt) {
+    private void processMetaContactAdded(MetaContactEvent evt) {
         // if the parent group is not persistent, do not do anything
         if (!evt.getParentGroup().isPersistent())
             return;
@@ -605,12 +794,22 @@ public class MclStorageManager implements MetaContactListListener {
         createMetaContactEntry(metaContact);
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactRenamedEvent containing the corresponding info
+     * @see #processMetaContactRenamed(MetaContactRenamedEvent)
+     */
+    public void metaContactRenamed(MetaContactRenamedEvent evt) {
+        enqueue("renamed:" + evt.getSourceMetaContact().getMetaUID(), () -> processMetaContactRenamed(evt));
+    }
+
     /**
      * Changes the display name attribute of the specified meta contact node.
      *
      * @param evt the MetaContactListEvent containing the corresponding contact
      */
-    public void metaContactRenamed(MetaContactRenamedEvent evt) {
+    private void processMetaContactRenamed(MetaContactRenamedEvent evt) {
         MetaContactImpl metaContactImpl = (MetaContactImpl) evt.getSourceMetaContact();
         String metaContactUid = metaContactImpl.getMetaUID();
         String contactJid = findMetaContactEntry(metaContactUid);
@@ -652,86 +851,46 @@ public class MclStorageManager implements MetaContactListListener {
     }
 
     /**
-     * Indicates that a MetaContact is to be modified.
+     * Queues the storage update for the event till the next batch commit; all the detail changes
+     * of a metaContact within a batch are stored with a single update.
      *
      * @param evt the MetaContactModifiedEvent containing the corresponding contact
+     * @see #processMetaContactModified(MetaContact)
      */
     public void metaContactModified(MetaContactModifiedEvent evt) {
-        String metaContactUid = evt.getSourceMetaContact().getMetaUID();
+        MetaContact metaContact = evt.getSourceMetaContact();
+        enqueue("modified:" + metaContact.getMetaUID(), () -> processMetaContactModified(metaContact));
+    }
+
+    /**
+     * Stores the current details of the modified MetaContact.
+     *
+     * @param metaContact the modified MetaContact
+     */
+    private void processMetaContactModified(MetaContact metaContact) {
+        String metaContactUid = metaContact.getMetaUID();
         String contactJid = findMetaContactEntry(metaContactUid);
 
         // Just logged in an internal err if rename contact not found (non-persistent)
         if (contactJid == null) {
-            Timber.d("Ignore debug ref: MetaContact not found for modification: %s", evt.getSourceMetaContact());
+            Timber.d("Ignore debug ref: MetaContact not found for modification: %s", metaContact);
             return;
         }
 
-        JSONObject details;
-        JSONArray jsonArray;
-        String[] columns = {MetaContactGroup.MC_DETAILS};
         String[] args = {metaContactUid};
-        Cursor cursor = mDB.query(TBL_CHILD_CONTACTS, columns,
-                MetaContactGroup.MC_UID + "=?", args, null, null, null);
-
-        String name = evt.getModificationName();
-        try {
-            details = new JSONObject(cursor.getString(0));
-            jsonArray = details.getJSONArray(name);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            cursor.close();
-            return;
-        }
-        cursor.close();
-
-        Object oldValue = evt.getOldValue();
-        Object newValue = evt.getNewValue();
-        int jaSize = jsonArray.length();
-        boolean isChanged = false;
+        mcValues.clear();
+        mcValues.put(MetaContactGroup.MC_DETAILS, metaContact.getDetails().toString());
+        mDB.update(TBL_CHILD_CONTACTS, mcValues, MetaContactGroup.MC_UID + "=?", args);
+    }
 
-        try {
-            // indicates add new item
-            if ((oldValue == null) && (newValue != null)) {
-                jsonArray.put(newValue);
-            }
-            // indicates remove and old value must be string or JSONArray
-            else if ((oldValue != null) && (newValue == null) && (jaSize > 0)) {
-                // indicates removing multiple items at one time
-                if (oldValue instanceof JSONArray) {
-                    jsonArray = null;
-                    isChanged = true;
-                }
-                // removing one item only
-                else {
-                    for (int i = 0; i < jaSize; i++) {
-                        if (oldValue.equals(jsonArray.get(i))) {
-                            jsonArray.remove(i);
-                            isChanged = true;
-                            break;
-                        }
-                    }
-                }
-            }
-            // indicates change item value
-            else if ((oldValue != null) && (newValue != null) && (jaSize > 0)) {
-                for (int i = 0; i < jaSize; i++) {
-                    if (oldValue.equals(jsonArray.get(i))) {
-                        jsonArray.put(i, newValue);
-                        isChanged = true;
-                        break;
-                    }
-                }
-            }
-            details.put(name, jsonArray);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
-        }
-        if (isChanged) {
-            mcValues.clear();
-            mcValues.put(MetaContactGroup.MC_DETAILS, details.toString());
-            mDB.update(TBL_CHILD_CONTACTS, mcValues, MetaContactGroup.MC_UID + "=?", args);
-        }
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactMovedEvent containing the corresponding info
+     * @see #processMetaContactMoved(MetaContactMovedEvent)
+     */
+    public void metaContactMoved(MetaContactMovedEvent evt) {
+        enqueue(null, () -> processMetaContactMoved(evt));
     }
 
     /**
@@ -741,7 +900,7 @@ public class MclStorageManager implements MetaContactListListener {
      *
      * @param evt the MetaContactMovedEvent containing the reference move information
      */
-    public void metaContactMoved(MetaContactMovedEvent evt) {
+    private void processMetaContactMoved(MetaContactMovedEvent evt) {
         MetaContact metaContact = evt.getSourceMetaContact();
         String metaContactUid = metaContact.getMetaUID();
 
@@ -771,12 +930,22 @@ public class MclStorageManager implements MetaContactListListener {
         mDB.update(TBL_CHILD_CONTACTS, mcValues, MetaContactGroup.MC_UID + "=?", args);
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the MetaContactEvent containing the corresponding info
+     * @see #processMetaContactRemoved(MetaContactEvent)
+     */
+    public void metaContactRemoved(MetaContactEvent evt) {
+        enqueue(null, () -> processMetaContactRemoved(evt));
+    }
+
     /**
      * Remove the corresponding metaContact from the childContacts table entry
      *
      * @param evt the MetaContactEvent containing the corresponding metaContact
      */
-    public void metaContactRemoved(MetaContactEvent evt) {
+    private void processMetaContactRemoved(MetaContactEvent evt) {
         // ignore removal of metaContact of non-persistent parentGroup
         if (!evt.getParentGroup().isPersistent())
             return;
@@ -802,6 +971,16 @@ public class MclStorageManager implements MetaContactListListener {
         }
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the ProtoContactEvent containing the corresponding info
+     * @see #processProtoContactAdded(ProtoContactEvent)
+     */
+    public void protoContactAdded(ProtoContactEvent evt) {
+        enqueue(null, () -> processProtoContactAdded(evt));
+    }
+
     /**
      * Indicates that a protocol specific <code>Contact</code> instance has been added to the list of
      * protocol specific buddies in this <code>MetaContact</code>
@@ -809,7 +988,7 @@ public class MclStorageManager implements MetaContactListListener {
      *
      * @param evt a reference to the corresponding <code>ProtoContactEvent</code>
      */
-    public void protoContactAdded(ProtoContactEvent evt) {
+    private void processProtoContactAdded(ProtoContactEvent evt) {
         MetaContact metaContact = evt.getParent();
         String mcUid = metaContact.getMetaUID();
         Contact contact = evt.getProtoContact();
@@ -861,12 +1040,24 @@ public class MclStorageManager implements MetaContactListListener {
         }
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the ProtoContactEvent containing the corresponding info
+     * @see #processProtoContactRenamed(ProtoContactEvent)
+     */
+    public void protoContactRenamed(ProtoContactEvent evt) {
+        Contact contact = evt.getProtoContact();
+        String key = (contact == null) ? null : "protoRenamed:" + contact.getAddress();
+        enqueue(key, () -> processProtoContactRenamed(evt));
+    }
+
     /**
      * Updates the displayName for the contact that caused this event.
      *
      * @param evt the ProtoContactEvent containing the corresponding contact
      */
-    public void protoContactRenamed(ProtoContactEvent evt) {
+    private void processProtoContactRenamed(ProtoContactEvent evt) {
         // Just logged in an internal err if rename contact not found
         Contact contact = evt.getProtoContact();
         if ((contact == null) || (findContactEntry(JABBER, contact.getAddress()) == null)) {
@@ -890,13 +1081,24 @@ public class MclStorageManager implements MetaContactListListener {
         }
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the ProtoContactEvent containing the corresponding info
+     * @see #processProtoContactModified(ProtoContactEvent)
+     */
+    public void protoContactModified(ProtoContactEvent evt) {
+        String key = "protoModified:" + evt.getParent().getMetaUID() + "/" + evt.getProtoContact().getAddress();
+        enqueue(key, () -> processProtoContactModified(evt));
+    }
+
     /**
      * Updates the data stored for the contact that caused this event. The changes can either be
      * persistent data change etc
      *
      * @param evt the ProtoContactEvent containing the corresponding contact
      */
-    public void protoContactModified(ProtoContactEvent evt) {
+    private void processProtoContactModified(ProtoContactEvent evt) {
         MetaContact metaContact = evt.getParent();
         String metaContactUid = metaContact.getMetaUID();
         String contactJid = findMetaContactEntry(metaContactUid);
@@ -921,13 +1123,23 @@ public class MclStorageManager implements MetaContactListListener {
         }
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the ProtoContactEvent containing the corresponding info
+     * @see #processProtoContactMoved(ProtoContactEvent)
+     */
+    public void protoContactMoved(ProtoContactEvent evt) {
+        enqueue(null, () -> processProtoContactMoved(evt));
+    }
+
     /**
      * Indicates that a protocol specific <code>Contact</code> instance has been moved from within one
      * <code>MetaContact</code> to another.
      *
      * @param evt a reference to the <code>ProtoContactMovedEvent</code> instance.
      */
-    public void protoContactMoved(ProtoContactEvent evt) {
+    private void processProtoContactMoved(ProtoContactEvent evt) {
         String oldMcUid = evt.getOldParent().getMetaUID();
         String contactJid = evt.getProtoContact().getAddress();
 
@@ -952,6 +1164,16 @@ public class MclStorageManager implements MetaContactListListener {
                 + "=? AND " + MetaContactGroup.CONTACT_JID + "=?", args);
     }
 
+    /**
+     * Queues the storage update for the event till the next batch commit.
+     *
+     * @param evt the ProtoContactEvent containing the corresponding info
+     * @see #processProtoContactRemoved(ProtoContactEvent)
+     */
+    public void protoContactRemoved(ProtoContactEvent evt) {
+        enqueue(null, () -> processProtoContactRemoved(evt));
+    }
+
     /**
      * Remove the contact in the metaContact entry from the childContacts table;
      * also the contact entry in contacts table if none found in childContacts after removal.
@@ -961,7 +1183,7 @@ public class MclStorageManager implements MetaContactListListener {
      *
      * @param evt a reference to the corresponding <code>ProtoContactEvent</code>
      */
-    public void protoContactRemoved(ProtoContactEvent evt) {
+    private void processProtoContactRemoved(ProtoContactEvent evt) {
         String mcUid = evt.getParent().getMetaUID();
         String contactJid = evt.getProtoContact().getAddress();
 
@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.java.sip.communicator.service.contactlist.MetaContact;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
@@ -143,6 +144,13 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      */
     private final MclStorageManager storageManager = new MclStorageManager();
 
+    /**
+     * Index of the MetaContact containing each protocol contact, keyed by accountUid/contactAddress.
+     * The index is filled on lookup and on contact added/moved events; every hit is verified against
+     * the MetaContact current proto contacts and parent, so a stale entry only costs one tree walk.
+     */
+    private final Map<String, MetaContact> mMetaContactIndex = new ConcurrentHashMap<>();
+
     /**
      * Creates an instance of this class.
      */
@@ -225,6 +233,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
             }
         }
         mCurrentlyInstalledProviders.clear();
+        storageManager.stop();
     }
 
     /**
@@ -1161,7 +1170,17 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * present in this contact list.
      */
     public MetaContact findMetaContactByContact(Contact contact) {
-        return rootMetaGroup.findMetaContactByContact(contact);
+        String key = getIndexKey(contact);
+        MetaContact metaContact = mMetaContactIndex.get(key);
+        if ((metaContact != null)
+                && (metaContact.getContact(contact.getAddress(), contact.getProtocolProvider()) != null)
+                && isInContactList(metaContact)) {
+            return metaContact;
+        }
+
+        metaContact = rootMetaGroup.findMetaContactByContact(contact);
+        updateIndex(key, metaContact);
+        return metaContact;
     }
 
     /**
@@ -1178,7 +1197,68 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * present in this contact list.
      */
     public MetaContact findMetaContactByContact(String contactAddress, String accountID) {
-        return rootMetaGroup.findMetaContactByContact(contactAddress, accountID);
+        String key = getIndexKey(accountID, contactAddress);
+        MetaContactImpl metaContact = (MetaContactImpl) mMetaContactIndex.get(key);
+        if ((metaContact != null) && (metaContact.getContact(contactAddress, accountID) != null)
+                && isInContactList(metaContact)) {
+            return metaContact;
+        }
+
+        MetaContact mContact = rootMetaGroup.findMetaContactByContact(contactAddress, accountID);
+        updateIndex(key, mContact);
+        return mContact;
+    }
+
+    /**
+     * Returns the index key of the given protocol contact.
+     *
+     * @param contact the protocol contact
+     *
+     * @return the accountUid/contactAddress index key.
+     */
+    private static String getIndexKey(Contact contact) {
+        return getIndexKey(contact.getProtocolProvider().getAccountID().getAccountUid(), contact.getAddress());
+    }
+
+    private static String getIndexKey(String accountUid, String contactAddress) {
+        return accountUid + "/" + contactAddress;
+    }
+
+    /**
+     * Maps the index key to the given metaContact, or removes the key if metaContact is null.
+     */
+    private void updateIndex(String key, MetaContact metaContact) {
+        if (metaContact == null)
+            mMetaContactIndex.remove(key);
+        else
+            mMetaContactIndex.put(key, metaContact);
+    }
+
+    /**
+     * Removes all the index entries of the given metaContact; its proto contacts may already
+     * have been removed from it, so scan the index values instead.
+     *
+     * @param metaContact the MetaContact removed from the contact list.
+     */
+    private void unindexMetaContact(MetaContact metaContact) {
+        mMetaContactIndex.values().removeIf(mc -> mc == metaContact);
+    }
+
+    /**
+     * Checks if the given metaContact is still attached to the root of this contact list.
+     *
+     * @param metaContact the MetaContact to check
+     *
+     * @return true if the metaContact parent groups lead to the rootMetaGroup.
+     */
+    private boolean isInContactList(MetaContact metaContact) {
+        MetaContactGroup group = metaContact.getParentMetaContactGroup();
+        while (group != null) {
+            if (group == rootMetaGroup)
+                return true;
+            group = group.getParentMetaContactGroup();
+        }
+        return false;
     }
 
     /**
@@ -1711,6 +1791,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
                 // modified account
                 synchronized (this) {
                     removeMetaContactListListener(storageManager);
+                    storageManager.flush();
                     handleProviderRemoved(pps);
                     addMetaContactListListener(storageManager);
                 }
@@ -1718,6 +1799,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
             }
             Timber.w("Account uninstalled. Removing all its meta contacts: %s", accountID);
             handleProviderRemoved(pps);
+            storageManager.flush();
         }
     }
 
@@ -2110,6 +2192,16 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
         MetaContactEvent evt = new MetaContactEvent(sourceContact, parentGroup, eventID);
         Timber.log(TimberLog.FINER, "Will dispatch the following mcl event: %s", evt);
 
+        if (eventID == MetaContactEvent.META_CONTACT_ADDED) {
+            Iterator<Contact> protoContacts = sourceContact.getContacts();
+            while (protoContacts.hasNext()) {
+                mMetaContactIndex.put(getIndexKey(protoContacts.next()), sourceContact);
+            }
+        }
+        else if (eventID == MetaContactEvent.META_CONTACT_REMOVED) {
+            unindexMetaContact(sourceContact);
+        }
+
         for (MetaContactListListener listener : getMetaContactListListeners()) {
             switch (evt.getEventID()) {
                 case MetaContactEvent.META_CONTACT_ADDED:
@@ -2189,6 +2281,14 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
         ProtoContactEvent event = new ProtoContactEvent(source, eventName, oldParent, newParent);
         Timber.log(TimberLog.FINER, "Will dispatch the following mcl property change event: %s", event);
 
+        switch (eventName) {
+            case ProtoContactEvent.PROTO_CONTACT_ADDED:
+            case ProtoContactEvent.PROTO_CONTACT_MOVED:
+            case ProtoContactEvent.PROTO_CONTACT_REMOVED:
+                updateIndex(getIndexKey(source), newParent);
+                break;
+        }
+
         for (MetaContactListListener listener : getMetaContactListListeners()) {
             switch (eventName) {
                 case ProtoContactEvent.PROTO_CONTACT_ADDED:
@@ -2373,6 +2473,10 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
         MetaContactGroupEvent evt = new MetaContactGroupEvent(source, provider, sourceProtoGroup, eventID);
         Timber.log(TimberLog.FINER, "Will dispatch the following mcl event: %s", evt);
 
+        // Entries of the removed group members fail the isInContactList() check; just drop them all
+        if (eventID == MetaContactGroupEvent.META_CONTACT_GROUP_REMOVED)
+            mMetaContactIndex.clear();
+
         for (MetaContactListListener listener : getMetaContactListListeners()) {
             switch (eventID) {
                 case MetaContactGroupEvent.META_CONTACT_GROUP_ADDED:
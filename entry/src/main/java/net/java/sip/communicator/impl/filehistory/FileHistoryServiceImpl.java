@@ -51,6 +51,7 @@ import org.atalk.ohos.gui.chat.ChatSession;
 import org.atalk.ohos.gui.chat.filetransfer.FileReceiveConversation;
 import org.atalk.ohos.gui.chat.filetransfer.FileSendConversation;
 import org.atalk.persistance.DatabaseBackend;
+import org.atalk.persistance.WriteBehindQueue;
 import org.jxmpp.util.XmppStringUtils;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
@@ -76,6 +77,11 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
 
     private final ContentValues mContentValues = new ContentValues();
     private SQLiteDatabase mDB;
+
+    /**
+     * Shared write-behind queue with MessageHistoryService; to retain the chatMessages write order.
+     */
+    private WriteBehindQueue mWriteQueue;
     private MessageHistoryService mhs;
 
     /**
@@ -106,6 +112,7 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
             }
         }
         mDB = DatabaseBackend.getWritableDB();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
     }
 
     /**
@@ -129,6 +136,8 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
                 handleProviderRemoved(pps);
             }
         }
+        if (mWriteQueue != null)
+            mWriteQueue.flush();
     }
 
     /**
@@ -230,7 +239,7 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
             if (fileTransfer.getDirection() == FileTransfer.IN) {
                 String[] args = {fileTransfer.getID()};
                 contentValues.put(ChatMessage.FILE_PATH, fileName);
-                mDB.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.UUID + "=?", args);
+                mWriteQueue.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.UUID + "=?", args);
             }
             else if (fileTransfer.getDirection() == FileTransfer.OUT) {
                 insertRecordToDB(event, ChatMessage.MESSAGE_FILE_TRANSFER_SEND, fileName);
@@ -338,8 +347,9 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
         contentValues.put(ChatMessage.SERVER_MSG_ID, serverMsgId);
         contentValues.put(ChatMessage.REMOTE_MSG_ID, remoteMsgId);
 
-        mDB.insert(ChatMessage.TABLE_NAME, null, contentValues);
-        getMHS().setMamDate(sessionUuid, timeStamp);
+        mWriteQueue.insert(ChatMessage.TABLE_NAME, contentValues);
+        // Queued with the record insert, so a mam catch-up does not force a queue flush per record
+        getMHS().queueMamDate(sessionUuid, timeStamp);
     }
 
     /* ============= File Transfer Handlers - Update file transfer status ============= */
@@ -352,10 +362,8 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
      * @param fileName local fileName path for http downloaded file; null => no change and keep the link in MSG_BODY
      * @param encType IMessage.ENCRYPTION_NONE, ENCRYPTION_OMEMO
      * @param msgType File Transfer message type
-     *
-     * @return the number of records being updated; zero means there is no record to update historyLog disabled
      */
-    public int updateFTStatusToDB(String msgUuid, int status, String fileName, int encType, int msgType) {
+    public void updateFTStatusToDB(String msgUuid, int status, String fileName, int encType, int msgType) {
         // Timber.w(new Exception("### File in/out transfer status changes to: " + status));
         String[] args = {msgUuid};
         ContentValues contentValues = new ContentValues();
@@ -366,9 +374,8 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
         }
         contentValues.put(ChatMessage.ENC_TYPE, encType);
         contentValues.put(ChatMessage.MSG_TYPE, msgType);
-        int count = mDB.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.UUID + "=?", args);
-        // Timber.d("updateFTStatusToDB MsgId = %s @status: %s; row count: %s", msgUuid, status, count);
-        return count;
+        // Queued for group commit; the frequent progress status changes of the same msgUuid are coalesced.
+        mWriteQueue.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.UUID + "=?", args);
     }
 
     /**
@@ -384,7 +391,7 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
             purgeLocallyStoredHistory(null, cursor.getString(0));
         }
         cursor.close();
-        mDB.delete(ChatMessage.TABLE_NAME, null, null);
+        mWriteQueue.deleteNow(ChatMessage.TABLE_NAME, null, null);
 
     }
 
@@ -412,10 +419,10 @@ public class FileHistoryServiceImpl implements FileHistoryService, ServiceListen
     private void purgeLocallyStoredHistory(Contact contact, String sessionUuid) {
         String[] args = {sessionUuid};
         if (contact != null) {
-            mDB.delete(ChatMessage.TABLE_NAME, ChatMessage.SESSION_UUID + "=?", args);
+            mWriteQueue.deleteNow(ChatMessage.TABLE_NAME, ChatMessage.SESSION_UUID + "=?", args);
         }
         else {
-            mDB.delete(ChatSession.TABLE_NAME, ChatSession.SESSION_UUID + "=?", args);
+            mWriteQueue.deleteNow(ChatSession.TABLE_NAME, ChatSession.SESSION_UUID + "=?", args);
         }
     }
 
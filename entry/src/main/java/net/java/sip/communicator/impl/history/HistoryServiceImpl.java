@@ -315,6 +315,8 @@ public class HistoryServiceImpl implements HistoryService {
      */
     public void purgeLocallyStoredHistory(Contact contact, String sessionUuid) {
         String[] args = {sessionUuid};
+        // Commit any queued chatMessages write before purging
+        DatabaseBackend.getWriteQueue().flush();
         if (contact != null) {
             mDB.delete(ChatMessage.TABLE_NAME, ChatMessage.SESSION_UUID + "=?", args);
         }
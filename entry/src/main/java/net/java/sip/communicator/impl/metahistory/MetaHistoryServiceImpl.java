@@ -14,6 +14,7 @@ import java.util.Date;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.TreeSet;
 
 import net.java.sip.communicator.service.callhistory.CallHistoryService;
@@ -22,6 +23,7 @@ import net.java.sip.communicator.service.callhistory.CallRecord;
 import net.java.sip.communicator.service.callhistory.event.CallHistorySearchProgressListener;
 import net.java.sip.communicator.service.contactlist.MetaContact;
 import net.java.sip.communicator.service.filehistory.FileRecord;
+import net.java.sip.communicator.service.history.HistoryCursor;
 import net.java.sip.communicator.service.history.event.HistorySearchProgressListener;
 import net.java.sip.communicator.service.history.event.ProgressEvent;
 import net.java.sip.communicator.service.metahistory.MetaHistoryService;
@@ -42,7 +44,8 @@ import timber.log.Timber;
 
 /**
  * The Meta History Service is wrapper around the other known history services. Query them all at
- * once, sort the result and return all merged records in one collection.
+ * once, sort the result and return all merged records in one collection. The count limited queries
+ * are k-way merged from the services sorted cursors, without loading all the records.
  *
  * @author Damian Minkov
  * @author Eng Chong Meng
@@ -353,41 +356,25 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findLast(String[] services, Object descriptor, int count) {
         MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
 
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
+        // will also get fileHistory for metaContact and chatRoom
+        List<HistoryCursor<?>> cursors = new ArrayList<>();
+        for (String name : services) {
             Object serv = getService(name);
             if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                // will also get fileHistory for metaContact and chatRoom
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findLast((MetaContact) descriptor, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findLast((ChatRoom) descriptor, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((MessageHistoryService) serv).cursorLastMessagesBefore(descriptor, null, count));
             }
             else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findLast(count));
-                chs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((CallHistoryService) serv).cursorLastCallsBefore(null, count));
             }
         }
-        listenWrapper.fireLastProgress(null, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-        int startIndex = resultAsList.size() - count;
+        List<Object> result = mergeCursors(cursors, Collections.reverseOrder(new RecordsComparator()),
+                count, listenWrapper, null, null);
+        listenWrapper.fireLastProgress(null, null, null);
 
-        if (startIndex < 0)
-            startIndex = 0;
-        return resultAsList.subList(startIndex, resultAsList.size());
+        Collections.reverse(result);
+        return result;
     }
 
     /**
@@ -403,48 +390,20 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
     public Collection<Object> findFirstMessagesAfter(String[] services, Object descriptor, Date date, int count) {
         MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
 
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
+        List<HistoryCursor<?>> cursors = new ArrayList<>();
+        for (String name : services) {
             Object serv = getService(name);
             if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findFirstMessagesAfter((MetaContact) descriptor, date, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findFirstMessagesAfter((ChatRoom) descriptor, date, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((MessageHistoryService) serv).cursorFirstMessagesAfter(descriptor, date, count));
             }
             else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
-                Collection<CallRecord> col = chs.findByStartDate(date);
-                if (col.size() > count) {
-                    // before we make a sublist make sure there are sorted in the right order
-                    List<CallRecord> l = new LinkedList<>(col);
-                    Collections.sort(l, new RecordsComparator());
-                    result.addAll(l.subList(0, count));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((CallHistoryService) serv).cursorFirstCallsAfter(date, count));
             }
         }
-        listenWrapper.fireLastProgress(date, null, null);
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-
-        int toIndex = count;
-        if (toIndex > resultAsList.size())
-            toIndex = resultAsList.size();
 
-        return resultAsList.subList(0, toIndex);
+        List<Object> result = mergeCursors(cursors, new RecordsComparator(), count, listenWrapper, date, null);
+        listenWrapper.fireLastProgress(date, null, null);
+        return result;
     }
 
     /**
@@ -459,46 +418,64 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findLastMessagesBefore(String[] services, Object descriptor, Date date, int count) {
         MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
+
+        List<HistoryCursor<?>> cursors = new ArrayList<>();
+        for (String name : services) {
             Object serv = getService(name);
             if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findLastMessagesBefore((MetaContact) descriptor, date, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findLastMessagesBefore((ChatRoom) descriptor, date, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((MessageHistoryService) serv).cursorLastMessagesBefore(descriptor, date, count));
             }
             else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
-                Collection<CallRecord> col = chs.findByEndDate(date);
-                if (col.size() > count) {
-                    List<CallRecord> l = new LinkedList<>(col);
-                    result.addAll(l.subList(l.size() - count, l.size()));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
+                cursors.add(((CallHistoryService) serv).cursorLastCallsBefore(date, count));
             }
         }
+
+        List<Object> result = mergeCursors(cursors, Collections.reverseOrder(new RecordsComparator()),
+                count, listenWrapper, date, null);
         listenWrapper.fireLastProgress(date, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-        int startIndex = resultAsList.size() - count;
-        if (startIndex < 0)
-            startIndex = 0;
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * K-way merge of the sorted history cursors of the services; reading of the cursors stops
+     * once the required number of records is taken. All the cursors are closed on return.
+     *
+     * @param cursors the service cursors, each sorted in the given order
+     * @param order the records order of the cursors
+     * @param count max number of records to take
+     * @param listenWrapper the progress listener wrapper
+     * @param startDate the query start date for progress event
+     * @param endDate the query end date for progress event
+     *
+     * @return the merged records in the given order
+     */
+    private List<Object> mergeCursors(List<HistoryCursor<?>> cursors, Comparator<Object> order, int count,
+            MessageProgressWrapper listenWrapper, Date startDate, Date endDate) {
+        List<Object> result = new ArrayList<>();
+        PriorityQueue<MergeEntry> heads = new PriorityQueue<>(Math.max(1, cursors.size()),
+                (e1, e2) -> order.compare(e1.record, e2.record));
+        try {
+            for (HistoryCursor<?> cursor : cursors) {
+                if (cursor.hasNext())
+                    heads.add(new MergeEntry(cursor.next(), cursor));
+            }
 
-        return resultAsList.subList(startIndex, resultAsList.size());
+            while ((result.size() < count) && !heads.isEmpty()) {
+                MergeEntry head = heads.poll();
+                result.add(head.record);
+                listenWrapper.fireMergeProgress(result.size(), count, startDate, endDate);
+
+                if (head.cursor.hasNext())
+                    heads.add(new MergeEntry(head.cursor.next(), head.cursor));
+            }
+        } finally {
+            for (HistoryCursor<?> cursor : cursors) {
+                cursor.close();
+            }
+        }
+        return result;
     }
 
     /**
@@ -634,11 +611,26 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
         }
     }
 
+    /**
+     * The current head record of a service cursor in the k-way merge.
+     */
+    private static class MergeEntry {
+        private final Object record;
+        private final HistoryCursor<?> cursor;
+
+        private MergeEntry(Object record, HistoryCursor<?> cursor) {
+            this.record = record;
+            this.cursor = cursor;
+        }
+    }
+
     private class MessageProgressWrapper implements MessageHistorySearchProgressListener, CallHistorySearchProgressListener {
         private final int count;
 
         private int ix;
 
+        private int lastProgress = -1;
+
         public MessageProgressWrapper(int count) {
             this.count = count;
         }
@@ -667,6 +659,20 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
                 listener.progressChanged(ev);
         }
 
+        /**
+         * Fire the progress of the merged services records; only when the progress value has changed.
+         */
+        public void fireMergeProgress(int merged, int total, Date startDate, Date endDate) {
+            int progress = merged * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / total;
+            if (progress == lastProgress)
+                return;
+
+            lastProgress = progress;
+            ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, null);
+            ev.setProgress(progress);
+            fireEvent(ev);
+        }
+
         public void fireLastProgress(Date startDate, Date endDate, String[] keywords) {
             ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, keywords);
             ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
@@ -48,6 +48,7 @@ import net.java.sip.communicator.service.contactlist.MetaContact;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
 import net.java.sip.communicator.service.contactsource.ContactSourceService;
 import net.java.sip.communicator.service.filehistory.FileRecord;
+import net.java.sip.communicator.service.history.HistoryCursor;
 import net.java.sip.communicator.service.history.HistoryReader;
 import net.java.sip.communicator.service.history.HistoryService;
 import net.java.sip.communicator.service.history.event.HistorySearchProgressListener;
@@ -102,6 +103,7 @@ import org.atalk.ohos.gui.chat.ChatSession;
 import org.atalk.ohos.gui.chat.chatsession.ChatSessionFragment;
 import org.atalk.ohos.gui.chat.chatsession.ChatSessionRecord;
 import org.atalk.persistance.DatabaseBackend;
+import org.atalk.persistance.WriteBehindQueue;
 import org.atalk.service.configuration.ConfigurationService;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.Message;
@@ -182,6 +184,13 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     private ServiceRegistration<?> messageSourceServiceReg = null;
 
     private SQLiteDatabase mDB;
+
+    /**
+     * Write-behind queue for the chat message inserts and status updates; so that the smack stanza
+     * processing thread is not blocked by the SQLite write; all ChatMessage table reads must go
+     * through the queue to read back its own writes.
+     */
+    private WriteBehindQueue mWriteQueue;
     private final ContentValues contentValues = new ContentValues();
 
     /**
@@ -193,6 +202,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public void start(BundleContext bc) {
         this.bundleContext = bc;
         mDB = DatabaseBackend.getWritableDB();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
 
         ServiceReference<?> refConfig = bundleContext.getServiceReference(ConfigurationService.class.getName());
         configService = (ConfigurationService) bundleContext.getService(refConfig);
@@ -227,6 +237,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             configService.removePropertyChangeListener(msgHistoryPropListener);
 
         stopMessageHistoryService();
+        mWriteQueue.flush();
     }
 
     /**
@@ -416,7 +427,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(contact);
         Cursor cursor;
         String[] args = {sessionUuid, startTimeStamp};
-        cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=?",
                 args, null, null, ORDER_ASC);
 
@@ -443,7 +454,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(contact);
         Cursor cursor;
         String[] args = {sessionUuid, endTimeStamp};
-        cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + "<?",
                 args, null, null, ORDER_ASC);
 
@@ -472,7 +483,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(contact);
         Cursor cursor;
         String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
-        cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
                         + ChatMessage.TIME_STAMP + "<?", args, null, null, ORDER_ASC);
 
@@ -540,7 +551,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             Cursor cursor;
             String[] args = {sessionUuid};
-            cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID
+            cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID
                     + "=?", args, null, null, ORDER_DESC, String.valueOf(count));
 
             while (cursor.moveToNext()) {
@@ -571,7 +582,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             String[] args = {sessionUuid, startTimeStamp};
             Cursor cursor;
-            cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+            cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=?",
                     args, null, null, ORDER_ASC, String.valueOf(count));
 
@@ -605,7 +616,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             Cursor cursor;
             String[] args = {sessionUuid, endTimeStamp};
-            cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+            cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + "<?",
                     args, null, null, ORDER_DESC, String.valueOf(count));
 
@@ -617,6 +628,86 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return result;
     }
 
+    /**
+     * Returns a cursor of the messages exchanged with the supplied descriptor before the given date;
+     * lazily read from the database with the most recent message first.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param endDate messages before date; null for all the messages
+     * @param count max messages count
+     *
+     * @return HistoryCursor of MessageReceivedEvents, MessageDeliveredEvents or FileRecords in descending timeStamp order
+     */
+    public HistoryCursor<EventObject> cursorLastMessagesBefore(Object descriptor, Date endDate, int count) {
+        String condition = (endDate == null) ? null : ChatMessage.TIME_STAMP + "<?";
+        return cursorMessages(descriptor, condition, endDate, ORDER_DESC, count);
+    }
+
+    /**
+     * Returns a cursor of the messages exchanged with the supplied descriptor on and after the given date;
+     * lazily read from the database with the oldest message first.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param startDate messages on and after date
+     * @param count max messages count
+     *
+     * @return HistoryCursor of MessageReceivedEvents, MessageDeliveredEvents or FileRecords in ascending timeStamp order
+     */
+    public HistoryCursor<EventObject> cursorFirstMessagesAfter(Object descriptor, Date startDate, int count) {
+        return cursorMessages(descriptor, ChatMessage.TIME_STAMP + ">=?", startDate, ORDER_ASC, count);
+    }
+
+    /**
+     * Query in a single statement all the chat sessions of the descriptor; the records are converted
+     * to message events only when read by the HistoryCursor consumer.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param dateCondition the timeStamp condition; or null if none
+     * @param date the timeStamp argument for the dateCondition
+     * @param order ORDER_ASC or ORDER_DESC
+     * @param count max messages count
+     *
+     * @return HistoryCursor of the messages
+     */
+    private HistoryCursor<EventObject> cursorMessages(Object descriptor, String dateCondition, Date date,
+            String order, int count) {
+        List<String> argList = new ArrayList<>();
+        HistoryCursor.RecordConverter<EventObject> converter;
+
+        if (descriptor instanceof MetaContact) {
+            // sessionUuid to its contact; for converting the records of all the contacts from a single query
+            Map<String, Contact> sessionContacts = new Hashtable<>();
+            Iterator<Contact> contacts = ((MetaContact) descriptor).getContacts();
+            while (contacts.hasNext()) {
+                Contact contact = contacts.next();
+                sessionContacts.put(getSessionUuidByJid(contact), contact);
+            }
+            argList.addAll(sessionContacts.keySet());
+            converter = cursor -> convertHistoryRecordToMessageEvent(cursor,
+                    sessionContacts.get(cursor.getString(cursor.getColumnIndexOrThrow(ChatMessage.SESSION_UUID))));
+        }
+        else if (descriptor instanceof ChatRoom) {
+            ChatRoom chatRoom = (ChatRoom) descriptor;
+            argList.add(getSessionUuidByJid(chatRoom));
+            converter = cursor -> convertHistoryRecordToMessageEvent(cursor, chatRoom);
+        }
+        else {
+            return HistoryCursor.empty();
+        }
+        if (argList.isEmpty())
+            return HistoryCursor.empty();
+
+        String selection = ChatMessage.SESSION_UUID + " IN (" + StringUtils.repeat("?", ",", argList.size()) + ")";
+        if (dateCondition != null) {
+            selection += " AND " + dateCondition;
+            argList.add(String.valueOf(date.getTime()));
+        }
+
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, selection,
+                argList.toArray(new String[0]), null, null, order, String.valueOf(count));
+        return new HistoryCursor<>(cursor, converter);
+    }
+
     // ============== ChatSessionFragment utilities ======================
 
     /**
@@ -692,7 +783,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         if (StringUtils.isNotEmpty(sessionUuid)) {
             String[] columns = {ChatMessage.MSG_BODY};
             String[] args = {sessionUuid, endTimeStamp};
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=? AND "
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=? AND "
                     + ChatMessage.TIME_STAMP + "<?", args, null, null, ORDER_DESC, "1");
 
             while (cursor.moveToNext()) {
@@ -715,7 +806,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
 
         String[] columns = {ChatMessage.TIME_STAMP};
         String[] args = {sessionUuid, endTimeStamp};
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=? AND "
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=? AND "
                 + ChatMessage.TIME_STAMP + "<?", args, null, null, ORDER_DESC, "1");
 
         String mamDate = "-1";
@@ -763,7 +854,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public Date getMamDate(String sessionUuid) {
         String[] columns = {ChatSession.MAM_DATE};
         String[] args = {sessionUuid};
-        Cursor cursor = mDB.query(ChatSession.TABLE_NAME, columns,
+        Cursor cursor = mWriteQueue.query(ChatSession.TABLE_NAME, columns,
                 ChatSession.SESSION_UUID + "=?", args, null, null, null, null);
 
         Date mamDate = null;
@@ -797,6 +888,23 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return mDB.update(ChatSession.TABLE_NAME, contentValues, ChatSession.SESSION_UUID + "=?", args);
     }
 
+    /**
+     * Queue the update of the last sent/received message timeStamp for the specified sessionUuid;
+     * the mamDate check is done in the where clause so there is no need to read back the current value.
+     *
+     * @param sessionUuid the chat sessions record id to which to save the timestamp
+     * @param date last message timestamp
+     *
+     * @see #setMamDate(String, Date)
+     */
+    public void queueMamDate(String sessionUuid, Date date) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(ChatSession.MAM_DATE, Long.toString(date.getTime() + 10));
+        String[] args = {sessionUuid, Long.toString(date.getTime())};
+        mWriteQueue.update(ChatSession.TABLE_NAME, contentValues, ChatSession.SESSION_UUID + "=? AND ("
+                + ChatSession.MAM_DATE + " IS NULL OR " + ChatSession.MAM_DATE + "<=?)", args);
+    }
+
     public void saveMamIfNotExit(OmemoManager omemoManager, ChatPanel chatPanel, List<Forwarded<Message>> forwardedList) {
         String chatId;
         Object descriptor = chatPanel.getDescriptor();
@@ -841,7 +949,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             timeStamp = forwarded.getDelayInformation().getStamp();
 
             String[] args = {msgId, chatId};
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.UUID
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, ChatMessage.UUID
                     + "=? AND " + ChatMessage.SESSION_UUID + "=?", args, null, null, null);
             int msgCount = cursor.getCount();
             cursor.close();
@@ -910,7 +1018,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
 
         if (StringUtils.isNotEmpty(msgId)) {
             String[] args = {msgId, ChatMessage.DIR_IN};
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.UUID
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, ChatMessage.UUID
                     + "=? AND " + ChatMessage.DIRECTION + "=?", args, null, null, null);
             int msgCount = cursor.getCount();
             isUnexpected = msgCount != 0;
@@ -990,7 +1098,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             }
             args = argList.toArray(new String[0]);
 
-            cursorMsg = mDB.query(ChatMessage.TABLE_NAME, null, whereCondition, args,
+            cursorMsg = mWriteQueue.query(ChatMessage.TABLE_NAME, null, whereCondition, args,
                     null, null, ORDER_DESC, String.valueOf(count));
 
 
@@ -1054,7 +1162,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         int msgCount = 0;
         if (StringUtils.isNotEmpty(sessionUuid)) {
             String[] args = {sessionUuid};
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID + "=?", args,
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID + "=?", args,
                     null, null, null);
             msgCount = cursor.getCount();
             cursor.close();
@@ -1547,7 +1655,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String[] args = {receiptId};
         contentValues.clear();
         contentValues.put(ChatMessage.READ, ChatMessage.MESSAGE_DELIVERY_RECEIPT);
-        mDB.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.SERVER_MSG_ID + "=?", args);
+        mWriteQueue.update(ChatMessage.TABLE_NAME, contentValues, ChatMessage.SERVER_MSG_ID + "=?", args);
 
         for (MessageReceiptListener l : messageReceiptListeners) {
             l.receiptReceived(fromJid, toJid, receiptId, receipt);
@@ -1728,7 +1836,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         contentValues.put(ChatMessage.JID, jid);
 
         writeMessageToDB(message, direction, msgType);
-        setMamDate(chatId, msgTimestamp);
+        queueMamDate(chatId, msgTimestamp);
     }
 
     /**
@@ -1758,7 +1866,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         contentValues.put(ChatMessage.JID, jid);
 
         writeMessageToDB(message, direction, msgType);
-        setMamDate(chatId, msgTimestamp);
+        queueMamDate(chatId, msgTimestamp);
     }
 
     /**
@@ -1782,7 +1890,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         contentValues.put(ChatMessage.JID, sender);
 
         writeMessageToDB(message, direction, msgType);
-        setMamDate(chatId, msgTimestamp);
+        queueMamDate(chatId, msgTimestamp);
     }
 
     /**
@@ -1814,7 +1922,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         contentValues.put(ChatMessage.JID, destination.getAddress());
 
         writeMessageToDB(message, direction, msgType);
-        setMamDate(sessionUuid, msgTimestamp);
+        queueMamDate(sessionUuid, msgTimestamp);
     }
 
     /**
@@ -1845,7 +1953,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         }
         // Inserted message SessionUuid must exist in chatSessions table; else:
         // SQLiteConstraintException: FOREIGN KEY constraint failed (code 787 SQLITE_CONSTRAINT_FOREIGNKEY[787])
-        mDB.insert(ChatMessage.TABLE_NAME, null, contentValues);
+        mWriteQueue.insert(ChatMessage.TABLE_NAME, contentValues);
     }
 
     //============ service change events handler ================//
@@ -1941,7 +2049,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
 
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
                             + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
 
@@ -1973,7 +2081,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             String[] args = {sessionUuid};
 
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
@@ -2008,7 +2116,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String sessionUuid = getSessionUuidByJid(contact);
             String[] args = {sessionUuid};
 
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+            Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
@@ -2032,7 +2140,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid, startTimeStamp};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=?",
                 args, null, null, ORDER_ASC);
 
@@ -2056,7 +2164,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid, endTimeStamp};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + "<?",
                 args, null, null, ORDER_ASC);
 
@@ -2082,7 +2190,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
                         + ChatMessage.TIME_STAMP + "<?", args, null, null, ORDER_ASC);
 
@@ -2133,7 +2241,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         }
         filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
                         + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
 
@@ -2172,7 +2280,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String[] args = {sessionUuid};
         String filterLike = "( " + ChatMessage.MSG_BODY + " LIKE '%" + keyword + "%' )";
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
@@ -2214,7 +2322,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         }
         filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
@@ -2236,7 +2344,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null, ChatMessage.SESSION_UUID
                 + "=?", args, null, null, ORDER_DESC, String.valueOf(count));
 
         while (cursor.moveToNext()) {
@@ -2263,7 +2371,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid, startTimeStamp};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=?",
                 args, null, null, ORDER_DESC, String.valueOf(count));
 
@@ -2291,7 +2399,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String sessionUuid = getSessionUuidByJid(room);
         String[] args = {sessionUuid, endTimeStamp};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + "<?",
                 args, null, null, ORDER_DESC, String.valueOf(count));
 
@@ -2471,7 +2579,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         int msgCount = 0;
         for (String uuid : msgUUIDs) {
             String[] args = {uuid};
-            msgCount += mDB.delete(ChatMessage.TABLE_NAME, ChatMessage.UUID + "=?", args);
+            msgCount += mWriteQueue.deleteNow(ChatMessage.TABLE_NAME, ChatMessage.UUID + "=?", args);
         }
         return msgCount;
     }
@@ -2489,12 +2597,12 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         for (String uuid : sessionUuids) {
             String[] args = {uuid};
             // purged all messages with the same sessionUuid
-            msgCount += mDB.delete(ChatMessage.TABLE_NAME, ChatMessage.SESSION_UUID + "=?", args);
+            msgCount += mWriteQueue.deleteNow(ChatMessage.TABLE_NAME, ChatMessage.SESSION_UUID + "=?", args);
 
             // Purge the sessionUuid in the ChatSession if true and its messages count is zero
             int count = getMessageCountForSessionUuid(uuid);
             if (eraseSid && count == 0) {
-                mDB.delete(ChatSession.TABLE_NAME, ChatSession.SESSION_UUID + "=?", args);
+                mWriteQueue.deleteNow(ChatSession.TABLE_NAME, ChatSession.SESSION_UUID + "=?", args);
                 msgCount++;
             }
         }
@@ -2544,7 +2652,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String[] args = {sessionUuid};
         String[] columns = {ChatMessage.FILE_PATH};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=?",
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, columns, ChatMessage.SESSION_UUID + "=?",
                 args, null, null, null);
         while (cursor.moveToNext()) {
             filePath = cursor.getString(0);
@@ -2566,7 +2674,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String filePath;
         String[] columns = {ChatMessage.FILE_PATH};
 
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, columns, ChatMessage.FILE_PATH + " IS NOT NULL",
+        Cursor cursor = mWriteQueue.query(ChatMessage.TABLE_NAME, columns, ChatMessage.FILE_PATH + " IS NOT NULL",
                 null, null, null, null);
         while (cursor.moveToNext()) {
             filePath = cursor.getString(0);
@@ -18,6 +18,7 @@ package net.java.sip.communicator.impl.msghistory;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.NonNull;
@@ -26,12 +27,13 @@ import java.beans.PropertyChangeEvent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.EventObject;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import net.java.sip.communicator.service.contactlist.MetaContact;
 import net.java.sip.communicator.service.contactlist.event.MetaContactListAdapter;
@@ -75,6 +77,7 @@ import org.atalk.ohos.R;
 import org.atalk.ohos.aTalkApp;
 import org.atalk.ohos.gui.chat.ChatMessage;
 import org.atalk.persistance.DatabaseBackend;
+import org.atalk.persistance.WriteBehindQueue;
 import org.atalk.service.configuration.ConfigurationService;
 import org.jetbrains.annotations.NotNull;
 
@@ -131,9 +134,21 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      */
     private static String RECENT_MSGS_VER = "2";
     /**
-     * List of recent messages.
+     * Excess of old records allowed in the history database before they are trimmed in one go.
      */
-    private final List<ComparableEvtObj> recentMessages = new LinkedList<>();
+    private static final int EXCESS_MSGS_IN_HISTORY = 12;
+
+    /**
+     * Recent messages kept sorted by timestamp in DESC order; also used as the lock for all the
+     * recent messages states. An entry must be removed before its timestamp is updated, and then
+     * re-inserted, see {@link #updateRecentMessage(ComparableEvtObj, EventObject)}.
+     */
+    private final TreeSet<ComparableEvtObj> recentMessages = new TreeSet<>();
+    /**
+     * Index of the recentMessages by accountUid and entity address, for O(1) lookup of the entry
+     * to be updated on each incoming message.
+     */
+    private final Map<String, ComparableEvtObj> recentMessagesIndex = new HashMap<>();
     /**
      * The type of the source service, the place to be shown in the ui.
      */
@@ -142,10 +157,6 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      * Number of messages to show.
      */
     private int numberOfMessages;
-    /**
-     * Date of the oldest shown message.
-     */
-    private Date oldestRecentMessage = null;
     /**
      * The last query created.
      */
@@ -161,14 +172,21 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
 
     // SQLite database variables
     private final SQLiteDatabase mDB;
+    private final WriteBehindQueue mWriteQueue;
     private final ContentValues contentValues = new ContentValues();
 
+    /**
+     * Number of records in the recent messages history database; -1 if not yet counted.
+     */
+    private int mHistoryRecordCount = -1;
+
     /**
      * Constructs MessageSourceService.
      */
     public MessageSourceService(MessageHistoryServiceImpl messageHistoryService) {
         this.messageHistoryService = messageHistoryService;
         mDB = DatabaseBackend.getWritableDB();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
 
         ConfigurationService conf = MessageHistoryActivator.getConfigurationService();
         if (conf.getBoolean(IN_HISTORY_PROPERTY, false)) {
@@ -246,11 +264,9 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
                     if (msc.getProtocolProviderService().equals(provider))
                         removedItems.add(msc);
                 }
-                recentMessages.removeAll(removedItems);
-                if (!recentMessages.isEmpty())
-                    oldestRecentMessage = recentMessages.get(recentMessages.size() - 1).getTimestamp();
-                else
-                    oldestRecentMessage = null;
+                for (ComparableEvtObj msc : removedItems) {
+                    removeRecentMessage(msc);
+                }
 
                 if (recentQuery != null) {
                     for (ComparableEvtObj msc : removedItems) {
@@ -282,13 +298,10 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         if (recentQuery == null)
             return;
 
-        synchronized (recentMessages) {
-            for (ComparableEvtObj msg : recentMessages) {
-                if ((msg.getContact() != null)
-                        && msg.getContact().equals(evt.getSourceContact())) {
-                    recentQuery.updateContactStatus(msg, evt.getNewStatus());
-                }
-            }
+        Contact contact = evt.getSourceContact();
+        ComparableEvtObj msg = getRecentMessage(contact.getProtocolProvider(), contact.getAddress());
+        if (msg != null) {
+            recentQuery.updateContactStatus(msg, evt.getNewStatus());
         }
     }
 
@@ -297,16 +310,8 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         if (recentQuery == null)
             return;
 
-        ComparableEvtObj srcContact = null;
-        synchronized (recentMessages) {
-            for (ComparableEvtObj msg : recentMessages) {
-                if ((msg.getRoom() != null) && msg.getRoom().equals(evt.getChatRoom())) {
-                    srcContact = msg;
-                    break;
-                }
-            }
-        }
-
+        ChatRoom chatRoom = evt.getChatRoom();
+        ComparableEvtObj srcContact = getRecentMessage(chatRoom.getParentProvider(), chatRoom.getName());
         if (srcContact == null)
             return;
 
@@ -356,6 +361,7 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
     private List<ComparableEvtObj> getCachedRecentMessages(ProtocolProviderService provider, boolean isStatusChanged) {
         Collection<EventObject> res;
         String accountId = provider.getAccountID().getAccountUid();
+        Date oldestRecentMessage = recentMessages.isEmpty() ? null : recentMessages.last().getTimestamp();
         List<String> recentMessagesContactIDs = getRecentContactIDs(accountId,
                 (recentMessages.size() < numberOfMessages) ? null : oldestRecentMessage);
 
@@ -392,9 +398,9 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
             if (eventObject instanceof FileRecord)
                 continue;
 
-            ComparableEvtObj oldMsg = findRecentMessage(eventObject, recentMessages);
+            ComparableEvtObj oldMsg = recentMessagesIndex.get(ComparableEvtObj.getKey(eventObject));
             if (oldMsg != null) {
-                oldMsg.update(eventObject); // update
+                updateRecentMessage(oldMsg, eventObject);
 
                 if (isStatusChanged && recentQuery != null)
                     recentQuery.updateCapabilities(oldMsg, eventObject);
@@ -433,59 +439,103 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      * @param contactsToAdd List of contacts to add
      */
     private void addNewRecentMessages(List<ComparableEvtObj> contactsToAdd) {
-        // now find object to fire new, and object to fire remove let us find duplicates and fire update
+        // Merge into the sorted recentMessages; existing entries are repositioned, and only their changes saved
         List<ComparableEvtObj> duplicates = new ArrayList<>();
+        List<ComparableEvtObj> newItems = new ArrayList<>();
         for (ComparableEvtObj msgToAdd : contactsToAdd) {
-            if (recentMessages.contains(msgToAdd)) {
-                duplicates.add(msgToAdd);
-                // save update
-                updateRecentMessageToHistory(msgToAdd);
+            ComparableEvtObj oldMsg = recentMessagesIndex.get(msgToAdd.getKey());
+            if (oldMsg != null) {
+                if (oldMsg != msgToAdd)
+                    updateRecentMessage(oldMsg, msgToAdd.getEventObject());
+                updateRecentMessageToHistory(oldMsg);
+                duplicates.add(oldMsg);
             }
-        }
-        recentMessages.removeAll(duplicates);
-        // now contacts to add has no duplicates, add them all
-        boolean changed = recentMessages.addAll(contactsToAdd);
-        if (changed) {
-            Collections.sort(recentMessages);
-            if (recentQuery != null) {
-                for (ComparableEvtObj obj : duplicates)
-                    recentQuery.updateContact(obj, obj.getEventObject());
+            else {
+                addRecentMessage(msgToAdd);
+                newItems.add(msgToAdd);
             }
         }
-        if (!recentMessages.isEmpty())
-            oldestRecentMessage = recentMessages.get(recentMessages.size() - 1).getTimestamp();
-
-        // trim
-        List<ComparableEvtObj> removedItems = null;
-        if (recentMessages.size() > numberOfMessages) {
-            removedItems = new ArrayList<>(recentMessages.subList(numberOfMessages, recentMessages.size()));
-            recentMessages.removeAll(removedItems);
-        }
+        List<ComparableEvtObj> removedItems = trimRecentMessages();
+
         if (recentQuery != null) {
-            // now fire, removed for all that were in the list and now are removed after trim
-            if (removedItems != null) {
-                for (ComparableEvtObj msc : removedItems) {
-                    if (!contactsToAdd.contains(msc))
-                        recentQuery.fireContactRemoved(msc);
-                }
+            // fire removed only for those that were in the list and now are removed after trim
+            for (ComparableEvtObj msc : removedItems) {
+                if (!newItems.remove(msc))
+                    recentQuery.fireContactRemoved(msc);
             }
             // fire new for all that were added, and not removed after trim
-            for (ComparableEvtObj msc : contactsToAdd) {
-                if ((removedItems == null || !removedItems.contains(msc))
-                        && !duplicates.contains(msc)) {
-                    MessageSourceContact newSourceContact = new MessageSourceContact(
-                            msc.getEventObject(), MessageSourceService.this);
-                    newSourceContact.initDetails(msc.getEventObject());
-                    recentQuery.addQueryResult(newSourceContact);
-                }
+            for (ComparableEvtObj msc : newItems) {
+                MessageSourceContact newSourceContact = new MessageSourceContact(
+                        msc.getEventObject(), MessageSourceService.this);
+                newSourceContact.initDetails(msc.getEventObject());
+                recentQuery.addQueryResult(newSourceContact);
+            }
+            // fire changed for the updated entries only; the ui reorders each with its new getIndex()
+            for (ComparableEvtObj msc : duplicates) {
+                if (!removedItems.contains(msc))
+                    recentQuery.updateContact(msc, msc.getEventObject());
             }
-            // if recent messages were changed, indexes have change lets fire event for the last
-            // element which will reorder the whole group if needed.
-            if (changed)
-                recentQuery.fireContactChanged(recentMessages.get(recentMessages.size() - 1));
         }
     }
 
+    /**
+     * Get the recent message entry of the given provider and entity address.
+     *
+     * @param provider the protocol provider
+     * @param address the contact address or chatRoom name
+     *
+     * @return the recent message entry, or null if none
+     */
+    private ComparableEvtObj getRecentMessage(ProtocolProviderService provider, String address) {
+        synchronized (recentMessages) {
+            return recentMessagesIndex.get(ComparableEvtObj.getKey(provider, address));
+        }
+    }
+
+    /**
+     * Add a new entry to the recent messages at its sorted position; O(log n).
+     */
+    private void addRecentMessage(ComparableEvtObj msg) {
+        recentMessages.add(msg);
+        recentMessagesIndex.put(msg.getKey(), msg);
+    }
+
+    /**
+     * Remove the entry from the recent messages; O(log n).
+     */
+    private void removeRecentMessage(ComparableEvtObj msg) {
+        recentMessages.remove(msg);
+        recentMessagesIndex.remove(msg.getKey());
+    }
+
+    /**
+     * Update the existing entry with the new event object and move it to its new sorted position;
+     * the entry must be taken out of the TreeSet before its timestamp is changed.
+     *
+     * @param msg the recent message entry to update
+     * @param eventObject the new event object
+     */
+    private void updateRecentMessage(ComparableEvtObj msg, EventObject eventObject) {
+        recentMessages.remove(msg);
+        msg.update(eventObject);
+        recentMessages.add(msg);
+    }
+
+    /**
+     * Trim the recent messages to the desired length, removing the oldest entries.
+     *
+     * @return the list of removed entries
+     */
+    private List<ComparableEvtObj> trimRecentMessages() {
+        List<ComparableEvtObj> removedItems = new ArrayList<>();
+        while (recentMessages.size() > numberOfMessages) {
+            ComparableEvtObj msg = recentMessages.pollLast();
+            recentMessagesIndex.remove(msg.getKey());
+            removedItems.add(msg);
+        }
+        return removedItems;
+    }
+
     /**
      * Searches for contact ids in history of recent messages on and after the startDate
      *
@@ -510,7 +560,7 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         String[] args = argList.toArray(new String[0]);
 
         // Retrieve all the entityJid for the given accountUid and startDate
-        Cursor cursor = mDB.query(MessageSourceService.TABLE_NAME, columns,
+        Cursor cursor = mWriteQueue.query(MessageSourceService.TABLE_NAME, columns,
                 whereCondition, args, null, null, null);
 
         while (cursor.moveToNext()) {
@@ -523,19 +573,22 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
     /**
      * Adds recent message in history database;
      * Remove excess of old records (+12) each time if db exceed NUMBER_OF_MSGS_IN_HISTORY.
+     * The record count is tracked locally; so the table is only counted once and not queried on every insert.
      */
     private void saveRecentMessageToHistory(ComparableEvtObj msc) {
+        if (mHistoryRecordCount < 0) {
+            mWriteQueue.flush();
+            mHistoryRecordCount = (int) DatabaseUtils.queryNumEntries(mDB, MessageSourceService.TABLE_NAME);
+        }
+
         // Keep the record size to within the specified NUMBER_OF_MSGS_IN_HISTORY
-        Cursor cursor = mDB.query(MessageSourceService.TABLE_NAME, null, null, null,
-                null, null, ORDER_DESC);
-        int excess = cursor.getCount() - NUMBER_OF_MSGS_IN_HISTORY;
-        if (excess > 0) {
-            cursor.move(excess + 12);
-            String[] args = {cursor.getString(cursor.getColumnIndexOrThrow(TIME_STAMP))};
-            int count = mDB.delete(MessageSourceService.TABLE_NAME, TIME_STAMP + "<?", args);
-            Timber.d("No of recent old messages deleted : %s", count);
+        if (mHistoryRecordCount >= NUMBER_OF_MSGS_IN_HISTORY + EXCESS_MSGS_IN_HISTORY) {
+            String whereCondition = UUID + " NOT IN (SELECT " + UUID + " FROM " + MessageSourceService.TABLE_NAME
+                    + " ORDER BY " + ORDER_DESC + " LIMIT " + (NUMBER_OF_MSGS_IN_HISTORY - 1) + ")";
+            mWriteQueue.delete(MessageSourceService.TABLE_NAME, whereCondition, null);
+            mHistoryRecordCount = NUMBER_OF_MSGS_IN_HISTORY - 1;
+            Timber.d("Trim recent old messages to: %s", mHistoryRecordCount);
         }
-        cursor.close();
 
         Date date = new Date();
         String uuid = String.valueOf(date.getTime()) + Math.abs(date.hashCode());
@@ -548,11 +601,13 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         contentValues.put(TIME_STAMP, msc.getTimestamp().getTime());
         contentValues.put(VERSION, RECENT_MSGS_VER);
 
-        mDB.insert(MessageSourceService.TABLE_NAME, null, contentValues);
+        mWriteQueue.insert(MessageSourceService.TABLE_NAME, contentValues);
+        mHistoryRecordCount++;
     }
 
     /**
-     * Updates recent message in history.
+     * Updates recent message in history; only the changed record is written, and consecutive updates
+     * of the same record are coalesced by the write queue.
      */
     private void updateRecentMessageToHistory(ComparableEvtObj msg) {
         contentValues.clear();
@@ -563,7 +618,7 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         String entityJid = msg.getContactAddress();
         String[] args = {accountUid, entityJid};
 
-        mDB.update(MessageSourceService.TABLE_NAME, contentValues, ACCOUNT_UID + "=? AND " + ENTITY_JID + "=?", args);
+        mWriteQueue.update(MessageSourceService.TABLE_NAME, contentValues, ACCOUNT_UID + "=? AND " + ENTITY_JID + "=?", args);
     }
 
     // ================ Message events handlers =======================
@@ -665,42 +720,26 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
     private void handle(EventObject obj, ProtocolProviderService provider, String id) {
         // check if provider - contact exist update message content
         synchronized (recentMessages) {
-            ComparableEvtObj existingMsc = null;
-            for (ComparableEvtObj msc : recentMessages) {
-                if (msc.getProtocolProviderService().equals(provider) && msc.getContactAddress().equals(id)) {
-                    msc.update(obj);
-                    updateRecentMessageToHistory(msc);
-                    existingMsc = msc;
-                }
-            }
-
+            ComparableEvtObj existingMsc = recentMessagesIndex.get(ComparableEvtObj.getKey(provider, id));
             if (existingMsc != null) {
-                Collections.sort(recentMessages);
-                oldestRecentMessage = recentMessages.get(recentMessages.size() - 1).getTimestamp();
+                updateRecentMessage(existingMsc, obj);
+                updateRecentMessageToHistory(existingMsc);
 
+                // contactChanged triggers the ui to move the contact to its new getIndex() position
                 if (recentQuery != null) {
                     recentQuery.updateContact(existingMsc, existingMsc.getEventObject());
-                    recentQuery.fireContactChanged(existingMsc);
                 }
                 return;
             }
 
-            // if missing create source contact and update recent messages, trim and sort
+            // if missing create source contact and update recent messages, trim
             MessageSourceContact newSourceContact = new MessageSourceContact(obj, MessageSourceService.this);
             newSourceContact.initDetails(obj);
             // we have already checked for duplicate
             ComparableEvtObj newMsg = new ComparableEvtObj(obj);
-            recentMessages.add(newMsg);
-
-            Collections.sort(recentMessages);
-            oldestRecentMessage = recentMessages.get(recentMessages.size() - 1).getTimestamp();
+            addRecentMessage(newMsg);
+            List<ComparableEvtObj> removedItems = trimRecentMessages();
 
-            // trim
-            List<ComparableEvtObj> removedItems = null;
-            if (recentMessages.size() > numberOfMessages) {
-                removedItems = new ArrayList<>(recentMessages.subList(numberOfMessages, recentMessages.size()));
-                recentMessages.removeAll(removedItems);
-            }
             // save
             saveRecentMessageToHistory(newMsg);
 
@@ -709,12 +748,12 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
                 return;
 
             // now fire
-            if (removedItems != null) {
-                for (ComparableEvtObj msc : removedItems) {
+            for (ComparableEvtObj msc : removedItems) {
+                if (msc != newMsg)
                     recentQuery.fireContactRemoved(msc);
-                }
             }
-            recentQuery.addQueryResult(newSourceContact);
+            if (!removedItems.contains(newMsg))
+                recentQuery.addQueryResult(newSourceContact);
         }
     }
 
@@ -732,13 +771,9 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         if (contact == null)
             return;
 
-        for (ComparableEvtObj msc : recentMessages) {
-            if (contact.equals(msc.getContact())) {
-                if (recentQuery != null)
-                    recentQuery.updateContactDisplayName(msc, contact.getDisplayName());
-                return;
-            }
-        }
+        ComparableEvtObj msc = getRecentMessage(contact.getProtocolProvider(), contact.getAddress());
+        if (msc != null && recentQuery != null)
+            recentQuery.updateContactDisplayName(msc, contact.getDisplayName());
     }
 
     /**
@@ -747,11 +782,15 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      * @param evt the MetaContactListEvent containing the corresponding contact
      */
     public void metaContactRenamed(MetaContactRenamedEvent evt) {
-        for (ComparableEvtObj msc : recentMessages) {
-            if (evt.getSourceMetaContact().containsContact(msc.getContact())) {
-                if (recentQuery != null)
-                    recentQuery.updateContactDisplayName(msc, evt.getNewDisplayName());
-            }
+        if (recentQuery == null)
+            return;
+
+        Iterator<Contact> contacts = evt.getSourceMetaContact().getContacts();
+        while (contacts.hasNext()) {
+            Contact contact = contacts.next();
+            ComparableEvtObj msc = getRecentMessage(contact.getProtocolProvider(), contact.getAddress());
+            if (msc != null)
+                recentQuery.updateContactDisplayName(msc, evt.getNewDisplayName());
         }
     }
 
@@ -761,16 +800,11 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         if (contact == null)
             return;
 
-        for (ComparableEvtObj msc : recentMessages) {
-            if (contact.equals(msc.getContact())) {
-                if (recentQuery != null)
-                    recentQuery.updateCapabilities(msc, contact);
-                return;
-            }
-        }
+        ComparableEvtObj msc = getRecentMessage(contact.getProtocolProvider(), contact.getAddress());
+        if (msc != null && recentQuery != null)
+            recentQuery.updateCapabilities(msc, contact);
     }
 
-
     /**
      * Tries to match the event object to already existing ComparableEvtObj in the supplied list.
      *
@@ -780,7 +814,7 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      * @return the found ComparableEvtObj
      */
     private static ComparableEvtObj findRecentMessage(EventObject obj,
-            List<ComparableEvtObj> list) {
+            Collection<ComparableEvtObj> list) {
         Contact contact = null;
         ChatRoom chatRoom = null;
 
@@ -844,10 +878,11 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      */
     int getIndex(MessageSourceContact messageSourceContact) {
         synchronized (recentMessages) {
-            for (int i = 0; i < recentMessages.size(); i++)
-                if (recentMessages.get(i).getContact().equals(messageSourceContact.getContact()))
-                    return i;
-            return -1;
+            ComparableEvtObj msg = recentMessagesIndex.get(ComparableEvtObj.getKey(
+                    messageSourceContact.getProtocolProviderService(), messageSourceContact.getContactAddress()));
+            if (msg == null)
+                return -1;
+            return recentMessages.headSet(msg).size();
         }
     }
 
@@ -962,6 +997,54 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
             }
         }
 
+        /**
+         * Get the index key of the recent message entry for the given provider and address.
+         *
+         * @param pps the protocol provider
+         * @param address the contact address or chatRoom name
+         *
+         * @return the index key
+         */
+        static String getKey(ProtocolProviderService pps, String address) {
+            return pps.getAccountID().getAccountUid() + "/" + address;
+        }
+
+        /**
+         * Get the index key of the recent message entry for the given event object.
+         *
+         * @param source the message event object
+         *
+         * @return the index key, or null if the event object is not supported
+         */
+        static String getKey(EventObject source) {
+            if (source instanceof MessageDeliveredEvent) {
+                Contact contact = ((MessageDeliveredEvent) source).getContact();
+                return getKey(contact.getProtocolProvider(), contact.getAddress());
+            }
+            else if (source instanceof MessageReceivedEvent) {
+                Contact contact = ((MessageReceivedEvent) source).getSourceContact();
+                return getKey(contact.getProtocolProvider(), contact.getAddress());
+            }
+            else if (source instanceof ChatRoomMessageDeliveredEvent) {
+                ChatRoom room = ((ChatRoomMessageDeliveredEvent) source).getSourceChatRoom();
+                return getKey(room.getParentProvider(), room.getName());
+            }
+            else if (source instanceof ChatRoomMessageReceivedEvent) {
+                ChatRoom room = ((ChatRoomMessageReceivedEvent) source).getSourceChatRoom();
+                return getKey(room.getParentProvider(), room.getName());
+            }
+            return null;
+        }
+
+        /**
+         * The index key of this recent message entry.
+         *
+         * @return the index key.
+         */
+        public String getKey() {
+            return getKey(ppService, address);
+        }
+
         @NotNull
         @Override
         public String toString() {
@@ -1023,7 +1106,8 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         }
 
         /**
-         * Compares two ComparableEvtObj.
+         * Compares two ComparableEvtObj by timestamp in DESC order, and then by their key; so the
+         * ordering is consistent with equals as required by the TreeSet.
          *
          * @param o the object to compare with
          *
@@ -1031,10 +1115,18 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
          */
         @Override
         public int compareTo(@NonNull ComparableEvtObj o) {
+            if (this.equals(o))
+                return 0;
+
+            int result;
             if (o.getTimestamp() == null)
-                return 1;
+                result = (getTimestamp() == null) ? 0 : -1;
+            else if (getTimestamp() == null)
+                result = 1;
+            else
+                result = o.getTimestamp().compareTo(getTimestamp());
 
-            return o.getTimestamp().compareTo(getTimestamp());
+            return (result != 0) ? result : getKey().compareTo(o.getKey());
         }
 
         /**
@@ -1081,6 +1173,7 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
         synchronized (recentMessages) {
             toRemove = new ArrayList<>(recentMessages);
             recentMessages.clear();
+            recentMessagesIndex.clear();
         }
 
         if (recentQuery != null) {
@@ -1102,27 +1195,13 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
             Iterator<Contact> contacts = metaContact.getContacts();
             while (contacts.hasNext()) {
                 Contact contact = contacts.next();
-                String id = contact.getAddress();
-                ProtocolProviderService provider = contact.getProtocolProvider();
-
-                if (mhsTimeStamp == null) {
-                    for (ComparableEvtObj msc : recentMessages) {
-                        if (msc.getProtocolProviderService().equals(provider)
-                                && msc.getContactAddress().equals(id)) {
-                            toRemove.add(msc);
-                        }
-                    }
-                }
-                else {
-                    for (ComparableEvtObj msc : recentMessages) {
-                        if (msc.getProtocolProviderService().equals(provider)
-                                && msc.getContactAddress().equals(id)) {
-                            toRemove.add(msc);
-                        }
-                    }
+                ComparableEvtObj msc = recentMessagesIndex.get(
+                        ComparableEvtObj.getKey(contact.getProtocolProvider(), contact.getAddress()));
+                if (msc != null) {
+                    removeRecentMessage(msc);
+                    toRemove.add(msc);
                 }
             }
-            recentMessages.removeAll(toRemove);
         }
         if (recentQuery != null) {
             for (ComparableEvtObj msc : toRemove) {
@@ -1135,17 +1214,12 @@ public class MessageSourceService extends MetaContactListAdapter implements Cont
      * Permanently removes locally stored message history for the chatRoom, remove any recent contacts if any.
      */
     public void eraseLocallyStoredHistory(ChatRoom room) {
-        ComparableEvtObj toRemove = null;
+        ComparableEvtObj toRemove;
         synchronized (recentMessages) {
-            for (ComparableEvtObj msg : recentMessages) {
-                if (msg.getRoom() != null && msg.getRoom().equals(room)) {
-                    toRemove = msg;
-                    break;
-                }
-            }
+            toRemove = recentMessagesIndex.get(ComparableEvtObj.getKey(room.getParentProvider(), room.getName()));
             if (toRemove == null)
                 return;
-            recentMessages.remove(toRemove);
+            removeRecentMessage(toRemove);
         }
         if (recentQuery != null)
             recentQuery.fireContactRemoved(toRemove);
@@ -18,10 +18,15 @@ import java.util.Date;
 import java.util.EventObject;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import net.java.sip.communicator.impl.muc.MUCActivator;
@@ -72,6 +77,7 @@ import org.atalk.ohos.gui.chat.conference.ConferenceChatManager;
 import org.atalk.ohos.gui.dialogs.DialogActivity;
 import org.atalk.ohos.gui.util.XhtmlUtil;
 import org.atalk.impl.timberlog.TimberLog;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.MessageListener;
 import org.jivesoftware.smack.PresenceListener;
 import org.jivesoftware.smack.SmackException;
@@ -210,6 +216,33 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
      */
     private final Hashtable<Resourcepart, ChatRoomMemberJabberImpl> members = new Hashtable<>();
 
+    /**
+     * Delay in ms for collecting the joined occupants to be added to the members list in one batch.
+     */
+    private static final long JOIN_BATCH_DELAY = 100;
+
+    /**
+     * Max number of occupants joined in a batch after own presence for which a MEMBER_JOINED event is
+     * fired per member; a larger batch is notified with a single MEMBERS_LISTED event.
+     */
+    private static final int MAX_JOIN_EVENTS = 20;
+
+    /**
+     * The single thread applying the joined occupants batches of all the chat rooms.
+     */
+    private static final ScheduledExecutorService joinExecutor
+            = ExecutorUtils.newScheduledThreadPool(1, true, "MucJoinBatch");
+
+    /**
+     * The occupants joined but not yet added to the members list; in the received order.
+     */
+    private final Map<Resourcepart, PendingJoin> pendingJoins = new LinkedHashMap<>();
+
+    /**
+     * The scheduled batch apply of the pendingJoins; guarded by pendingJoins.
+     */
+    private ScheduledFuture<?> mJoinBatchTask = null;
+
     /**
      * The list of banned members of this chat room EntityFullJid.
      */
@@ -573,6 +606,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
      * @return a List of <code>Member</code> corresponding to all room members.
      */
     public List<ChatRoomMember> getMembers() {
+        processPendingJoins();
         synchronized (members) {
             return new LinkedList<>(members.values());
         }
@@ -988,6 +1022,14 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
             // must proceed to clean up the rest even if exception
         }
 
+        synchronized (pendingJoins) {
+            if (mJoinBatchTask != null) {
+                mJoinBatchTask.cancel(false);
+                mJoinBatchTask = null;
+            }
+            pendingJoins.clear();
+        }
+
         // cmeng: removed as chatPanel will closed ?
         synchronized (members) {
             for (ChatRoomMember member : members.values()) {
@@ -1256,6 +1298,138 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
             ConfigurationUtils.updateChatRoomProperty(mPPS, getName(), ChatRoom.USER_ROLE, role.getRoleName());
     }
 
+    /**
+     * Adds the queued joined occupants to the members list, and notifies the member presence listeners.
+     * A MEMBER_JOINED event is fired per member only for a few joins after own presence; else a single
+     * MEMBERS_LISTED event is fired for the batch e.g. the occupants list received on room join.
+     * Also called on demand when a pending member is requested before the scheduled batch is due.
+     */
+    private void processPendingJoins() {
+        List<PendingJoin> joins;
+        synchronized (pendingJoins) {
+            if (mJoinBatchTask != null) {
+                mJoinBatchTask.cancel(false);
+                mJoinBatchTask = null;
+            }
+            if (pendingJoins.isEmpty())
+                return;
+
+            // The entries stay pending until their members are added, so that a leave or presence
+            // received meanwhile still finds them.
+            joins = new ArrayList<>(pendingJoins.values());
+        }
+
+        List<PendingJoin> created = new ArrayList<>(joins.size());
+        for (PendingJoin join : joins) {
+            // smack returns fully qualified occupant names; null if the occupant has left since.
+            Occupant occupant = mMultiUserChat.getOccupant(join.participant);
+            if (occupant == null) {
+                removePendingJoin(join.participant, join);
+                continue;
+            }
+            join.member = new ChatRoomMemberJabberImpl(this, occupant.getNick(), occupant.getJid());
+            created.add(join);
+        }
+
+        boolean isUserList = false;
+        List<PendingJoin> joined = new ArrayList<>(created.size());
+        synchronized (members) {
+            synchronized (pendingJoins) {
+                for (PendingJoin join : created) {
+                    // Skip the occupant which has left, or rejoined, since its member was created
+                    if (pendingJoins.get(join.participant.getResourceOrThrow()) != join)
+                        continue;
+
+                    pendingJoins.remove(join.participant.getResourceOrThrow());
+                    if (join.presence != null)
+                        updateMemberInfo(join.member, join.presence);
+                    members.put(join.member.getNickAsResourcepart(), join.member);
+                    isUserList |= join.isUserList;
+                    joined.add(join);
+                }
+            }
+        }
+        if (joined.isEmpty())
+            return;
+        Timber.d("Added %s members to chatRoom: %s", joined.size(), getName());
+
+        // REASON_USER_LIST reason will not show participant 'has joined' in chat window
+        if (isUserList || joined.size() > MAX_JOIN_EVENTS) {
+            fireMemberPresenceEvent(null, ChatRoomMemberPresenceChangeEvent.MEMBERS_LISTED,
+                    isUserList ? ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST : null);
+        }
+        else {
+            for (PendingJoin join : joined) {
+                fireMemberPresenceEvent(join.member, ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                        ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED);
+            }
+        }
+
+        // The conference published events follow the member joined events, as for a member presence
+        for (PendingJoin join : joined) {
+            if (join.presence != null)
+                publishConferenceDescription(join.member, join.presence);
+        }
+    }
+
+    /**
+     * Removes the queued join of the given participant, if any.
+     *
+     * @param participant the participant e.g. room@conference.jabber.org/nick
+     *
+     * @return <code>true</code> if the participant join was still pending
+     */
+    private boolean removePendingJoin(EntityFullJid participant) {
+        synchronized (pendingJoins) {
+            return pendingJoins.remove(participant.getResourceOrThrow()) != null;
+        }
+    }
+
+    /**
+     * Removes the given queued join of the participant, unless it has been replaced by a rejoin.
+     *
+     * @param participant the participant e.g. room@conference.jabber.org/nick
+     * @param join the queued join to remove
+     */
+    private void removePendingJoin(EntityFullJid participant, PendingJoin join) {
+        synchronized (pendingJoins) {
+            pendingJoins.remove(participant.getResourceOrThrow(), join);
+        }
+    }
+
+    private boolean isPendingJoin(Resourcepart nickName) {
+        synchronized (pendingJoins) {
+            return pendingJoins.containsKey(nickName);
+        }
+    }
+
+    /**
+     * The compact record of a joined occupant, pending to be added to the members list.
+     */
+    private static class PendingJoin {
+        final EntityFullJid participant;
+
+        /**
+         * true if received as part of the occupants list on room join i.e. before own presence.
+         */
+        final boolean isUserList;
+
+        /**
+         * The last presence received from the occupant; applied when its member is created.
+         */
+        Presence presence = null;
+
+        /**
+         * The member created for the occupant by the batch; added to the members list only if still pending.
+         */
+        ChatRoomMemberJabberImpl member = null;
+
+        PendingJoin(EntityFullJid participant, boolean isUserList) {
+            this.participant = participant;
+            this.isUserList = isUserList;
+        }
+    }
+
     /**
      * Instances of this class should be registered as <code>ParticipantStatusListener</code> in smack
      * and translates events .
@@ -1281,17 +1455,15 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
             // and after that that has joined we check if this already joined and if so we skip it
             // Note: mNickName may be null so order of equals is important
             if (!participantNick.equals(mNickName) && !members.containsKey(participantNick)) {
-                String reason = mucOwnPresenceReceived ? ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED
-                        : ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST;
-
-                // smack returns fully qualified occupant names.
-                Occupant occupant = mMultiUserChat.getOccupant(participant);
-                ChatRoomMemberJabberImpl member
-                        = new ChatRoomMemberJabberImpl(ChatRoomJabberImpl.this, occupant.getNick(), occupant.getJid());
-
-                members.put(participantNick, member);
-                // REASON_USER_LIST reason will not show participant 'has joined' in chat window
-                fireMemberPresenceEvent(member, ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED, reason);
+                // Only queue a compact record here; the members are created and notified in batch,
+                // off the stanza thread, as the occupants list on join may contain 1000+ entries.
+                synchronized (pendingJoins) {
+                    pendingJoins.put(participantNick, new PendingJoin(participant, !mucOwnPresenceReceived));
+                    if (mJoinBatchTask == null) {
+                        mJoinBatchTask = joinExecutor.schedule(ChatRoomJabberImpl.this::processPendingJoins,
+                                JOIN_BATCH_DELAY, TimeUnit.MILLISECONDS);
+                    }
+                }
             }
         }
 
@@ -1305,6 +1477,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
         @Override
         public void left(EntityFullJid participant) {
             Timber.i("%s has left the chat room: %s", participant, getName());
+            removePendingJoin(participant);
 
             ChatRoomMember member = findMemberFromParticipant(participant);
             if (member != null) {
@@ -1325,6 +1498,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
          */
         @Override
         public void kicked(EntityFullJid participant, Jid actor, String reason) {
+            removePendingJoin(participant);
             ChatRoomMember member = findMemberFromParticipant(participant);
             if (member != null) {
                 synchronized (members) {
@@ -1375,6 +1549,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
         @Override
         public void banned(EntityFullJid participant, Jid actor, String reason) {
             Timber.i("%s has been banned from chat room: %s", participant, getName());
+            removePendingJoin(participant);
 
             ChatRoomMemberJabberImpl member = findMemberFromParticipant(participant);
             if (member != null) {
@@ -1510,6 +1685,10 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
          */
         @Override
         public void nicknameChanged(EntityFullJid participant, Resourcepart newNickname) {
+            // smack reports the pending occupant joined again with its new nickname
+            if (removePendingJoin(participant))
+                return;
+
             ChatRoomMemberJabberImpl member = findMemberFromParticipant(participant);
             if (member == null)
                 return;
@@ -2132,7 +2311,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
                 member = new ChatRoomMemberJabberImpl(ChatRoomJabberImpl.this, Resourcepart.EMPTY, getIdentifier());
             }
             else {
-                member = members.get(fromNick);
+                member = findMemberForNickName(fromNick);
             }
 
             // sometimes when connecting to rooms they send history when the member is no longer
@@ -2253,7 +2432,7 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
         Resourcepart fromNick = fromJid.getResourceOrNull();
         Resourcepart userNick = getUserNickname();
 
-        ChatRoomMemberJabberImpl member = members.get(fromNick);
+        ChatRoomMemberJabberImpl member = (fromNick == null) ? null : findMemberForNickName(fromNick);
         EntityFullJid ourJid = null;
         if (member != null) {
             ChatRoom chatRoom = member.getChatRoom();
@@ -2589,6 +2768,9 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
      * @return the member of this chat room corresponding to the given nick name.
      */
     public ChatRoomMemberJabberImpl findMemberForNickName(Resourcepart nickName) {
+        if (isPendingJoin(nickName))
+            processPendingJoins();
+
         synchronized (members) {
             return members.get(nickName);
         }
@@ -2881,55 +3063,93 @@ public class ChatRoomJabberImpl extends AbstractChatRoom implements CaptchaDialo
                 participantNick = from.getResourceOrNull();
             }
 
-            ChatRoomMemberJabberImpl member = (participantNick == null) ? null : members.get(participantNick);
+            if (participantNick == null)
+                return;
+
+            // The joined occupant presence is applied when the member is added in the batch;
+            // checked under the members lock, as the batch moves the pending joins to the members list.
+            ChatRoomMemberJabberImpl member;
+            synchronized (members) {
+                synchronized (pendingJoins) {
+                    PendingJoin pendingJoin = pendingJoins.get(participantNick);
+                    if (pendingJoin != null) {
+                        pendingJoin.presence = presence;
+                        return;
+                    }
+                }
+                member = members.get(participantNick);
+            }
             // if member wasn't just created, we should potentially modify some elements
             if (member == null) {
                 Timber.w("Received presence from an unknown member %s (%s)",
                         participantNick, mMultiUserChat.getRoom());
                 return;
             }
-
-            ConferenceDescriptionExtension cdExt = presence.getExtension(ConferenceDescriptionExtension.class);
-            if (presence.isAvailable() && cdExt != null) {
-                ConferenceDescription cd = new ConferenceDescription(cdExt.getUri(), cdExt.getCallId(), cdExt.getPassword());
-                cd.setAvailable(cdExt.isAvailable());
-                cd.setDisplayName(getName());
-                for (TransportExtension t : cdExt.getChildExtensionsOfType(TransportExtension.class)) {
-                    cd.addTransport(t.getNamespace());
-                }
-
-                if (!processConferenceDescription(cd, participantNick))
-                    return;
-
-                Timber.d("Received %s from %s in %s", cd, participantNick, mMultiUserChat.getRoom());
-                fireConferencePublishedEvent(member, cd, ChatRoomConferencePublishedEvent.CONFERENCE_DESCRIPTION_RECEIVED);
+            // tell listeners the member was updated (and new information about it is available)
+            if (publishConferenceDescription(member, presence)) {
+                updateMemberInfo(member, presence);
+                fireMemberPresenceEvent(member, ChatRoomMemberPresenceChangeEvent.MEMBER_UPDATED, null);
             }
+        }
+    }
 
-            // For 4.4.3-master (20200416): presence.getExtension(Nick.class); => IllegalArgumentException
-            Nick nickExt = (Nick) presence.getExtension(Nick.QNAME);
-            if (nickExt != null) {
-                member.setDisplayName(nickExt.getName());
+    /**
+     * Notifies the conference description carried by the member <code>Presence</code>, if any.
+     *
+     * @param member the chat room member
+     * @param presence the <code>Presence</code> sent by the member
+     *
+     * @return <code>false</code> if the presence carries an already processed conference description
+     */
+    private boolean publishConferenceDescription(ChatRoomMemberJabberImpl member, Presence presence) {
+        Resourcepart participantNick = member.getNickAsResourcepart();
+        ConferenceDescriptionExtension cdExt = presence.getExtension(ConferenceDescriptionExtension.class);
+        if (presence.isAvailable() && cdExt != null) {
+            ConferenceDescription cd = new ConferenceDescription(cdExt.getUri(), cdExt.getCallId(), cdExt.getPassword());
+            cd.setAvailable(cdExt.isAvailable());
+            cd.setDisplayName(getName());
+            for (TransportExtension t : cdExt.getChildExtensionsOfType(TransportExtension.class)) {
+                cd.addTransport(t.getNamespace());
             }
 
-            Email emailExtension = presence.getExtension(Email.class);
-            if (emailExtension != null) {
-                member.setEmail(emailExtension.getAddress());
-            }
+            if (!processConferenceDescription(cd, participantNick))
+                return false;
 
-            AvatarUrl avatarUrl = presence.getExtension(AvatarUrl.class);
-            if (avatarUrl != null) {
-                member.setAvatarUrl(avatarUrl.getAvatarUrl());
-            }
+            Timber.d("Received %s from %s in %s", cd, participantNick, mMultiUserChat.getRoom());
+            fireConferencePublishedEvent(member, cd, ChatRoomConferencePublishedEvent.CONFERENCE_DESCRIPTION_RECEIVED);
+        }
+        return true;
+    }
 
-            StatsId statsId = presence.getExtension(StatsId.class);
-            if (statsId != null) {
-                member.setStatisticsID(statsId.getStatsId());
-            }
+    /**
+     * Updates the member info from the extensions of its received <code>Presence</code>.
+     *
+     * @param member the chat room member
+     * @param presence the <code>Presence</code> sent by the member
+     */
+    private void updateMemberInfo(ChatRoomMemberJabberImpl member, Presence presence) {
+        // For 4.4.3-master (20200416): presence.getExtension(Nick.class); => IllegalArgumentException
+        Nick nickExt = (Nick) presence.getExtension(Nick.QNAME);
+        if (nickExt != null) {
+            member.setDisplayName(nickExt.getName());
+        }
 
-            // tell listeners the member was updated (and new information about it is available)
-            member.setLastPresence(presence);
-            fireMemberPresenceEvent(member, ChatRoomMemberPresenceChangeEvent.MEMBER_UPDATED, null);
+        Email emailExtension = presence.getExtension(Email.class);
+        if (emailExtension != null) {
+            member.setEmail(emailExtension.getAddress());
+        }
+
+        AvatarUrl avatarUrl = presence.getExtension(AvatarUrl.class);
+        if (avatarUrl != null) {
+            member.setAvatarUrl(avatarUrl.getAvatarUrl());
         }
+
+        StatsId statsId = presence.getExtension(StatsId.class);
+        if (statsId != null) {
+            member.setStatisticsID(statsId.getStatsId());
+        }
+
+        member.setLastPresence(presence);
     }
 
     /**
@@ -102,14 +102,8 @@ public class ChatRoomMemberJabberImpl implements ChatRoomMember {
         presenceOpSet = (OperationSetPersistentPresenceJabberImpl)
                 chatRoom.getParentProvider().getOperationSet(OperationSetPersistentPresence.class);
 
-        // jabberID may be null e.g. remote anonymous conference, all jids are null
-        if (jabberJid != null) {
-            // If we found the mContact we set also its avatar.
-            mContact = presenceOpSet.findContactByJid(jabberJid);
-            if (mContact != null) {
-                this.avatar = mContact.getImage(false);
-            }
-        }
+        // The mContact and its avatar are only resolved when first requested, see getContact();
+        // a large room may have many members that are never shown in the UI.
         // just query the server muc member for role, the value is set if present
         getRole();
     }
@@ -221,6 +215,9 @@ public class ChatRoomMemberJabberImpl implements ChatRoomMember {
      * @return an avatar (e.g. user photo) of this member.
      */
     public byte[] getAvatar() {
+        if ((avatar == null) && (getContact() != null)) {
+            avatar = mContact.getImage(false);
+        }
         return avatar;
     }
 
@@ -238,6 +235,7 @@ public class ChatRoomMemberJabberImpl implements ChatRoomMember {
      * returned here could be used by the user interface to check if this member is contained in our
      * mContact list and in function of this to show additional information add additional functionality.
      * Note: Use nick to retrieve mContact if null to take care the old history messages;
+     * the mContact is resolved on first request only.
      *
      * For remote conference chatRoom members, aTalk does not have local stored contacts, so jabberJid can be null .
      *
@@ -262,7 +260,7 @@ public class ChatRoomMemberJabberImpl implements ChatRoomMember {
 
     @Override
     public PresenceStatus getPresenceStatus() {
-        return mContact.getPresenceStatus();
+        return getContact().getPresenceStatus();
     }
 
     /**
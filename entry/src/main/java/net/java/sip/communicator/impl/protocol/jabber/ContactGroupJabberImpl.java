@@ -162,6 +162,7 @@ public class ContactGroupJabberImpl extends AbstractContactGroupJabberImpl
     public void addContact(ContactJabberImpl contact)
     {
         buddies.put(contact.getJid().asBareJid(), contact);
+        ssclCallback.indexContact(contact);
     }
 
     /**
@@ -172,6 +173,7 @@ public class ContactGroupJabberImpl extends AbstractContactGroupJabberImpl
     public void removeContact(ContactJabberImpl contact)
     {
         buddies.remove(contact.getJid().asBareJid());
+        ssclCallback.unindexContact(contact);
     }
 
     /**
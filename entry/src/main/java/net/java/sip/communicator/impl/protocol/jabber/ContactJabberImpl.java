@@ -214,7 +214,7 @@ public class ContactJabberImpl extends AbstractContact {
      *
      * @return a reference to the image currently stored by this contact.
      *
-     * @see ServerStoredContactListJabberImpl.ImageRetriever#run()
+     * @see ServerStoredContactListJabberImpl#addContactForImageUpdate(ContactJabberImpl, boolean)
      */
     public byte[] getImage(boolean retrieveIfNecessary) {
         if ((image == null) && retrieveIfNecessary)
@@ -697,7 +697,11 @@ public class OperationSetBasicInstantMessagingJabberImpl extends AbstractOperati
             // make sure this listener is not already registered in this connection
             connection.removeAsyncStanzaListener(OperationSetBasicInstantMessagingJabberImpl.this);
             connection.addAsyncStanzaListener(this, INCOMING_SVR_MESSAGE_FILTER);
-            enableDisableCarbon(userJid);
+
+            // XEP-0198 stream resumed: the carbons state is part of the resumed server session
+            if (evt.getReasonCode() != RegistrationStateChangeEvent.REASON_RESUMED || mCarbonManager == null) {
+                enableDisableCarbon(userJid);
+            }
         }
         else if (evt.getNewState() == RegistrationState.UNREGISTERED
                 || evt.getNewState() == RegistrationState.CONNECTION_FAILED
@@ -313,17 +313,28 @@ public class OperationSetContactCapabilitiesJabberImpl
      */
     @Override
     public void contactPresenceStatusChanged(ContactPresenceStatusChangeEvent evt) {
-        Jid jidFrom = evt.getJid();
+        updateUserCaps(evt.getJid(), evt.getNewStatus(), evt.hasCapsExtension());
+    }
+
+    /**
+     * Contact userCap handler for a presence of the given jid; also called for the presences batched
+     * into the status change event of another jid of the same contact.
+     *
+     * @param jidFrom the presence sender FullJid
+     * @param newStatus the contact new presence status
+     * @param hasCapsExtension true if the presence carries the CapsExtension
+     */
+    void updateUserCaps(Jid jidFrom, PresenceStatus newStatus, boolean hasCapsExtension) {
         boolean capsUpdated = capCheckList.contains(jidFrom);
 
-        if (evt.getNewStatus().getStatus() < PresenceStatus.ONLINE_THRESHOLD) {
+        if (newStatus.getStatus() < PresenceStatus.ONLINE_THRESHOLD) {
             // Timber.d("userCapCheck notify for: %s (offline; capsUpdated: %s)", jidFrom, capsUpdated);
             if (capsUpdated) {
                 capCheckList.remove(jidFrom);
                 userCapsNodeNotify(jidFrom, false);
             }
         }
-        else if (evt.hasCapsExtension()) {
+        else if (hasCapsExtension) {
             // Timber.d("userCapCheck notify for: %s (online; capsUpdated: %s)", jidFrom, capsUpdated);
             if (!capsUpdated) {
                 capCheckList.add(jidFrom);
@@ -646,6 +646,10 @@ public class OperationSetMultiUserChatJabberImpl extends AbstractOperationSetMul
          */
         public void registrationStateChanged(RegistrationStateChangeEvent evt) {
             if (evt.getNewState() == RegistrationState.REGISTERED) {
+                // XEP-0198 stream resumed: the joined rooms and the listeners of the connection remain valid
+                if (evt.getReasonCode() == RegistrationStateChangeEvent.REASON_RESUMED && mInvitationListener != null)
+                    return;
+
                 Timber.d("adding an Invitation listener to the smack muc");
 
                 mConnection = mPPS.getConnection();
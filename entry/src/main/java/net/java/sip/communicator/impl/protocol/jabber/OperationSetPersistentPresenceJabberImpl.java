@@ -5,9 +5,11 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -16,7 +18,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import net.java.sip.communicator.impl.protocol.jabber.caps.UserCapsNodeListener;
 import net.java.sip.communicator.service.contactlist.MetaContact;
@@ -31,6 +35,7 @@ import net.java.sip.communicator.service.protocol.ContactGroup;
 import net.java.sip.communicator.service.protocol.ContactResource;
 import net.java.sip.communicator.service.protocol.OperationFailedException;
 import net.java.sip.communicator.service.protocol.OperationSetAvatar;
+import net.java.sip.communicator.service.protocol.OperationSetContactCapabilities;
 import net.java.sip.communicator.service.protocol.OperationSetMultiUserChat;
 import net.java.sip.communicator.service.protocol.OperationSetServerStoredAccountInfo;
 import net.java.sip.communicator.service.protocol.PresenceStatus;
@@ -48,6 +53,7 @@ import net.java.sip.communicator.util.ConfigurationUtils;
 
 import org.atalk.impl.timberlog.TimberLog;
 import org.atalk.ohos.gui.AppGUIActivator;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
@@ -157,6 +163,17 @@ public class OperationSetPersistentPresenceJabberImpl
      */
     private ContactChangesListener mContactChangesListener = null;
 
+    /**
+     * Delay in ms for collecting the presence changes to be applied in one batch.
+     */
+    private static final long PRESENCE_BATCH_DELAY = 100;
+
+    /**
+     * The single thread applying the presence batches of all the accounts.
+     */
+    private static final ScheduledExecutorService presenceExecutor
+            = ExecutorUtils.newScheduledThreadPool(1, true, "PresenceBatch");
+
     private BlockingCommandManager blockingCommandManager = null;
 
     /**
@@ -925,7 +942,10 @@ public class OperationSetPersistentPresenceJabberImpl
                  * setup to init ssContactList upon receiving the rosterLoaded event
                  */
                 mRoster = Roster.getInstanceFor(xmppConnection);
-                mRoster.addRosterLoadedListener(new ServerStoredListInit());
+                // XEP-0198 stream resumed: the roster is not reloaded, and the contact list is still in sync with it
+                if (evt.getReasonCode() != RegistrationStateChangeEvent.REASON_RESUMED) {
+                    mRoster.addRosterLoadedListener(new ServerStoredListInit());
+                }
 
                 // Adds subscription listeners only when user is authenticated
                 if (!handleSubscribeEvent) {
@@ -1031,6 +1051,8 @@ public class OperationSetPersistentPresenceJabberImpl
 
                 // Must reset all Managers on protocol UNREGISTERED; so to re-register on protocol REGISTERED with new connection.
                 handleSubscribeEvent = false;
+                if (mContactChangesListener != null)
+                    mContactChangesListener.cancel();
                 mContactChangesListener = null;
                 mRoster = null;
                 vCardAvatarManager = null;
@@ -1208,21 +1230,29 @@ public class OperationSetPersistentPresenceJabberImpl
     }
 
     /**
-     * Manage changes of statuses by resource.
+     * Manage changes of statuses by resource. All presences are queued and only the latest presence of
+     * each FullJid is kept; the queue is applied in a batch every PRESENCE_BATCH_DELAY ms, with only one
+     * status change event per contact, and the caps discovery run for each FullJid. While the contact list is being initialized, the presences are
+     * kept till processStoredEvents() is called.
      */
     class ContactChangesListener extends AbstractRosterListener {
         /**
          * Store events for later processing, used when initializing contactList.
          */
-        private boolean storeEvents = false;
+        private volatile boolean storeEvents = false;
 
         /**
-         * Stored presences for later processing.
+         * Pending presences, with only the latest presence of each FullJid in arrival order; guarded by itself.
          */
-        private CopyOnWriteArrayList<Presence> storedPresences = null;
+        private final Map<Jid, Presence> pendingPresences = new LinkedHashMap<>();
 
         /**
-         * Map containing all statuses for a userJid.
+         * The scheduled batch apply of the pendingPresences; guarded by pendingPresences.
+         */
+        private ScheduledFuture<?> mBatchTask = null;
+
+        /**
+         * Map containing all statuses for a userJid; also serializes the batches apply.
          */
         private final Map<Jid, TreeSet<Presence>> statuses = new Hashtable<>();
 
@@ -1244,19 +1274,22 @@ public class OperationSetPersistentPresenceJabberImpl
         }
 
         /*
-         * Adds presence stanza to the list.
+         * Adds presence stanza to the pending presences.
          *
          * @param presence presence stanza
          */
         void addPresenceEvent(Presence presence) {
-            storedPresences.add(presence);
+            synchronized (pendingPresences) {
+                // remove first so the entry is moved to the end of the arrival order
+                pendingPresences.remove(presence.getFrom());
+                pendingPresences.put(presence.getFrom(), presence);
+            }
         }
 
         /**
-         * Initialize new storedPresences<Presence> and sets store events to true.
+         * Sets store events to true; presences are kept till processStoredEvents() is called.
          */
         void storeEvents() {
-            storedPresences = new CopyOnWriteArrayList<>();
             storeEvents = true;
         }
 
@@ -1264,116 +1297,218 @@ public class OperationSetPersistentPresenceJabberImpl
          * Process stored presences.
          */
         void processStoredEvents() {
-            // Must not proceed if false as storedPresences has already cleared or not yet init?
-            // FFR: NPE on synchronized (storedPresences)
             if (storeEvents) {
                 storeEvents = false;
-                // ConcurrentModificationException from field
-                synchronized (storedPresences) {
-                    for (Presence p : storedPresences) {
-                        firePresenceStatusChanged(p);
-                    }
+                processPendingPresences();
+            }
+        }
+
+        /**
+         * Drops all the pending presences e.g. on account unregistered.
+         */
+        void cancel() {
+            synchronized (pendingPresences) {
+                storeEvents = false;
+                pendingPresences.clear();
+                if (mBatchTask != null) {
+                    mBatchTask.cancel(false);
+                    mBatchTask = null;
                 }
-                storedPresences.clear();
-                storedPresences = null;
             }
         }
 
         /**
-         * Fires the status change, respecting resource priorities.
+         * Queues the status change for the next batch, respecting resource priorities.
          *
          * @param presence the presence changed.
          */
         void firePresenceStatusChanged(final Presence presence) {
             /*
              * Smack block sending of presence update while roster loading is in progress.
-             *
-             * cmeng - just ignore and return to see if there is any side effect while process roster is in progress
-             * seem to keep double copies and all unavailable triggered from roster - need to process??
+             * Just store and process all when the roster is ready.
              */
-            if (storeEvents && (storedPresences != null)) {
-                storedPresences.add(presence);
+            addPresenceEvent(presence);
+            if (storeEvents)
                 return;
+
+            synchronized (pendingPresences) {
+                if (mBatchTask == null) {
+                    mBatchTask = presenceExecutor.schedule(this::processPendingPresences,
+                            PRESENCE_BATCH_DELAY, TimeUnit.MILLISECONDS);
+                }
             }
+        }
 
-            try {
-                Jid userJid = presence.getFrom().asBareJid();
-                OperationSetMultiUserChat mucOpSet = mPPS.getOperationSet(OperationSetMultiUserChat.class);
-                if ((userJid != null) && (mucOpSet != null)) {
-                    List<ChatRoom> chatRooms = mucOpSet.getCurrentlyJoinedChatRooms();
-                    for (ChatRoom chatRoom : chatRooms) {
-                        if (userJid.equals(chatRoom.getIdentifier())) {
-                            userJid = presence.getFrom();
-                            break;
+        /**
+         * Applies all the pending presences to the contacts; each affected contact has its status
+         * updated and its change event fired only once per batch. The caps discovery is run for each
+         * FullJid of the contact in the batch.
+         */
+        private void processPendingPresences() {
+            synchronized (statuses) {
+                List<Presence> presences;
+                synchronized (pendingPresences) {
+                    mBatchTask = null;
+                    if (storeEvents || pendingPresences.isEmpty())
+                        return;
+
+                    presences = new ArrayList<>(pendingPresences.values());
+                    pendingPresences.clear();
+                }
+
+                Map<ContactJabberImpl, PresenceUpdate> contactUpdates = new LinkedHashMap<>();
+                for (Presence presence : presences) {
+                    try {
+                        Jid userJid = updateUserStatuses(presence);
+                        ContactJabberImpl sourceContact = ssContactList.findContactById(userJid);
+                        if (sourceContact == null) {
+                            Timber.w("Ignore own or no source contact found for id = %s", userJid);
+                            continue;
+                        }
+
+                        PresenceUpdate update = contactUpdates.get(sourceContact);
+                        if (update == null) {
+                            update = new PresenceUpdate(userJid);
+                            contactUpdates.put(sourceContact, update);
                         }
+                        update.presence = presence;
+                        // remove first so the entry is moved to the end of the arrival order
+                        update.capsExtensions.remove(presence.getFrom());
+                        update.capsExtensions.put(presence.getFrom(), presence.hasExtension(CapsExtension.QNAME));
+                    } catch (IllegalStateException | IllegalArgumentException ex) {
+                        Timber.e(ex, "Failed changing status");
                     }
                 }
-                // all contact statuses that are received from all its resources ordered by priority (higher first)
-                // and those with equal priorities order with the one that is most connected as first
-                TreeSet<Presence> userStats = statuses.get(userJid);
-                if (userStats == null) {
-                    userStats = new TreeSet<>((o1, o2) -> {
-                        int res = o2.getPriority() - o1.getPriority();
-
-                        // if statuses are with same priorities return which one is more
-                        // available counts the JabberStatusEnum order
-                        if (res == 0) {
-                            res = jabberStatusToPresenceStatus(o2, mPPS).getStatus()
-                                    - jabberStatusToPresenceStatus(o1, mPPS).getStatus();
-                            // We have run out of "logical" ways to order the presences inside
-                            // the TreeSet. We have make sure we are consistent with equals.
-                            // We do this by comparing the unique resource names. If this
-                            // evaluates to 0 again, then we can safely assume this presence
-                            // object represents the same resource and by that the same client.
-                            if (res == 0) {
-                                res = o1.getFrom().compareTo(o2.getFrom());
+                if (presences.size() > contactUpdates.size()) {
+                    Timber.d("Presence batch: %s presences for %s contacts", presences.size(), contactUpdates.size());
+                }
+
+                OperationSetContactCapabilities capsOpSet = mPPS.getOperationSet(OperationSetContactCapabilities.class);
+
+                for (Map.Entry<ContactJabberImpl, PresenceUpdate> entry : contactUpdates.entrySet()) {
+                    ContactJabberImpl sourceContact = entry.getKey();
+                    PresenceUpdate update = entry.getValue();
+                    try {
+                        // all contact statuses that are received from all its resources ordered by priority
+                        TreeSet<Presence> userStats = statuses.get(update.userJid);
+                        Presence currentPresence = (userStats == null) ? update.presence : userStats.first();
+
+                        // statuses may be the same and only change in status message
+                        sourceContact.setStatusMessage(currentPresence.getStatus());
+                        PresenceStatus newStatus = jabberStatusToPresenceStatus(currentPresence, mPPS);
+
+                        // the contact status is changed once, with the event for the last presence FullJid
+                        Jid lastJid = update.presence.getFrom();
+                        updateContactStatus(sourceContact, lastJid, newStatus, update.capsExtensions.get(lastJid));
+
+                        // the caps discovery of the contact other FullJid in the batch, without presence event
+                        if (capsOpSet instanceof OperationSetContactCapabilitiesJabberImpl) {
+                            for (Map.Entry<Jid, Boolean> caps : update.capsExtensions.entrySet()) {
+                                if (!lastJid.equals(caps.getKey())) {
+                                    ((OperationSetContactCapabilitiesJabberImpl) capsOpSet)
+                                            .updateUserCaps(caps.getKey(), newStatus, caps.getValue());
+                                }
                             }
                         }
-                        return res;
-                    });
-                    statuses.put(userJid, userStats);
-                }
-                else {
-                    // remove the status for this resource if we are online we will update its value with the new status
-                    Resourcepart resource = presence.getFrom().getResourceOrEmpty();
-                    for (Iterator<Presence> iter = userStats.iterator(); iter.hasNext(); ) {
-                        Presence p = iter.next();
-                        if (resource.equals(p.getFrom().getResourceOrEmpty()))
-                            iter.remove();
+                    } catch (IllegalStateException | IllegalArgumentException ex) {
+                        Timber.e(ex, "Failed changing status");
                     }
                 }
+            }
+        }
 
-                if (!jabberStatusToPresenceStatus(presence, mPPS)
-                        .equals(mPPS.getJabberStatusEnum().getStatus(JabberStatusEnum.OFFLINE))) {
-                    userStats.add(presence);
+        /**
+         * Updates the resources statuses of the presence sender with the given presence.
+         *
+         * @param presence the presence changed.
+         *
+         * @return the userJid of the presence sender i.e. BareJid, or FullJid for a chatRoom member.
+         */
+        private Jid updateUserStatuses(Presence presence) {
+            Jid userJid = presence.getFrom().asBareJid();
+            OperationSetMultiUserChat mucOpSet = mPPS.getOperationSet(OperationSetMultiUserChat.class);
+            if ((userJid != null) && (mucOpSet != null)) {
+                List<ChatRoom> chatRooms = mucOpSet.getCurrentlyJoinedChatRooms();
+                for (ChatRoom chatRoom : chatRooms) {
+                    if (userJid.equals(chatRoom.getIdentifier())) {
+                        userJid = presence.getFrom();
+                        break;
+                    }
                 }
-
-                Presence currentPresence;
-                if (userStats.size() == 0) {
-                    currentPresence = presence;
-                    /*
-                     * We no longer have statuses for userJid so it doesn't make sense to retain
-                     * (1) the TreeSet and
-                     * (2) its slot in the statuses Map.
-                     */
-                    statuses.remove(userJid);
+            }
+            // all contact statuses that are received from all its resources ordered by priority (higher first)
+            // and those with equal priorities order with the one that is most connected as first
+            TreeSet<Presence> userStats = statuses.get(userJid);
+            if (userStats == null) {
+                userStats = new TreeSet<>((o1, o2) -> {
+                    int res = o2.getPriority() - o1.getPriority();
+
+                    // if statuses are with same priorities return which one is more
+                    // available counts the JabberStatusEnum order
+                    if (res == 0) {
+                        res = jabberStatusToPresenceStatus(o2, mPPS).getStatus()
+                                - jabberStatusToPresenceStatus(o1, mPPS).getStatus();
+                        // We have run out of "logical" ways to order the presences inside
+                        // the TreeSet. We have make sure we are consistent with equals.
+                        // We do this by comparing the unique resource names. If this
+                        // evaluates to 0 again, then we can safely assume this presence
+                        // object represents the same resource and by that the same client.
+                        if (res == 0) {
+                            res = o1.getFrom().compareTo(o2.getFrom());
+                        }
+                    }
+                    return res;
+                });
+                statuses.put(userJid, userStats);
+            }
+            else {
+                // remove the status for this resource if we are online we will update its value with the new status
+                Resourcepart resource = presence.getFrom().getResourceOrEmpty();
+                for (Iterator<Presence> iter = userStats.iterator(); iter.hasNext(); ) {
+                    Presence p = iter.next();
+                    if (resource.equals(p.getFrom().getResourceOrEmpty()))
+                        iter.remove();
                 }
-                else
-                    currentPresence = userStats.first();
+            }
 
-                ContactJabberImpl sourceContact = ssContactList.findContactById(userJid);
-                if (sourceContact == null) {
-                    Timber.w("Ignore own or no source contact found for id = %s", userJid);
-                    return;
-                }
-                // Timber.d("Smack presence update for: %s", presence.toXML());
-                // statuses may be the same and only change in status message
-                sourceContact.setStatusMessage(currentPresence.getStatus());
-                updateContactStatus(sourceContact, presence.getFrom(),
-                        jabberStatusToPresenceStatus(currentPresence, mPPS), presence.hasExtension(CapsExtension.QNAME));
-            } catch (IllegalStateException | IllegalArgumentException ex) {
-                Timber.e(ex, "Failed changing status");
+            if (!jabberStatusToPresenceStatus(presence, mPPS)
+                    .equals(mPPS.getJabberStatusEnum().getStatus(JabberStatusEnum.OFFLINE))) {
+                userStats.add(presence);
             }
+
+            /*
+             * We no longer have statuses for userJid so it doesn't make sense to retain
+             * (1) the TreeSet and
+             * (2) its slot in the statuses Map.
+             */
+            if (userStats.isEmpty())
+                statuses.remove(userJid);
+            return userJid;
+        }
+    }
+
+    /**
+     * The aggregated presence change of a contact within a presence batch.
+     */
+    private static class PresenceUpdate {
+        /**
+         * The userJid of the contact statuses.
+         */
+        final Jid userJid;
+
+        /**
+         * The last presence received for the contact in the batch.
+         */
+        Presence presence;
+
+        /**
+         * The sender Jid of each contact presence in the batch, in arrival order, and whether its
+         * presence carries the CapsExtension.
+         */
+        final Map<Jid, Boolean> capsExtensions = new LinkedHashMap<>();
+
+        PresenceUpdate(Jid userJid) {
+            this.userJid = userJid;
         }
     }
 
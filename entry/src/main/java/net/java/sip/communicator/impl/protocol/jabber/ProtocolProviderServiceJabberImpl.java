@@ -108,6 +108,8 @@ import org.atalk.ohos.gui.call.JingleMessageSessionImpl;
 import org.atalk.ohos.gui.dialogs.DialogActivity;
 import org.atalk.ohos.gui.login.LoginSynchronizationPoint;
 import org.atalk.ohos.gui.util.LocaleHelper;
+import org.atalk.persistance.FileBackend;
+import org.atalk.persistance.SQLiteRosterStore;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.neomedia.SrtpControlType;
 import org.atalk.util.OSUtils;
@@ -139,8 +141,6 @@ import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.proxy.ProxyInfo;
 import org.jivesoftware.smack.roster.Roster;
-import org.jivesoftware.smack.roster.rosterstore.DirectoryRosterStore;
-import org.jivesoftware.smack.roster.rosterstore.RosterStore;
 import org.jivesoftware.smack.sasl.SASLErrorException;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
@@ -468,7 +468,7 @@ public class ProtocolProviderServiceJabberImpl extends AbstractProtocolProviderS
     /**
      * Persistent Storage for Roster Versioning support.
      */
-    private File rosterStoreDirectory;
+    private SQLiteRosterStore mRosterStore;
 
     private Roster mRoster = null;
 
@@ -1593,14 +1593,17 @@ public class ProtocolProviderServiceJabberImpl extends AbstractProtocolProviderS
              * Must initialize omemoManager on every new connected connection, to ensure both pps and omemoManager is referred
              * to same instance of xmppConnection.  Perform only after connection is connected to ensure the user is defined
              */
-            androidOmemoService = new AndroidOmemoService(ProtocolProviderServiceJabberImpl.this);
+            // XEP-0198 stream resumed on the same connection: the omemoManager and its device remain valid
+            if (!resumed || androidOmemoService == null) {
+                androidOmemoService = new AndroidOmemoService(ProtocolProviderServiceJabberImpl.this);
 
-            /*
-             * Must only initialize omemoDevice after user authenticated
-             * Leave the smack reply timer reset to androidOmemoService as it is running async
-             */
-            resetSmackTimer = false;
-            androidOmemoService.initOmemoDevice();
+                /*
+                 * Must only initialize omemoDevice after user authenticated
+                 * Leave the smack reply timer reset to androidOmemoService as it is running async
+                 */
+                resetSmackTimer = false;
+                androidOmemoService.initOmemoDevice();
+            }
 
             /*  Start up Jingle File Transfer */
             JingleFileTransferManager.getInstanceFor(mConnection);
@@ -1627,6 +1630,9 @@ public class ProtocolProviderServiceJabberImpl extends AbstractProtocolProviderS
                 // <a href="https://xmpp.org/extensions/xep-0441.html">XEP-0441: Message Archive Management Preferences 0.2.0 (2020-08-25)</a>
                 MessageHistoryServiceImpl mMHS = MessageHistoryActivator.getMessageHistoryService();
                 enableMam(connection, mMHS.isHistoryLoggingEnabled());
+
+                // Discover the server services concurrently in the background e.g. HTTP file upload
+                scHelper.discoverServerServices();
             }
         }
     }
@@ -1894,31 +1900,35 @@ public class ProtocolProviderServiceJabberImpl extends AbstractProtocolProviderS
     }
 
     /**
-     * Setup the rosterStoreDirectory store for each mAccountID during login process i.e.
-     * tag the rosterStore with userID, to support server rosterVersioning if available
+     * Setup the roster store in DB for each mAccountID during login process, to support server
+     * rosterVersioning if available.
      * Note: roster.isRosterVersioningSupported() is not used as its actual status is only know
      * after account is authenticated (too late?).
      */
     public void initRosterStore() {
-        String userID = mAccountID.getUserID();
-
-        rosterStoreDirectory = new File(aTalkApp.getInstance().getFilesDir() + "/rosterStore_" + userID);
-
-        if (!rosterStoreDirectory.exists()) {
-            if (!rosterStoreDirectory.mkdir())
-                Timber.e("Roster Store directory creation error: %s", rosterStoreDirectory.getAbsolutePath());
-        }
+        // Cleanup previous file folder for roster store
+        File rosterStoreDirectory = new File(aTalkApp.getInstance().getFilesDir() + "/rosterStore_" + mAccountID.getUserID());
         if (rosterStoreDirectory.exists()) {
-            RosterStore rosterStore = DirectoryRosterStore.open(rosterStoreDirectory);
-            if (rosterStore == null) {
-                rosterStore = DirectoryRosterStore.init(rosterStoreDirectory);
+            try {
+                FileBackend.deleteRecursive(rosterStoreDirectory);
+            } catch (IOException e) {
+                Timber.w("Failed to delete old roster store: %s", rosterStoreDirectory);
             }
-            mRoster.setRosterStore(rosterStore);
         }
+
+        if (mRosterStore == null) {
+            mRosterStore = new SQLiteRosterStore(mAccountID.getAccountUuid());
+        }
+        mRoster.setRosterStore(mRosterStore);
     }
 
-    public File getRosterStoreDirectory() {
-        return rosterStoreDirectory;
+    /**
+     * Get the account roster store; null if the account has not been authenticated.
+     *
+     * @return the SQLiteRosterStore of this account
+     */
+    public SQLiteRosterStore getRosterStore() {
+        return mRosterStore;
     }
 
     /**
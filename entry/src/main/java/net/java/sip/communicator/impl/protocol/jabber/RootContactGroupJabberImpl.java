@@ -52,11 +52,21 @@ public class RootContactGroupJabberImpl extends AbstractContactGroupJabberImpl
      */
     private final ProtocolProviderServiceJabberImpl protocolProvider;
 
+    /**
+     * The contact list that owns this root group; it keeps the index of all the contacts.
+     */
+    private final ServerStoredContactListJabberImpl ssclCallback;
+
     /**
      * Creates a ContactGroup instance; and include itself into the subGroups list.
+     *
+     * @param ssclCallback the contact list that owns this root group.
+     * @param protocolProvider the provider.
      */
-    RootContactGroupJabberImpl(ProtocolProviderServiceJabberImpl protocolProvider)
+    RootContactGroupJabberImpl(ServerStoredContactListJabberImpl ssclCallback,
+            ProtocolProviderServiceJabberImpl protocolProvider)
     {
+        this.ssclCallback = ssclCallback;
         this.protocolProvider = protocolProvider;
 
         // Do not add itself to subGroups => problem. Hanlder in code
@@ -91,6 +101,7 @@ public class RootContactGroupJabberImpl extends AbstractContactGroupJabberImpl
     public void addContact(ContactJabberImpl contact)
     {
         contacts.put(contact.getJid(), contact);
+        ssclCallback.indexContact(contact);
     }
 
     /**
@@ -101,6 +112,7 @@ public class RootContactGroupJabberImpl extends AbstractContactGroupJabberImpl
     public void removeContact(ContactJabberImpl contact)
     {
         contacts.remove(contact.getJid());
+        ssclCallback.unindexContact(contact);
     }
 
     /**
@@ -226,7 +238,13 @@ public class RootContactGroupJabberImpl extends AbstractContactGroupJabberImpl
      */
     void removeSubGroup(int index)
     {
-        subGroups.remove(index);
+        ContactGroup group = subGroups.remove(index);
+
+        // Drop the removed group members from the contact index
+        Iterator<Contact> groupContacts = group.contacts();
+        while (groupContacts.hasNext()) {
+            ssclCallback.unindexContact((ContactJabberImpl) groupContacts.next());
+        }
     }
 
     /**
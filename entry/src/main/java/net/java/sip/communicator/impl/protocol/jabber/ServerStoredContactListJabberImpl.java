@@ -12,13 +12,21 @@ import static org.jivesoftware.smack.roster.packet.RosterPacket.ItemType.to;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import net.java.sip.communicator.impl.protocol.jabber.OperationSetPersistentPresenceJabberImpl.ContactChangesListener;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
@@ -38,6 +46,8 @@ import net.java.sip.communicator.service.protocol.event.SubscriptionEvent;
 
 import org.atalk.impl.timberlog.TimberLog;
 import org.atalk.persistance.DatabaseBackend;
+import org.atalk.persistance.SQLiteRosterStore;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
@@ -88,6 +98,19 @@ public class ServerStoredContactListJabberImpl {
      */
     private final RootContactGroupJabberImpl rootGroup;
 
+    /**
+     * Index of all the contacts in the rootGroup and its subgroups by their BareJid; maintained by
+     * the groups addContact/removeContact, so findContactById() need not visit every group.
+     */
+    private final Map<BareJid, ContactJabberImpl> mContactIndex = new ConcurrentHashMap<>();
+
+    /**
+     * The group entries of each indexed BareJid, one per group the contact is a member of; so the
+     * contact index entry can be updated without visiting all the groups when one of them is removed.
+     * Guarded by mContactIndex.
+     */
+    private final Map<BareJid, List<ContactJabberImpl>> mContactEntries = new HashMap<>();
+
     /**
      * The operation set that created us and that we could use when dispatching subscription events.
      */
@@ -110,9 +133,20 @@ public class ServerStoredContactListJabberImpl {
     private final Vector<ServerStoredGroupListener> serverStoredGroupListeners = new Vector<>();
 
     /**
-     * Thread retrieving images for contacts
+     * Retrieves the avatars for contacts.
+     */
+    private AvatarRetriever avatarRetriever = null;
+
+    /**
+     * Max number of concurrent avatar retrievals i.e. vCard IQs in progress per account.
      */
-    private ImageRetriever imageRetriever = null;
+    private static final int MAX_CONCURRENT_AVATAR_RETRIEVALS = 4;
+
+    /**
+     * Threads pool shared by all accounts for retrieving contacts' avatars.
+     */
+    private static final ExecutorService avatarExecutor
+            = ExecutorUtils.newCachedThreadPool(true, "AvatarRetriever");
 
     /**
      * Listens for roster changes.
@@ -131,11 +165,6 @@ public class ServerStoredContactListJabberImpl {
      */
     private boolean infoRetrieveOnStart = false;
 
-    /*
-     * Dynamic request to retrieve avatar from server if necessary.
-     */
-    private boolean retrieveIfNecessary = false;
-
     /**
      * Whether roster has been requested and dispatched.
      */
@@ -146,6 +175,12 @@ public class ServerStoredContactListJabberImpl {
      */
     private final Object rosterInitLock = new Object();
 
+    /**
+     * XEP-0237: Roster Versioning - the roster version the contact list was in sync with when the
+     * roster listener was removed on disconnect; null if the contact list has yet to be synced since app start.
+     */
+    private String mSyncedRosterVersion = null;
+
     /**
      * The initial status saved.
      */
@@ -172,7 +207,7 @@ public class ServerStoredContactListJabberImpl {
         // operationsSet would not be null in the incoming events.
         this.parentOperationSet = parentOperationSet;
         this.mPPS = provider;
-        this.rootGroup = new RootContactGroupJabberImpl(this.mPPS);
+        this.rootGroup = new RootContactGroupJabberImpl(this, this.mPPS);
         this.infoRetriever = infoRetriever;
     }
 
@@ -380,29 +415,55 @@ public class ServerStoredContactListJabberImpl {
      * no such contact exits.
      */
     public ContactJabberImpl findContactById(Jid id) {
-        if (id == null)
-            return null;
-
-        Iterator<ContactGroup> contactGroups = rootGroup.subgroups();
-        ContactJabberImpl contact;
+        return (id == null) ? null : mContactIndex.get(id.asBareJid());
+    }
 
-        while (contactGroups.hasNext()) {
-            ContactGroupJabberImpl contactGroup = (ContactGroupJabberImpl) contactGroups.next();
-            contact = contactGroup.findContact(id);
-            if (contact != null)
-                return contact;
+    /**
+     * Adds the contact just added to one of the contact list groups to the contact index.
+     *
+     * @param contact the contact added to a group.
+     */
+    void indexContact(ContactJabberImpl contact) {
+        BareJid bareJid = contact.getJid().asBareJid();
+        synchronized (mContactIndex) {
+            List<ContactJabberImpl> entries = mContactEntries.get(bareJid);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                mContactEntries.put(bareJid, entries);
+            }
+            entries.add(contact);
+            mContactIndex.put(bareJid, contact);
         }
+    }
 
-        // check for private contacts
-        ContactGroupJabberImpl volatileGroup = getNonPersistentGroup();
-        if (volatileGroup != null) {
-            contact = volatileGroup.findContact(id);
-            if (contact != null)
-                return contact;
-        }
+    /**
+     * Removes the contact just removed from one of the contact list groups from the contact index,
+     * unless it is still a member of another group e.g. when the contact is being moved.
+     *
+     * @param contact the contact removed from a group.
+     */
+    void unindexContact(ContactJabberImpl contact) {
+        BareJid bareJid = contact.getJid().asBareJid();
+        synchronized (mContactIndex) {
+            List<ContactJabberImpl> entries = mContactEntries.get(bareJid);
+            if (entries != null) {
+                // Remove this group entry by identity; a contact is a member of a few groups at most
+                for (int i = entries.size() - 1; i >= 0; i--) {
+                    if (entries.get(i) == contact) {
+                        entries.remove(i);
+                        break;
+                    }
+                }
+            }
 
-        // try the root group for non-group contact
-        return rootGroup.findContact(id);
+            if (entries == null || entries.isEmpty()) {
+                mContactEntries.remove(bareJid);
+                mContactIndex.remove(bareJid);
+            }
+            else {
+                mContactIndex.put(bareJid, entries.get(entries.size() - 1));
+            }
+        }
     }
 
     /**
@@ -810,7 +871,19 @@ public class ServerStoredContactListJabberImpl {
         xmppConnection = mPPS.getConnection();
         mRoster = Roster.getInstanceFor(xmppConnection);
 
-        initRoster();
+        // On reconnect with an unchanged roster version, the contact list is already in sync with the
+        // roster; so only the roster pushes received after login are applied via the rosterChangeListener.
+        String rosterVersion = getRosterVersion();
+        if (!TextUtils.isEmpty(rosterVersion) && rosterVersion.equals(mSyncedRosterVersion)) {
+            Timber.d("Roster version unchanged (%s); skip full contact list synchronization", rosterVersion);
+        }
+        else {
+            initRoster();
+        }
+        mSyncedRosterVersion = null;
+
+        // Warm up the avatar memory cache from the persistent storage in the background for contact list rendering
+        AvatarManager.prefetchAvatarImages(mContactIndex.keySet());
         AvatarManager avatarManager = AvatarManager.getInstanceFor(xmppConnection);
         try {
             avatarManager.saveAccountRoster(xmppConnection.getUser().asBareJid());
@@ -832,6 +905,21 @@ public class ServerStoredContactListJabberImpl {
         rosterChangeListener = new ChangeListener();
         // v2.2.2. mRoster => NPE
         mRoster.addRosterListener(rosterChangeListener);
+
+        // Roster pushes received before the rosterChangeListener was added are not applied; do a full synchronization.
+        if (!Objects.equals(rosterVersion, getRosterVersion())) {
+            initRoster();
+        }
+    }
+
+    /**
+     * Get the version of the roster stored in the account roster store.
+     *
+     * @return the stored roster version; null or empty if the roster versioning is not supported
+     */
+    private String getRosterVersion() {
+        SQLiteRosterStore rosterStore = mPPS.getRosterStore();
+        return (rosterStore == null) ? null : rosterStore.getRosterVersion();
     }
 
     /**
@@ -873,13 +961,17 @@ public class ServerStoredContactListJabberImpl {
      * Cleanups references and listeners.
      */
     void cleanup() {
-        if (imageRetriever != null) {
-            imageRetriever.quit();
-            imageRetriever = null;
+        if (avatarRetriever != null) {
+            avatarRetriever.quit();
+            avatarRetriever = null;
         }
 
-        if (mRoster != null)
+        if (mRoster != null) {
             mRoster.removeRosterListener(rosterChangeListener);
+            // All the roster changes till now have been applied to the contact list
+            if (isRosterInitialized)
+                mSyncedRosterVersion = getRosterVersion();
+        }
 
         this.rosterChangeListener = null;
         mRoster = null;
@@ -1098,24 +1190,23 @@ public class ServerStoredContactListJabberImpl {
     }
 
     /**
-     * When there is no photo image for a contact, we need to retrieve it by adding the contact
-     * into contactsForUpdate arrayList for image update
+     * When there is no photo image for a contact, we need to retrieve it by queueing the contact
+     * for avatar retrieval.
      *
      * @param contact ContactJabberImpl
+     * @param retrieveIfNecessary retrieve the avatar from server if none is found in the local cache
      *
-     * @see ImageRetriever#contactsForUpdate
+     * @see AvatarRetriever#addContact(ContactJabberImpl, boolean)
      */
-    protected void addContactForImageUpdate(ContactJabberImpl contact, boolean retrieveIfNecessary) {
+    protected synchronized void addContactForImageUpdate(ContactJabberImpl contact, boolean retrieveIfNecessary) {
         if (contact instanceof VolatileContactJabberImpl
                 && ((VolatileContactJabberImpl) contact).isPrivateMessagingContact())
             return;
 
-        this.retrieveIfNecessary = retrieveIfNecessary;
-        if (imageRetriever == null) {
-            imageRetriever = new ImageRetriever();
-            imageRetriever.start();
+        if (avatarRetriever == null) {
+            avatarRetriever = new AvatarRetriever();
         }
-        imageRetriever.addContact(contact);
+        avatarRetriever.addContact(contact, retrieveIfNecessary);
     }
 
     /**
@@ -1443,109 +1534,152 @@ public class ServerStoredContactListJabberImpl {
     }
 
     /**
-     * Thread for retrieving contacts' images.
+     * Retrieves contacts' avatars with up to MAX_CONCURRENT_AVATAR_RETRIEVALS concurrent retrievals.
+     * Requests are deduplicated per BareJid; the most recently requested contact is served first,
+     * as the requests come mostly from the contact list rows being displayed; so the contacts
+     * currently visible get their avatars before the rest of the roster.
      */
-    private class ImageRetriever extends Thread {
+    private class AvatarRetriever {
+        /**
+         * Pending requests in request order, the most recent last; guarded by itself.
+         */
+        private final Deque<AvatarRequest> mRequests = new ArrayDeque<>();
+
+        /**
+         * Pending and in progress requests by contact BareJid; guarded by mRequests.
+         */
+        private final Map<BareJid, AvatarRequest> mRequestMap = new HashMap<>();
+
         /**
-         * list with the accounts with missing image
+         * Number of workers running; guarded by mRequests.
          */
-        private final List<ContactJabberImpl> contactsForUpdate = new Vector<>();
+        private int mWorkers = 0;
 
         /**
          * Should we stop.
          */
-        private boolean running = false;
+        private volatile boolean running = true;
 
         /**
-         * Creates image retrieving.
+         * Add contact for avatar retrieval; a pending request of the same contact is moved up to be
+         * served first, and retrieveIfNecessary is kept if set by any of the requests. A request with
+         * retrieveIfNecessary for a contact whose retrieval without it is in progress is served again
+         * once the retrieval completes.
+         *
+         * @param contact ContactJabberImpl
+         * @param retrieveIfNecessary retrieve the avatar from server if none is found in the local cache
          */
-        ImageRetriever() {
-            setDaemon(true);
+        void addContact(ContactJabberImpl contact, boolean retrieveIfNecessary) {
+            BareJid bareJid = contact.getJid().asBareJid();
+            synchronized (mRequests) {
+                if (!running)
+                    return;
+
+                AvatarRequest request = mRequestMap.get(bareJid);
+                if (request == null) {
+                    request = new AvatarRequest(contact, retrieveIfNecessary);
+                    mRequestMap.put(bareJid, request);
+                }
+                else {
+                    request.retrieveIfNecessary |= retrieveIfNecessary;
+                    // in progress if not found in the pending requests
+                    if (!mRequests.remove(request)) {
+                        request.retrieveAgain |= (retrieveIfNecessary && !request.retrieving);
+                        return;
+                    }
+                }
+                mRequests.addLast(request);
+
+                if (mWorkers < MAX_CONCURRENT_AVATAR_RETRIEVALS) {
+                    mWorkers++;
+                    avatarExecutor.execute(this::processRequests);
+                }
+            }
         }
 
         /**
-         * Thread entry point.
+         * Stops all the workers once their current retrieval is completed.
          */
-        @Override
-        public void run() {
-            try {
-                Collection<ContactJabberImpl> copyContactsForUpdate;
-                running = true;
-                while (running) {
-                    synchronized (contactsForUpdate) {
-                        if (contactsForUpdate.isEmpty())
-                            contactsForUpdate.wait();
-
-                        if (!running)
-                            return;
-
-                        copyContactsForUpdate = new Vector<>(contactsForUpdate);
-                        contactsForUpdate.clear();
+        void quit() {
+            synchronized (mRequests) {
+                running = false;
+                mRequests.clear();
+                mRequestMap.clear();
+            }
+        }
+
+        /**
+         * Worker entry point: retrieves the avatars of the pending requests till none is left.
+         */
+        private void processRequests() {
+            while (true) {
+                AvatarRequest request;
+                synchronized (mRequests) {
+                    request = running ? mRequests.pollLast() : null;
+                    if (request == null) {
+                        mWorkers--;
+                        return;
                     }
+                    request.retrieving = request.retrieveIfNecessary;
+                }
 
-                    for (ContactJabberImpl contact : copyContactsForUpdate) {
-                        EntityBareJid userJid = contact.getJid().asEntityBareJidIfPossible();
-                        String oldAvatarId = VCardAvatarManager.getAvatarHashByJid(userJid);
-                        byte[] imgBytes = getAvatar(userJid);
-                        if (imgBytes != null) {
-                            contact.setImage(imgBytes);
-                            String newAvatarId = VCardAvatarManager.getAvatarHashByJid(userJid);
-                            parentOperationSet.fireContactPropertyChangeEvent(contact,
-                                    ContactPropertyChangeEvent.PROPERTY_IMAGE, oldAvatarId, newAvatarId);
+                try {
+                    retrieveAvatar(request.contact, request.retrieving);
+                } catch (Exception ex) {
+                    Timber.w(ex, "Avatar retrieval failed for: %s", request.contact);
+                } finally {
+                    synchronized (mRequests) {
+                        if (running && request.retrieveAgain) {
+                            request.retrieveAgain = false;
+                            mRequests.addLast(request);
                         }
                         else {
-                            // set an empty image data so it would not be queried again
-                            contact.setImage(new byte[0]);
-                            if (oldAvatarId != null) {
-                                parentOperationSet.fireContactPropertyChangeEvent(contact,
-                                        ContactPropertyChangeEvent.PROPERTY_IMAGE, oldAvatarId, null);
-                            }
+                            mRequestMap.remove(request.contact.getJid().asBareJid());
                         }
                     }
-                    if (contactsForUpdate.isEmpty())
-                        retrieveIfNecessary = false;
                 }
-            } catch (InterruptedException ex) {
-                Timber.e(ex, "ImageRetriever error waiting will stop now!");
             }
         }
 
         /**
-         * Add contact for retrieving:
-         * - if the provider is registered notify the retriever to get the nicks
-         * - if we are not registered add a listener to wait for registering
+         * Retrieves and updates the avatar of the given contact.
          *
          * @param contact ContactJabberImpl
+         * @param retrieveIfNecessary retrieve the avatar from server if none is found in the local cache
          */
-        void addContact(ContactJabberImpl contact) {
-            synchronized (contactsForUpdate) {
-                if (!contactsForUpdate.contains(contact)) {
-                    contactsForUpdate.add(contact);
-                    contactsForUpdate.notifyAll();
-                }
+        private void retrieveAvatar(ContactJabberImpl contact, boolean retrieveIfNecessary) {
+            EntityBareJid userJid = contact.getJid().asEntityBareJidIfPossible();
+            String oldAvatarId = VCardAvatarManager.getAvatarHashByJid(userJid);
+            byte[] imgBytes = getAvatar(userJid, retrieveIfNecessary);
+            if (imgBytes != null) {
+                contact.setImage(imgBytes);
+                String newAvatarId = VCardAvatarManager.getAvatarHashByJid(userJid);
+                parentOperationSet.fireContactPropertyChangeEvent(contact,
+                        ContactPropertyChangeEvent.PROPERTY_IMAGE, oldAvatarId, newAvatarId);
             }
-        }
-
-        /**
-         * Stops this thread.
-         */
-        void quit() {
-            synchronized (contactsForUpdate) {
-                running = false;
-                contactsForUpdate.notifyAll();
+            else {
+                // set an empty image data so it would not be queried again
+                contact.setImage(new byte[0]);
+                if (oldAvatarId != null) {
+                    parentOperationSet.fireContactPropertyChangeEvent(contact,
+                            ContactPropertyChangeEvent.PROPERTY_IMAGE, oldAvatarId, null);
+                }
             }
         }
 
         /**
-         * Retrieves the avatar for the specified userJid. Use image from persistent storage if found.
-         * Otherwise proceed to load avatar from VCard, in case where contact does not support XEP-0084;
-         * XEP-0084 is not used as it is a pubsub#event and should has been sent by server on login.
+         * Retrieves the avatar for the specified userJid. Use image of the avatar hash last received
+         * (XEP-0084 or XEP-0153) from persistent storage if found; so an unchanged avatar is never
+         * fetched again. Otherwise proceed to load avatar from VCard, in case where contact does not
+         * support XEP-0084; XEP-0084 is not used as it is a pubsub#event and should has been sent by
+         * server on login.
          *
          * @param userJid user EntityBareJid contact.
+         * @param retrieveIfNecessary retrieve the avatar from server if none is found in the local cache
          *
          * @return the contact avatar.
          */
-        private byte[] getAvatar(EntityBareJid userJid) {
+        private byte[] getAvatar(EntityBareJid userJid, boolean retrieveIfNecessary) {
             byte[] result = VCardAvatarManager.getAvatarImageByJid(userJid);
             if ((result == null) && (retrieveIfNecessary || infoRetrieveOnStart)) {
                 Timber.i("Proceed to getAvatar for: %s %s", retrieveIfNecessary, userJid);
@@ -1568,6 +1702,31 @@ public class ServerStoredContactListJabberImpl {
         }
     }
 
+    /**
+     * A queued avatar retrieval request.
+     */
+    private static class AvatarRequest {
+        final ContactJabberImpl contact;
+
+        boolean retrieveIfNecessary;
+
+        /**
+         * The retrieveIfNecessary of the retrieval in progress; guarded by AvatarRetriever#mRequests.
+         */
+        boolean retrieving = false;
+
+        /**
+         * true to serve the request again once the retrieval in progress has completed, as it was
+         * started without retrieveIfNecessary; guarded by AvatarRetriever#mRequests.
+         */
+        boolean retrieveAgain = false;
+
+        AvatarRequest(ContactJabberImpl contact, boolean retrieveIfNecessary) {
+            this.contact = contact;
+            this.retrieveIfNecessary = retrieveIfNecessary;
+        }
+    }
+
     /**
      * Query custom avatar services and returns the first found avatar.
      *
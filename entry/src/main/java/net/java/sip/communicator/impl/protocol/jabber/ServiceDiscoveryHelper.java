@@ -18,8 +18,12 @@ package net.java.sip.communicator.impl.protocol.jabber;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.java.sip.communicator.impl.protocol.jabber.caps.UserCapsNodeListener;
 import net.java.sip.communicator.service.protocol.OperationSetContactCapabilities;
@@ -27,6 +31,8 @@ import net.java.sip.communicator.service.protocol.OperationSetContactCapabilitie
 import org.atalk.ohos.aTalkApp;
 import org.atalk.persistance.EntityCapsCache;
 import org.atalk.persistance.ServerPersistentStoresRefreshDialog;
+import org.atalk.persistance.ServiceDiscoveryCache;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
@@ -34,7 +40,10 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smackx.caps.EntityCapsManager;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
 import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.Jid;
 
 import timber.log.Timber;
@@ -75,6 +84,26 @@ public class ServiceDiscoveryHelper {
 
     private static EntityCapsCache entityCapsPersistentCache;
 
+    /**
+     * The persistent cache of the server services discovery results.
+     */
+    private static ServiceDiscoveryCache serviceDiscoveryCache;
+
+    /**
+     * Executor to run the independent service discovery requests concurrently.
+     */
+    private static final ExecutorService discoveryExecutor = ExecutorUtils.newCachedThreadPool(true, "ServiceDiscovery");
+
+    /**
+     * Set once the server services discovered on login have been re-validated with the server.
+     */
+    private volatile boolean mServicesValidated = false;
+
+    /**
+     * Incremented on each login service discovery; guarded by this.
+     */
+    private int mDiscoveryRound = 0;
+
     /**
      * Creates a new <code>ScServiceDiscoveryManager</code> wrapping the default discovery manager of
      * the specified <code>connection</code>.
@@ -137,6 +166,198 @@ public class ServiceDiscoveryHelper {
         return discoverInfo;
     }
 
+    /**
+     * Returns the discovered items of a given XMPP entity addressed by its JID;
+     * Allow only the default of 10-second Reply timeout to avoid long wait ANR.
+     *
+     * @param entityJid the address of the XMPP entity.
+     *
+     * @return The corresponding DiscoverItems or null if none is known.
+     */
+    public DiscoverItems discoverItems(final Jid entityJid) {
+        DiscoverItems discoverItems = null;
+        try {
+            discoverItems = mDiscoveryManager.discoverItems(entityJid);
+        } catch (NoResponseException | XMPPErrorException | NotConnectedException | InterruptedException e) {
+            Timber.e("Discovery items failed for: %s; %s", entityJid, e.getMessage());
+        }
+        return discoverItems;
+    }
+
+    /**
+     * Returns the discovered information of the given server service entity from the persistent cache
+     * if not expired, otherwise from the server, and updates the cache.
+     *
+     * @param entityJid the address of the server or its service component.
+     *
+     * @return The corresponding DiscoverInfo or null if none is known.
+     */
+    public DiscoverInfo discoverServiceInfo(final Jid entityJid) {
+        DiscoverInfo discoverInfo = serviceDiscoveryCache.getDiscoverInfo(entityJid);
+        if (discoverInfo == null) {
+            discoverInfo = discoverInfo(entityJid);
+            if (discoverInfo != null)
+                serviceDiscoveryCache.addDiscoverInfo(mConnection.getXMPPServiceDomain(), entityJid, discoverInfo);
+        }
+        return discoverInfo;
+    }
+
+    /**
+     * Returns the discovered items of the given server service entity from the persistent cache
+     * if not expired, otherwise from the server, and updates the cache.
+     *
+     * @param entityJid the address of the server or its service component.
+     *
+     * @return The corresponding DiscoverItems or null if none is known.
+     */
+    public DiscoverItems discoverServiceItems(final Jid entityJid) {
+        DiscoverItems discoverItems = serviceDiscoveryCache.getDiscoverItems(entityJid);
+        if (discoverItems == null) {
+            discoverItems = discoverItems(entityJid);
+            if (discoverItems != null)
+                serviceDiscoveryCache.addDiscoverItems(mConnection.getXMPPServiceDomain(), entityJid, discoverItems);
+        }
+        return discoverItems;
+    }
+
+    /**
+     * Discover the server and its components services on a fresh login. The unexpired results in the
+     * persistent cache are made available at once, without any server round trip. All the services are
+     * then re-validated with the server, with all the independent disco#info and disco#items requests
+     * sent concurrently instead of one after another; the cache is updated and the re-validated
+     * services replace the cached ones, so a server reconfiguration is picked up on the next login.
+     */
+    public void discoverServerServices() {
+        final DomainBareJid serverDomain = mConnection.getXMPPServiceDomain();
+        final int round;
+        synchronized (this) {
+            // Drop the services of the previous session, the server may have been reconfigured
+            round = ++mDiscoveryRound;
+            mServicesValidated = false;
+            HttpFileUploadManager.getInstanceFor(mConnection).resetDefaultUploadService(Collections.emptyList());
+        }
+
+        discoveryExecutor.execute(() -> {
+            // The server itself may host the services e.g. HTTP file upload
+            DiscoverInfo discoverInfo = serviceDiscoveryCache.getDiscoverInfo(serverDomain);
+            if (discoverInfo != null)
+                serviceDiscovered(discoverInfo);
+
+            DiscoverItems discoverItems = serviceDiscoveryCache.getDiscoverItems(serverDomain);
+            if (discoverItems != null) {
+                for (DiscoverItems.Item item : discoverItems.getItems()) {
+                    discoverInfo = serviceDiscoveryCache.getDiscoverInfo(item.getEntityID());
+                    if (discoverInfo != null)
+                        serviceDiscovered(discoverInfo);
+                }
+            }
+        });
+
+        // One for each of the server disco#info and disco#items; plus one per disco#items item
+        final AtomicInteger pending = new AtomicInteger(2);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final List<DiscoverInfo> discoverInfos = Collections.synchronizedList(new ArrayList<>());
+
+        discoveryExecutor.execute(() -> {
+            DiscoverInfo discoverInfo = discoverInfo(serverDomain);
+            infoValidated(serverDomain, discoverInfo, discoverInfos, failed);
+            servicesValidated(round, pending, discoverInfos, failed);
+        });
+        discoveryExecutor.execute(() -> {
+            DiscoverItems discoverItems = discoverItems(serverDomain);
+            if (discoverItems == null) {
+                failed.set(true);
+            }
+            else {
+                serviceDiscoveryCache.addDiscoverItems(serverDomain, serverDomain, discoverItems);
+                pending.addAndGet(discoverItems.getItems().size());
+                for (DiscoverItems.Item item : discoverItems.getItems()) {
+                    discoveryExecutor.execute(() -> {
+                        DiscoverInfo discoverInfo = discoverInfo(item.getEntityID());
+                        infoValidated(item.getEntityID(), discoverInfo, discoverInfos, failed);
+                        servicesValidated(round, pending, discoverInfos, failed);
+                    });
+                }
+            }
+            servicesValidated(round, pending, discoverInfos, failed);
+        });
+    }
+
+    /**
+     * Save the re-validated disco#info of a server service entity. The service is also made available
+     * at once if it is not in the cache, e.g. on first login.
+     *
+     * @param entityJid the server or its service component
+     * @param discoverInfo the disco#info received from the server; null if the request has failed
+     * @param discoverInfos the list of re-validated disco#info to add to
+     * @param failed set if the request has failed
+     */
+    private void infoValidated(Jid entityJid, DiscoverInfo discoverInfo, List<DiscoverInfo> discoverInfos,
+            AtomicBoolean failed) {
+        if (discoverInfo == null) {
+            failed.set(true);
+        }
+        else {
+            serviceDiscoveryCache.addDiscoverInfo(mConnection.getXMPPServiceDomain(), entityJid, discoverInfo);
+            discoverInfos.add(discoverInfo);
+            serviceDiscovered(discoverInfo);
+        }
+    }
+
+    /**
+     * Replace the services made available from the cache with the re-validated ones, once all the
+     * server requests have completed. The cached services are kept if any of the requests has failed.
+     *
+     * @param round the discovery round of the server requests
+     * @param pending the number of server requests still pending
+     * @param discoverInfos the re-validated disco#info of the server and its components
+     * @param failed set if any of the requests has failed
+     */
+    private void servicesValidated(int round, AtomicInteger pending, List<DiscoverInfo> discoverInfos,
+            AtomicBoolean failed) {
+        if (pending.decrementAndGet() != 0 || failed.get())
+            return;
+
+        synchronized (this) {
+            // Results of a previous login must not override the current one
+            if (round != mDiscoveryRound)
+                return;
+
+            mServicesValidated = true;
+            List<DiscoverInfo> uploadInfos = new ArrayList<>();
+            synchronized (discoverInfos) {
+                for (DiscoverInfo discoverInfo : discoverInfos) {
+                    if (isUploadService(discoverInfo))
+                        uploadInfos.add(discoverInfo);
+                }
+            }
+            HttpFileUploadManager.getInstanceFor(mConnection).resetDefaultUploadService(uploadInfos);
+            Timber.d("Server services re-validated; HTTP file upload services: %s", uploadInfos.size());
+        }
+    }
+
+    /**
+     * Make the feature of the discovered server service component available for use, pending its
+     * re-validation.
+     *
+     * @param discoverInfo the discovered info of the server service component
+     */
+    private synchronized void serviceDiscovered(DiscoverInfo discoverInfo) {
+        // A service pending re-validation must not override the re-validated services
+        if (mServicesValidated)
+            return;
+
+        if (isUploadService(discoverInfo)) {
+            if (HttpFileUploadManager.getInstanceFor(mConnection).setDefaultUploadService(discoverInfo))
+                Timber.d("HTTP file upload service discovered: %s", discoverInfo.getFrom());
+        }
+    }
+
+    private static boolean isUploadService(DiscoverInfo discoverInfo) {
+        return discoverInfo.containsFeature(HttpFileUploadManager.NAMESPACE)
+                || discoverInfo.containsFeature(HttpFileUploadManager.NAMESPACE_0_2);
+    }
+
     /**
      * Returns the discovered information of a given XMPP entity addressed by its JID
      * if cached, otherwise schedules for retrieval.
@@ -302,6 +523,7 @@ public class ServiceDiscoveryHelper {
         // Init and setup entityCap persistent store in DB.
         entityCapsPersistentCache = new EntityCapsCache();
         EntityCapsManager.setPersistentCache(entityCapsPersistentCache);
+        serviceDiscoveryCache = new ServiceDiscoveryCache();
     }
 
     private static boolean delFolder(File folder) {
@@ -322,5 +544,6 @@ public class ServiceDiscoveryHelper {
     public static void refreshEntityCapsStore() {
         entityCapsPersistentCache.emptyCache();
         EntityCapsManager.clearMemoryCache();
+        serviceDiscoveryCache.emptyCache();
     }
 }
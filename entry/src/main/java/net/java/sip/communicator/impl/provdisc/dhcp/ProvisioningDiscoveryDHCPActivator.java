@@ -18,9 +18,12 @@ package net.java.sip.communicator.impl.provdisc.dhcp;
 import net.java.sip.communicator.service.netaddr.NetworkAddressManagerService;
 import net.java.sip.communicator.service.provdisc.ProvisioningDiscoveryService;
 
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 
 import timber.log.Timber;
 
@@ -32,9 +35,20 @@ import timber.log.Timber;
  */
 public class ProvisioningDiscoveryDHCPActivator implements BundleActivator {
     /**
-     * DHCP provisioning service.
+     * DHCP provisioning service; created on first use, as provisioning discovery is rarely used.
      */
-    private static final ProvisioningDiscoveryServiceDHCPImpl provisioningService = new ProvisioningDiscoveryServiceDHCPImpl();
+    private static class ProvisioningServiceFactory implements ServiceFactory<ProvisioningDiscoveryService> {
+        @Override
+        public ProvisioningDiscoveryService getService(Bundle bundle,
+                ServiceRegistration<ProvisioningDiscoveryService> registration) {
+            return new ProvisioningDiscoveryServiceDHCPImpl();
+        }
+
+        @Override
+        public void ungetService(Bundle bundle, ServiceRegistration<ProvisioningDiscoveryService> registration,
+                ProvisioningDiscoveryService service) {
+        }
+    }
 
     /**
      * A reference to the currently valid {@link NetworkAddressManagerService}.
@@ -56,7 +70,7 @@ public class ProvisioningDiscoveryDHCPActivator implements BundleActivator {
      */
     public void start(BundleContext bundleContext)
             throws Exception {
-        bundleContext.registerService(ProvisioningDiscoveryService.class.getName(), provisioningService, null);
+        bundleContext.registerService(ProvisioningDiscoveryService.class, new ProvisioningServiceFactory(), null);
 
         ProvisioningDiscoveryDHCPActivator.bundleContext = bundleContext;
         Timber.i("DHCP provisioning discovery Service [REGISTERED]");
@@ -17,8 +17,11 @@ package net.java.sip.communicator.impl.provdisc.mdns;
 
 import net.java.sip.communicator.service.provdisc.ProvisioningDiscoveryService;
 
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
 
 import timber.log.Timber;
 
@@ -30,9 +33,20 @@ import timber.log.Timber;
  */
 public class ProvisioningDiscoveryMDNSActivator implements BundleActivator {
     /**
-     * MDNS provisioning service.
+     * mDNS provisioning service; created on first use, as provisioning discovery is rarely used.
      */
-    private static final ProvisioningDiscoveryServiceMDNSImpl provisioningService = new ProvisioningDiscoveryServiceMDNSImpl();
+    private static class ProvisioningServiceFactory implements ServiceFactory<ProvisioningDiscoveryService> {
+        @Override
+        public ProvisioningDiscoveryService getService(Bundle bundle,
+                ServiceRegistration<ProvisioningDiscoveryService> registration) {
+            return new ProvisioningDiscoveryServiceMDNSImpl();
+        }
+
+        @Override
+        public void ungetService(Bundle bundle, ServiceRegistration<ProvisioningDiscoveryService> registration,
+                ProvisioningDiscoveryService service) {
+        }
+    }
 
     /**
      * Starts the mDNS provisioning service
@@ -43,7 +57,7 @@ public class ProvisioningDiscoveryMDNSActivator implements BundleActivator {
      */
     public void start(BundleContext bundleContext)
             throws Exception {
-        bundleContext.registerService(ProvisioningDiscoveryService.class.getName(), provisioningService, null);
+        bundleContext.registerService(ProvisioningDiscoveryService.class, new ProvisioningServiceFactory(), null);
         Timber.i("DNS provisioning discovery Service [REGISTERED]");
     }
 
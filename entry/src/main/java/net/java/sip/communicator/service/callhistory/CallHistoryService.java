@@ -18,6 +18,7 @@ package net.java.sip.communicator.service.callhistory;
 import net.java.sip.communicator.service.callhistory.event.CallHistoryPeerRecordListener;
 import net.java.sip.communicator.service.callhistory.event.CallHistorySearchProgressListener;
 import net.java.sip.communicator.service.contactlist.MetaContact;
+import net.java.sip.communicator.service.history.HistoryCursor;
 
 import java.util.Collection;
 import java.util.Date;
@@ -123,6 +124,26 @@ public interface CallHistoryService
      */
     Collection<CallRecord> findLast(int count);
 
+    /**
+     * Returns a cursor of the calls made before and include the given date; lazily read from the
+     * database with the most recent call first.
+     *
+     * @param endDate Date the end date of the calls; null for all the calls
+     * @param count max calls count
+     * @return HistoryCursor of CallRecords in descending callStart order
+     */
+    HistoryCursor<CallRecord> cursorLastCallsBefore(Date endDate, int count);
+
+    /**
+     * Returns a cursor of the calls made after and include the given date; lazily read from the
+     * database with the oldest call first.
+     *
+     * @param startDate Date the start date of the calls
+     * @param count max calls count
+     * @return HistoryCursor of CallRecords in ascending callStart order
+     */
+    HistoryCursor<CallRecord> cursorFirstCallsAfter(Date startDate, int count);
+
     /**
      * Find the calls made by the supplied peer address
      *
@@ -0,0 +1,105 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.history;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted, lazily read iterator over the history records of a database query. Each record is
+ * converted only when it is requested; so a consumer merging several history sources need not
+ * load all the records just to pick the first few. The underlying database cursor is closed
+ * when the records are exhausted or when {@link #close()} is called.
+ *
+ * @param <T> the history record type e.g. EventObject or CallRecord
+ *
+ * @author Eng Chong Meng
+ */
+public class HistoryCursor<T> implements Iterator<T>, Closeable {
+    /**
+     * Converts the current row of the database cursor to a history record.
+     */
+    public interface RecordConverter<T> {
+        /**
+         * @param cursor the database cursor positioned on the row to convert
+         *
+         * @return the history record, or null to skip this row
+         */
+        T convert(Cursor cursor);
+    }
+
+    private final Cursor mCursor;
+    private final RecordConverter<T> mConverter;
+
+    private T mNext = null;
+    private boolean isClosed = false;
+
+    /**
+     * Creates a new history cursor.
+     *
+     * @param cursor the database cursor sorted in the required records order; may be null for no records
+     * @param converter converter of each row to its history record
+     */
+    public HistoryCursor(Cursor cursor, RecordConverter<T> converter) {
+        mCursor = cursor;
+        mConverter = converter;
+        if (mCursor == null)
+            isClosed = true;
+    }
+
+    /**
+     * Returns an empty history cursor, e.g. for an unsupported descriptor.
+     */
+    public static <T> HistoryCursor<T> empty() {
+        return new HistoryCursor<>(null, null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mNext != null)
+            return true;
+
+        while (!isClosed && mCursor.moveToNext()) {
+            mNext = mConverter.convert(mCursor);
+            if (mNext != null)
+                return true;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T record = mNext;
+        mNext = null;
+        return record;
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed) {
+            isClosed = true;
+            mCursor.close();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.util.EventObject;
 import java.util.List;
 
 import net.java.sip.communicator.service.contactlist.MetaContact;
+import net.java.sip.communicator.service.history.HistoryCursor;
 import net.java.sip.communicator.service.msghistory.event.MessageHistorySearchProgressListener;
 import net.java.sip.communicator.service.protocol.AccountID;
 import net.java.sip.communicator.service.protocol.ChatRoom;
@@ -349,6 +350,30 @@ public interface MessageHistoryService {
      */
     Collection<EventObject> findLastMessagesBefore(ChatRoom room, Date date, int count);
 
+    /**
+     * Returns a cursor of the messages exchanged with the supplied descriptor before the given date;
+     * lazily read from the database with the most recent message first.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param date messages before date; null for all the messages
+     * @param count max messages count
+     *
+     * @return HistoryCursor of MessageReceivedEvents, MessageDeliveredEvents or FileRecords in descending timeStamp order
+     */
+    HistoryCursor<EventObject> cursorLastMessagesBefore(Object descriptor, Date date, int count);
+
+    /**
+     * Returns a cursor of the messages exchanged with the supplied descriptor on and after the given date;
+     * lazily read from the database with the oldest message first.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param date messages on and after date
+     * @param count max messages count
+     *
+     * @return HistoryCursor of MessageReceivedEvents, MessageDeliveredEvents or FileRecords in ascending timeStamp order
+     */
+    HistoryCursor<EventObject> cursorFirstMessagesAfter(Object descriptor, Date date, int count);
+
     /**
      * Permanently removes all locally stored message history for the specified chatMode.
      *
@@ -450,5 +475,14 @@ public interface MessageHistoryService {
      * @return a value of 0 means there is no chatSession record associated with this sessionUuid
      */
     int setMamDate(String sessionUuid, Date date);
+
+    /**
+     * Queue the update of the last sent or received message timeStamp for the specified sessionUuid
+     * for group commit; the timeStamp is updated only if it is after the current one.
+     *
+     * @param sessionUuid the chat sessions record id to which to save the timestamp
+     * @param date last message timestamp
+     */
+    void queueMamDate(String sessionUuid, Date date);
 }
 
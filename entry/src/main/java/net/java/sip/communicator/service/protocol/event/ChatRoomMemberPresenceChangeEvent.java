@@ -62,6 +62,13 @@ public class ChatRoomMemberPresenceChangeEvent extends EventObject
      */
     public static final String MEMBER_UPDATED = "MemberUpdated";
 
+    /**
+     * Indicates that this event was triggered as a result of a batch of participants joining the source
+     * chat room e.g. the occupants list on room join; the event has no source member, and the listener
+     * should refresh its members from {@link ChatRoom#getMembers()}.
+     */
+    public static final String MEMBERS_LISTED = "MembersListed";
+
     /**
      * The well-known reason for a <code>ChatRoomMemberPresenceChangeEvent</code> to occur as part of an
      * operation which lists all users in a <code>ChatRoom</code>.
@@ -190,6 +197,6 @@ public class ChatRoomMemberPresenceChangeEvent extends EventObject
     public String toString()
     {
         return "ChatRoomMemberPresenceChangeEvent[type=" + getEventType() + " sourceRoom="
-                + getChatRoom().toString() + " member=" + getChatRoomMember().toString() + "]";
+                + getChatRoom().toString() + " member=" + getChatRoomMember() + "]";
     }
 }
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
@@ -120,50 +121,83 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     public static final String SESSION_KEY = "key";
 
     private static final int NUM_TRUSTS_TO_CACHE = 100;
+    private static final int NUM_IDENTITIES_TO_CACHE = 200;
+    private static final int NUM_CONTACT_SESSIONS_TO_CACHE = 64;
 
     private final DatabaseBackend mDB;
 
-    /*
-     * mDevice is used by overridden method create(String fingerprint) for trustCache self update
-     * @see LruCache#create(Object)
-     */
-    private OmemoDevice mDevice;
-
     public SQLiteOmemoStore() {
         super();
         mDB = DatabaseBackend.getInstance(aTalkApp.getInstance());
     }
 
+    /*
+     * Write-through caches of the omemo store; all mutators update the database first, then the caches.
+     * LruCache keeps the hit and miss counts for each cache, see getCacheStats().
+     */
+
     /**
      * Cache of a map fingerPrint string to FingerprintStatus
      */
-    private final LruCache<String, FingerprintStatus> trustCache =
-            new LruCache<String, FingerprintStatus>(NUM_TRUSTS_TO_CACHE) {
-                @Override
-                protected FingerprintStatus create(String fingerprint) {
-                    return mDB.getFingerprintStatus(mDevice, fingerprint);
-                }
-            };
+    private final LruCache<String, FingerprintStatus> trustCache = new LruCache<>(NUM_TRUSTS_TO_CACHE);
+
+    /**
+     * Cache of a map contact device to its identityKey
+     */
+    private final LruCache<OmemoDevice, IdentityKey> identityCache = new LruCache<>(NUM_IDENTITIES_TO_CACHE);
+
+    /**
+     * Cache of a map contact BareJid to all its device sessions; the session records are kept in the
+     * serialized form, so each load returns a fresh SessionRecord that libsignal may modify freely.
+     * Each entry is the complete sessions of the contact as stored in the database; all access is synchronized
+     * on sessionCache.
+     */
+    private final LruCache<BareJid, Map<Integer, byte[]>> sessionCache = new LruCache<>(NUM_CONTACT_SESSIONS_TO_CACHE);
+
+    /**
+     * Get the hit and miss statistics of the omemo store caches for debug.
+     *
+     * @return the caches statistics
+     */
+    public String getCacheStats() {
+        return "trust: " + trustCache + "; identity: " + identityCache + "; session: " + sessionCache;
+    }
+
+    /**
+     * Invalidate all the cached omemo data e.g. when the database is purged.
+     */
+    private void evictAllCaches() {
+        trustCache.evictAll();
+        identityCache.evictAll();
+        synchronized (sessionCache) {
+            sessionCache.evictAll();
+        }
+        Timber.d("Omemo store caches evicted: %s", getCacheStats());
+    }
 
     // --------------------------------------
     // FingerprintStatus utilities
     // --------------------------------------
 
     /**
-     * Get the fingerprint status for the specified device
-     * Need to pass device to create(String fingerprint) for trustCache
+     * Get the fingerprint status for the specified device; load from database on cache miss.
      *
      * @param device omemoDevice for which its fingerprint status is to be retrieved
      * @param fingerprint fingerprint to check
      *
      * @return the fingerprint status for the specified device
-     *
-     * @see LruCache#create(Object)
      */
     public FingerprintStatus getFingerprintStatus(OmemoDevice device, String fingerprint) {
-        /* Must setup mDevice for FingerprintStatus#create(String fingerprint) */
-        mDevice = device;
-        return (fingerprint == null) ? null : trustCache.get(fingerprint);
+        if (fingerprint == null)
+            return null;
+
+        FingerprintStatus fpStatus = trustCache.get(fingerprint);
+        if (fpStatus == null) {
+            fpStatus = mDB.getFingerprintStatus(device, fingerprint);
+            if (fpStatus != null)
+                trustCache.put(fingerprint, fpStatus);
+        }
+        return fpStatus;
     }
 
     private void setFingerprintStatus(OmemoDevice device, String fingerprint, FingerprintStatus status) {
@@ -378,6 +412,8 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
         String fingerprint = keyUtil().getFingerprintOfIdentityKeyPair(identityKeyPair).toString();
         Timber.i("Store omemo identityKeyPair for :%s", userDevice);
         mDB.storeIdentityKeyPair(userDevice, identityKeyPair, fingerprint);
+        identityCache.remove(userDevice);
+        trustCache.remove(fingerprint);
     }
 
     /**
@@ -389,6 +425,8 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     public void removeOmemoIdentityKeyPair(OmemoDevice userDevice) {
         Timber.e(new Exception("Removed device IdentityKeyPair: " + userDevice));
         mDB.deleteIdentityKey(userDevice);
+        identityCache.remove(userDevice);
+        trustCache.evictAll(); // fingerprint of the deleted key is unknown
     }
 
     /**
@@ -404,7 +442,10 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     @Override
     public IdentityKey loadOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactDevice)
             throws CorruptedOmemoKeyException {
-        IdentityKey identityKey;
+        IdentityKey identityKey = identityCache.get(contactDevice);
+        if (identityKey != null)
+            return identityKey;
+
         try {
             identityKey = mDB.loadIdentityKey(contactDevice);
         } catch (CorruptedOmemoKeyException e) {
@@ -412,6 +453,8 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
             Timber.e("Corrupted Omemo IdentityKey: %s", e.getMessage());
             throw new CorruptedOmemoKeyException(e.getMessage());
         }
+        if (identityKey != null)
+            identityCache.put(contactDevice, identityKey);
         return identityKey;
     }
 
@@ -439,6 +482,10 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
             return;
         }
 
+        // The cache is write-through; so a cached identical key is already in the database
+        if (contactKey.equals(identityCache.get(contactDevice)))
+            return;
+
         String bareJid = contactDevice.getJid().toString();
         String fingerprint = keyUtil().getFingerprintOfIdentityKey(contactKey).toString();
 
@@ -460,8 +507,9 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
                 fpStatus = fpStatus.toActive();
             }
             mDB.storeIdentityKey(contactDevice, contactKey, fingerprint, fpStatus);
-            trustCache.remove(fingerprint);
+            trustCache.put(fingerprint, fpStatus);
         }
+        identityCache.put(contactDevice, contactKey);
         // else {
         //     // Timber.d("Skip Update duplicated identityKey for: %s; %s; %s", contactDevice, contactKey.toString(), fingerprint);
         //     // Code for testing only
@@ -481,6 +529,8 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     @Override
     public void removeOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactDevice) {
         mDB.deleteIdentityKey(contactDevice);
+        identityCache.remove(contactDevice);
+        trustCache.evictAll(); // fingerprint of the deleted key is unknown
     }
 
     public OmemoTrustCallback getTrustCallBack() {
@@ -616,7 +666,11 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public SessionRecord loadRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        return mDB.loadSession(contactDevice);
+        byte[] session;
+        synchronized (sessionCache) {
+            session = getCachedSessionsOf(contactDevice.getJid()).get(contactDevice.getDeviceId());
+        }
+        return toSessionRecord(session);
     }
 
     /**
@@ -629,7 +683,15 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public HashMap<Integer, SessionRecord> loadAllRawSessionsOf(OmemoDevice userDevice, BareJid contact) {
-        return mDB.getSubDeviceSessions(contact);
+        HashMap<Integer, SessionRecord> deviceSessions = new HashMap<>();
+        synchronized (sessionCache) {
+            for (Map.Entry<Integer, byte[]> entry : getCachedSessionsOf(contact).entrySet()) {
+                SessionRecord session = toSessionRecord(entry.getValue());
+                if (session != null)
+                    deviceSessions.put(entry.getKey(), session);
+            }
+        }
+        return deviceSessions;
     }
 
     /**
@@ -641,7 +703,12 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void storeRawSession(OmemoDevice userDevice, OmemoDevice contactDevice, SessionRecord session) {
-        mDB.storeSession(contactDevice, session);
+        synchronized (sessionCache) {
+            mDB.storeSession(contactDevice, session);
+            Map<Integer, byte[]> sessions = sessionCache.get(contactDevice.getJid());
+            if (sessions != null)
+                sessions.put(contactDevice.getDeviceId(), session.serialize());
+        }
     }
 
     /**
@@ -652,7 +719,12 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void removeRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        mDB.deleteSession(contactDevice);
+        synchronized (sessionCache) {
+            mDB.deleteSession(contactDevice);
+            Map<Integer, byte[]> sessions = sessionCache.get(contactDevice.getJid());
+            if (sessions != null)
+                sessions.remove(contactDevice.getDeviceId());
+        }
     }
 
     /**
@@ -663,7 +735,10 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void removeAllRawSessionsOf(OmemoDevice userDevice, BareJid contact) {
-        mDB.deleteAllSessions(contact);
+        synchronized (sessionCache) {
+            mDB.deleteAllSessions(contact);
+            sessionCache.remove(contact);
+        }
     }
 
     /**
@@ -677,7 +752,49 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public boolean containsRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        return mDB.containsSession(contactDevice);
+        synchronized (sessionCache) {
+            return getCachedSessionsOf(contactDevice.getJid()).containsKey(contactDevice.getDeviceId());
+        }
+    }
+
+    /**
+     * Get the serialized sessions of all the contact devices; load all from database on cache miss.
+     * Caller must synchronize on sessionCache.
+     *
+     * @param contact BareJid of the contact
+     *
+     * @return map of deviceId to the serialized session record
+     */
+    private Map<Integer, byte[]> getCachedSessionsOf(BareJid contact) {
+        Map<Integer, byte[]> sessions = sessionCache.get(contact);
+        if (sessions == null) {
+            sessions = new HashMap<>();
+            for (Map.Entry<Integer, SessionRecord> entry : mDB.getSubDeviceSessions(contact).entrySet()) {
+                if (entry.getValue() != null)
+                    sessions.put(entry.getKey(), entry.getValue().serialize());
+            }
+            sessionCache.put(contact, sessions);
+        }
+        return sessions;
+    }
+
+    /**
+     * Deserialize the cached session record.
+     *
+     * @param session the serialized session record; may be null
+     *
+     * @return a new SessionRecord instance, or null if none or could not be deserialized
+     */
+    private static SessionRecord toSessionRecord(byte[] session) {
+        if (session == null)
+            return null;
+
+        try {
+            return new SessionRecord(session);
+        } catch (IOException e) {
+            Timber.w("Could not deserialize raw session. %s", e.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -770,7 +887,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     @Override
     public void purgeOwnDeviceKeys(OmemoDevice userDevice) {
         mDB.purgeOmemoDb(userDevice);
-        trustCache.evictAll();
+        evictAllCaches();
     }
 
     /**
@@ -847,7 +964,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
                 // Purge all omemo devices info in the local database for the specified accountId
                 mDB.purgeOmemoDb(accountId);
-                trustCache.evictAll();
+                evictAllCaches();
 
                 // Create new omemoDeice
                 new AndroidOmemoService(pps).initOmemoDevice();
@@ -892,6 +1009,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
                 // Also delete all devices with null Identity key - omemoService will re-create them if needed
                 int count = mDB.deleteNullIdentityKeyDevices();
+                trustCache.evictAll();
                 Timber.d("Number of null identities deleted: %s", count);
 
                 // publish a new device list with our own deviceId and cached active devices
@@ -920,6 +1038,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
             // Also delete all devices with null Identity key - omemoService will re-create them if needed
             int count = mDB.deleteNullIdentityKeyDevices();
+            trustCache.evictAll();
             Timber.d("Number of null identities deleted: %s", count);
 
             // publish a new device list with our own deviceId and cached active devices
@@ -952,7 +1071,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
         // Must first remove the omemoDevice and associated data from local database
         // Purge local omemo database for the specified account
         mDB.purgeOmemoDb(accountId);
-        trustCache.evictAll();
+        evictAllCaches();
 
         // Purge server omemo bundle nodes for the deleted account (only if online and authenticated)
         ProtocolProviderService pps = accountId.getProtocolProvider();
@@ -410,8 +410,11 @@ public class ConfigurationServiceImpl implements ConfigurationService {
             getPropertyNamesByPrefix(prefix, exactPrefixMatch, namesArray, resultKeySet);
         }
 
-        // now get property names from the current store.
-        getPropertyNamesByPrefix(prefix, exactPrefixMatch, store.getPropertyNames(prefix), resultKeySet);
+        // now get property names from the current store; a database store returns only the prefix range.
+        String[] storeNames = (store instanceof DatabaseConfigurationStore)
+                ? ((DatabaseConfigurationStore) store).getPropertyNamesByPrefix(prefix)
+                : store.getPropertyNames(prefix);
+        getPropertyNamesByPrefix(prefix, exactPrefixMatch, storeNames, resultKeySet);
 
         // finally, get property names from mutable default property set.
         if (!defaultProperties.isEmpty()) {
@@ -38,6 +38,20 @@ public abstract class DatabaseConfigurationStore extends HashtableConfigurationS
 		super(properties);
 	}
 
+	/**
+	 * Gets the names of the properties which may start with the specified prefix; the caller still
+	 * applies its own prefix matching on the returned names. A database store may override this to
+	 * return only the names in the prefix range, instead of all the property names.
+	 *
+	 * @param prefix
+	 * 		the property name prefix
+	 * @return an array of <code>String</code>s which contains all the property names starting with the prefix
+	 */
+	public String[] getPropertyNamesByPrefix(String prefix)
+	{
+		return getPropertyNames(prefix);
+	}
+
 	/**
 	 * Removes all property name-value associations currently present in this
 	 * <code>ConfigurationStore</code> instance and de-serializes new property name-value
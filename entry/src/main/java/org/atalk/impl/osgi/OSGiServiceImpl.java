@@ -28,6 +28,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.atalk.impl.osgi.framework.AsyncExecutor;
 import org.atalk.impl.osgi.framework.launch.FrameworkFactoryImpl;
+import org.atalk.impl.osgi.framework.launch.FrameworkImpl;
 import org.atalk.ohos.R;
 import org.atalk.ohos.aTalkApp;
 import org.atalk.service.configuration.ConfigurationService;
@@ -207,7 +208,7 @@ public class OSGiServiceImpl {
             FrameworkFactory frameworkFactory = new FrameworkFactoryImpl();
             Map<String, String> configuration = new HashMap<>();
 
-            TreeMap<Integer, List<String>> BUNDLES = getBundlesConfig(service);
+            TreeMap<Integer, List<String>> BUNDLES = getBundlesConfig(service, configuration);
             configuration.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, Integer.toString(BUNDLES.lastKey()));
             Framework framework = frameworkFactory.newFramework(configuration);
 
@@ -246,12 +247,13 @@ public class OSGiServiceImpl {
          * Loads bundles configuration from the configured or default file name location.
          *
          * @param context the context to use
+         * @param configuration the framework configuration to receive the declared bundle dependencies
          *
          * @return the locations of the OSGi bundles (or rather of the class files of their
          * <code>BundleActivator</code> implementations) comprising the Jitsi core/library and the
          * application which is currently using it. And the corresponding start levels.
          */
-        private TreeMap<Integer, List<String>> getBundlesConfig(Context context) {
+        private TreeMap<Integer, List<String>> getBundlesConfig(Context context, Map<String, String> configuration) {
             String fileName = System.getProperty("osgi.config.properties");
             if (fileName == null)
                 fileName = "lib/osgi.client.run.properties";
@@ -287,6 +289,12 @@ public class OSGiServiceImpl {
                 String prop = e.getKey().toString().trim();
                 Object value;
 
+                // The same start level bundles which must be started before the bundle
+                if (prop.startsWith(FrameworkImpl.BUNDLE_DEPENDS_PREFIX) && ((value = e.getValue()) != null)) {
+                    configuration.put(prop, value.toString().trim());
+                    continue;
+                }
+
                 if (prop.contains("auto.start.") && ((value = e.getValue()) != null)) {
                     String startLevelStr = prop.substring("auto.start.".length());
                     try {
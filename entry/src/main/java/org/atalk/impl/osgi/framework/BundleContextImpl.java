@@ -186,8 +186,9 @@ public class BundleContextImpl implements BundleContext
 	}
 
 	@Override
-	public <S> ServiceRegistration<S> registerService(Class<S> clazz, ServiceFactory<S> factory, Dictionary<String, ?> properties) {
-		return null;
+	public <S> ServiceRegistration<S> registerService(Class<S> clazz, ServiceFactory<S> factory, Dictionary<String, ?> properties)
+	{
+		return framework.registerService(getBundle(), clazz, new String[] { clazz.getName() }, factory, properties);
 	}
 
 	private <S> ServiceRegistration<S> registerService(Class<S> clazz, String[] classNames, S service, Dictionary<String, ?> properties)
@@ -8,18 +8,27 @@ package org.atalk.impl.osgi.framework;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
 
 /**
+ * A registered service. A service registered as a {@link ServiceFactory} is activated lazily, i.e.
+ * the factory creates the service object on the first <code>getService</code>, and the object is
+ * shared by all the bundles thereafter; so a rarely used service costs nothing until it is used.
  *
  * @author Lyubomir Marinov
+ * @author Eng Chong Meng
  */
 public class ServiceRegistrationImpl implements ServiceRegistration<Object>
 {
@@ -33,6 +42,16 @@ public class ServiceRegistrationImpl implements ServiceRegistration<Object>
     private final Map<String, Object> properties;
     private final ServiceReferenceImpl serviceReference = new ServiceReferenceImpl();
 
+    /**
+     * The service object created by the service factory on first use; null if not yet activated.
+     */
+    private Object factoryService;
+
+    /**
+     * The number of <code>getService</code> calls on this service during the session.
+     */
+    private final AtomicInteger useCount = new AtomicInteger();
+
     public ServiceRegistrationImpl(BundleImpl bundle, long serviceId,
         String[] classNames, Object service, Dictionary<String, ?> properties)
     {
@@ -93,6 +112,85 @@ public class ServiceRegistrationImpl implements ServiceRegistration<Object>
     public void unregister()
     {
         bundle.getFramework().unregisterService(bundle, this);
+        releaseFactoryService();
+    }
+
+    /**
+     * Returns the service class names of this registration.
+     *
+     * @return the service class names
+     */
+    public String[] getClassNames()
+    {
+        return classNames;
+    }
+
+    /**
+     * Returns the number of <code>getService</code> calls on this service during the session.
+     *
+     * @return the service use count
+     */
+    public int getUseCount()
+    {
+        return useCount.get();
+    }
+
+    /**
+     * Returns true if the service is registered as a {@link ServiceFactory}, i.e. activated on first use.
+     *
+     * @return true if the service is activated lazily
+     */
+    public boolean isLazy()
+    {
+        return service instanceof ServiceFactory;
+    }
+
+    /**
+     * Returns true if the service object is available, i.e. a lazy service has been activated.
+     *
+     * @return true if the service object has been created
+     */
+    public synchronized boolean isActivated()
+    {
+        return !isLazy() || (factoryService != null);
+    }
+
+    /**
+     * Gets the service object; creating it via the service factory on first use.
+     *
+     * @return the service object, or null if the service factory failed
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized Object getFactoryService()
+    {
+        if (factoryService == null) {
+            long startTime = System.currentTimeMillis();
+            try {
+                factoryService = ((ServiceFactory<Object>) service).getService(bundle, this);
+            } catch (Throwable t) {
+                Timber.e(t, "Service factory failed to activate: %s", Arrays.toString(classNames));
+                return null;
+            }
+            Timber.d("Lazy service activated in %d ms: %s", System.currentTimeMillis() - startTime,
+                    Arrays.toString(classNames));
+        }
+        return factoryService;
+    }
+
+    /**
+     * Releases the service object created by the service factory on unregister.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized void releaseFactoryService()
+    {
+        if (factoryService != null) {
+            try {
+                ((ServiceFactory<Object>) service).ungetService(bundle, this, factoryService);
+            } catch (Throwable t) {
+                Timber.w(t, "Service factory failed to release: %s", Arrays.toString(classNames));
+            }
+            factoryService = null;
+        }
     }
 
     class ServiceReferenceImpl implements ServiceReference<Object>
@@ -141,7 +239,8 @@ public class ServiceRegistrationImpl implements ServiceRegistration<Object>
 
         Object getService()
         {
-            return service;
+            useCount.incrementAndGet();
+            return isLazy() ? getFactoryService() : service;
         }
 
         public Bundle[] getUsingBundles()
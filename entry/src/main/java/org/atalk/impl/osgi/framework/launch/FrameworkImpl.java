@@ -9,6 +9,7 @@ package org.atalk.impl.osgi.framework.launch;
 import org.atalk.impl.osgi.framework.BundleImpl;
 import org.atalk.impl.osgi.framework.ServiceRegistrationImpl;
 import org.atalk.impl.osgi.framework.startlevel.FrameworkStartLevelImpl;
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
@@ -29,11 +30,21 @@ import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import timber.log.Timber;
 
@@ -43,6 +54,23 @@ import timber.log.Timber;
  */
 public class FrameworkImpl extends BundleImpl implements Framework
 {
+    /**
+     * The configuration key prefix declaring the bundles of the same start level which must be started
+     * before a bundle, e.g. depends.&lt;location&gt;=&lt;location&gt; &lt;location&gt;
+     */
+    public static final String BUNDLE_DEPENDS_PREFIX = "depends.";
+
+    /**
+     * The max number of the bundles of a start level which are started concurrently.
+     */
+    private static final int MAX_START_THREADS = 4;
+
+    /**
+     * The pool starting the bundles of a start level concurrently.
+     */
+    private static final ExecutorService bundleStarter
+            = ExecutorUtils.newFixedThreadPool(MAX_START_THREADS, true, "BundleStarter");
+
     private final List<BundleImpl> bundles = new LinkedList<>();
 
     private final Map<String, String> configuration;
@@ -337,21 +365,175 @@ public class FrameworkImpl extends BundleImpl implements Framework
     public void startLevelChanged(int oldStartLevel, int newStartLevel, FrameworkListener... listeners)
     {
         if (oldStartLevel < newStartLevel) {
-            for (BundleImpl bundle : getBundlesByStartLevel(newStartLevel)) {
+            startBundles(newStartLevel, getBundlesByStartLevel(newStartLevel));
+        }
+        fireFrameworkEvent(FrameworkEvent.STARTLEVEL_CHANGED, listeners);
+    }
+
+    /**
+     * Starts the bundles of a start level concurrently; a bundle is started only after all its declared
+     * same level dependencies have been started. Returns when all the bundles have been started.
+     * The start wall time of each bundle activator is traced for the startup analysis.
+     *
+     * @param startLevel the start level of the bundles
+     * @param bundles the bundles of the start level to start
+     */
+    private void startBundles(int startLevel, List<BundleImpl> bundles)
+    {
+        long levelStartTime = System.nanoTime();
+        Map<String, Long> startTimes = new ConcurrentHashMap<>();
+
+        Map<String, BundleImpl> levelBundles = new HashMap<>();
+        for (BundleImpl bundle : bundles) {
+            levelBundles.put(bundle.getLocation(), bundle);
+        }
+
+        // The not yet started dependencies of each bundle; and the bundles depending on each bundle
+        Map<BundleImpl, Set<BundleImpl>> dependencies = new HashMap<>();
+        Map<BundleImpl, List<BundleImpl>> dependents = new HashMap<>();
+        for (BundleImpl bundle : bundles) {
+            Set<BundleImpl> bundleDependencies = new HashSet<>();
+            for (String location : getBundleDependencies(bundle.getLocation())) {
+                BundleImpl dependency = levelBundles.get(location);
+                if ((dependency != null) && (dependency != bundle)) {
+                    bundleDependencies.add(dependency);
+                    dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(bundle);
+                }
+            }
+            dependencies.put(bundle, bundleDependencies);
+        }
+
+        if ((bundles.size() == 1) || hasDependencyCycle(bundles, dependencies)) {
+            for (BundleImpl bundle : bundles) {
+                startBundle(bundle, startTimes);
+            }
+        }
+        else {
+            CountDownLatch levelStarted = new CountDownLatch(bundles.size());
+            for (BundleImpl bundle : bundles) {
+                if (dependencies.get(bundle).isEmpty())
+                    submitBundleStart(bundle, dependencies, dependents, startTimes, levelStarted);
+            }
+
+            boolean interrupted = false;
+            while (levelStarted.getCount() > 0) {
                 try {
-                    BundleStartLevel bundleStartLevel = bundle.adapt(BundleStartLevel.class);
-                    int options = START_TRANSIENT;
-                    if (bundleStartLevel.isActivationPolicyUsed())
-                        options |= START_ACTIVATION_POLICY;
-                    bundle.start(options);
-                } catch (Throwable t) {
-                    if (t instanceof ThreadDeath)
-                        throw (ThreadDeath) t;
-                    Timber.e(t, "Error changing start level");
+                    levelStarted.await();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
                 }
             }
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
-        fireFrameworkEvent(FrameworkEvent.STARTLEVEL_CHANGED, listeners);
+
+        // Startup trace of the start level, with the slowest bundle activators first; the bundle
+        // locations are shortened to their activator class name for logging only.
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(startTimes.entrySet());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+        List<String> trace = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            String location = entry.getKey();
+            trace.add(location.substring(location.lastIndexOf('.') + 1) + "=" + entry.getValue());
+        }
+        Timber.i("Start level %s: %s bundles started in %s ms; activators (ms): %s", startLevel, bundles.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - levelStartTime), trace);
+    }
+
+    /**
+     * Starts the given bundle on the bundleStarter pool; then submits its dependents which have no more
+     * dependency to be started.
+     */
+    private void submitBundleStart(BundleImpl bundle, Map<BundleImpl, Set<BundleImpl>> dependencies,
+            Map<BundleImpl, List<BundleImpl>> dependents, Map<String, Long> startTimes, CountDownLatch levelStarted)
+    {
+        bundleStarter.execute(() -> {
+            try {
+                startBundle(bundle, startTimes);
+
+                List<BundleImpl> readyBundles = new ArrayList<>();
+                List<BundleImpl> bundleDependents = dependents.get(bundle);
+                if (bundleDependents != null) {
+                    synchronized (dependencies) {
+                        for (BundleImpl dependent : bundleDependents) {
+                            Set<BundleImpl> pending = dependencies.get(dependent);
+                            pending.remove(bundle);
+                            if (pending.isEmpty())
+                                readyBundles.add(dependent);
+                        }
+                    }
+                }
+                for (BundleImpl readyBundle : readyBundles) {
+                    submitBundleStart(readyBundle, dependencies, dependents, startTimes, levelStarted);
+                }
+            } finally {
+                levelStarted.countDown();
+            }
+        });
+    }
+
+    /**
+     * Starts the given bundle, and records its start wall time in ms by the bundle location.
+     */
+    private void startBundle(BundleImpl bundle, Map<String, Long> startTimes)
+    {
+        long startTime = System.nanoTime();
+        try {
+            BundleStartLevel bundleStartLevel = bundle.adapt(BundleStartLevel.class);
+            int options = START_TRANSIENT;
+            if (bundleStartLevel.isActivationPolicyUsed())
+                options |= START_ACTIVATION_POLICY;
+            bundle.start(options);
+        } catch (Throwable t) {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            Timber.e(t, "Error changing start level");
+        } finally {
+            startTimes.put(bundle.getLocation(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * Returns the locations of the bundles which the given bundle depends on as declared in the configuration.
+     *
+     * @param location the bundle location
+     *
+     * @return the dependency bundle locations; an empty list if none
+     */
+    private List<String> getBundleDependencies(String location)
+    {
+        List<String> locations = new ArrayList<>();
+        String value = (configuration == null) ? null : configuration.get(BUNDLE_DEPENDS_PREFIX + location);
+        if (value != null) {
+            StringTokenizer tokens = new StringTokenizer(value, " ");
+            while (tokens.hasMoreTokens())
+                locations.add(tokens.nextToken().trim());
+        }
+        return locations;
+    }
+
+    /**
+     * Checks if the declared dependencies of the bundles contain a cycle, in which case the bundles can
+     * only be started one by one in their configured order.
+     */
+    private boolean hasDependencyCycle(List<BundleImpl> bundles, Map<BundleImpl, Set<BundleImpl>> dependencies)
+    {
+        Set<BundleImpl> started = new HashSet<>();
+        boolean progress = true;
+        while (progress && (started.size() < bundles.size())) {
+            progress = false;
+            for (BundleImpl bundle : bundles) {
+                if (!started.contains(bundle) && started.containsAll(dependencies.get(bundle))) {
+                    started.add(bundle);
+                    progress = true;
+                }
+            }
+        }
+        if (started.size() < bundles.size()) {
+            Timber.w("Bundle dependency cycle found; start the bundles sequentially.");
+            return true;
+        }
+        return false;
     }
 
     public void startLevelChanging(int oldStartLevel, int newStartLevel, FrameworkListener... listeners)
@@ -415,6 +597,7 @@ public class FrameworkImpl extends BundleImpl implements Framework
                     }
                 };
 
+                framework.logServiceUsage();
                 frameworkStartLevel.internalSetStartLevel(0, listener);
                 synchronized (listener) {
                     boolean interrupted = false;
@@ -462,6 +645,49 @@ public class FrameworkImpl extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Returns the number of <code>getService</code> calls on each of the registered services during
+     * the session, keyed by the service class name; a lazy service which is never used is not activated.
+     *
+     * @return map of the service class name to its use count
+     */
+    public Map<String, Integer> getServiceUsage()
+    {
+        Map<String, Integer> serviceUsage = new HashMap<>();
+        synchronized (serviceRegistrations) {
+            for (ServiceRegistrationImpl serviceRegistration : serviceRegistrations) {
+                for (String className : serviceRegistration.getClassNames()) {
+                    Integer count = serviceUsage.get(className);
+                    serviceUsage.put(className, serviceRegistration.getUseCount() + ((count == null) ? 0 : count));
+                }
+            }
+        }
+        return serviceUsage;
+    }
+
+    /**
+     * Logs the services which were used during the session, and those which were never used; the
+     * latter are the candidates for lazy activation via a <code>ServiceFactory</code>.
+     */
+    public void logServiceUsage()
+    {
+        List<String> used = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+        synchronized (serviceRegistrations) {
+            for (ServiceRegistrationImpl serviceRegistration : serviceRegistrations) {
+                String service = serviceRegistration.getClassNames()[0]
+                        + (serviceRegistration.isLazy() ? (serviceRegistration.isActivated() ? " (lazy)" : " (lazy, inactive)") : "");
+                int useCount = serviceRegistration.getUseCount();
+                if (useCount > 0)
+                    used.add(service + ": " + useCount);
+                else
+                    unused.add(service);
+            }
+        }
+        Timber.i("OSGi services used in session: %s", used);
+        Timber.i("OSGi services never used in session: %s", unused);
+    }
+
     public FrameworkEvent waitForStop(long timeout)
             throws InterruptedException
     {
@@ -14,6 +14,7 @@ import android.app.DownloadManager;
 import android.app.KeyguardManager;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -66,6 +67,7 @@ import org.atalk.ohos.plugin.permissions.PermissionsActivity;
 import org.atalk.persistance.DatabaseBackend;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.log.LogUploadService;
+import org.jivesoftware.smackx.avatar.AvatarManager;
 import org.osgi.framework.BundleContext;
 
 import timber.log.Timber;
@@ -237,6 +239,18 @@ public class aTalkApp extends Application implements LifecycleEventObserver {
         isPortrait = (newConfig.orientation == Configuration.ORIENTATION_PORTRAIT);
     }
 
+    /**
+     * Release the in-memory image and avatar caches on system memory pressure; they are rebuilt on demand.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        drawableCache.trimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            AvatarManager.trimMemoryCache(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        }
+    }
+
     /**
      * This method is for use in emulated process environments.  It will never be called on a production Android
      * device, where processes are removed by simply killing them; no user code (including this callback)
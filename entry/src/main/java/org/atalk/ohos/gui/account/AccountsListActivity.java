@@ -43,6 +43,7 @@ import org.atalk.ohos.gui.dialogs.DialogActivity;
 import org.atalk.ohos.gui.dialogs.ProgressDialog;
 import org.atalk.ohos.plugin.certconfig.TLS_Configuration;
 import org.atalk.persistance.FileBackend;
+import org.atalk.persistance.SQLiteRosterStore;
 import org.atalk.persistance.ServerPersistentStoresRefreshDialog;
 import org.jivesoftware.smackx.avatar.vcardavatar.VCardAvatarManager;
 import org.jxmpp.jid.BareJid;
@@ -255,13 +256,9 @@ public class AccountsListActivity extends BaseActivity {
                 Timber.e("Failed to purge store for: %s", R.string.refresh_store_avatar);
             }
 
-            File rosterStoreDirectory = jabberProvider.getRosterStoreDirectory();
-            try {
-                if (rosterStoreDirectory != null)
-                    FileBackend.deleteRecursive(rosterStoreDirectory);
-            } catch (IOException e) {
-                Timber.e("Failed to purge store for: %s", R.string.refresh_store_roster);
-            }
+            SQLiteRosterStore rosterStore = jabberProvider.getRosterStore();
+            if (rosterStore != null)
+                rosterStore.resetStore();
 
             // Account in unRegistering so discoveryInfoManager == null
             // ServiceDiscoveryManager discoveryInfoManager = jabberProvider.getDiscoveryManager();
@@ -1803,9 +1803,13 @@ public class ChatFragment extends BaseFragment implements ChatSessionManager.Cur
                         Contact contact = getContact(sender);
                         // If we have found a contact the we set also its avatar and status.
                         if (contact != null) {
-                            avatar = MetaContactRenderer.getCachedAvatarFromBytes(contact.getImage(false));
+                            avatar = MetaContactRenderer.getCachedAvatarFromBytes(
+                                    MetaContactRenderer.getAvatarId(contact), contact.getImage(false));
                             PresenceStatus pStatus = contact.getPresenceStatus();
-                            status = MetaContactRenderer.getCachedAvatarFromBytes(StatusUtil.getContactStatusIcon(pStatus));
+                            String statusKey = (pStatus == null) ? null
+                                    : "status:" + pStatus.getStatusName() + ":" + pStatus.getStatus();
+                            status = MetaContactRenderer.getCachedAvatarFromBytes(statusKey,
+                                    StatusUtil.getContactStatusIcon(pStatus));
                         }
                     }
                 }
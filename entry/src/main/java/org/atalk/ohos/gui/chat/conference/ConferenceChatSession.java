@@ -9,9 +9,13 @@ import android.app.Activity;
 import android.os.Handler;
 import android.os.Looper;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import net.java.sip.communicator.service.metahistory.MetaHistoryService;
 import net.java.sip.communicator.service.muc.ChatRoomWrapper;
@@ -385,6 +389,33 @@ public class ConferenceChatSession extends ChatSession implements ChatRoomMember
                     sessionRenderer.updateChatContactStatus(chatContact, statusMessage);
                 }
             }
+            // A batch of members has joined e.g. the occupants list on join; refresh the whole list.
+            else if (eventType.equals(ChatRoomMemberPresenceChangeEvent.MEMBERS_LISTED)) {
+                List<ChatRoomMember> members = room.getMembers();
+                List<ConferenceChatContact> joinedContacts = new ArrayList<>();
+                synchronized (chatParticipants) {
+                    Set<ChatContact<?>> participants = new HashSet<>(chatParticipants);
+                    for (ChatRoomMember member : members) {
+                        ConferenceChatContact chatContact = new ConferenceChatContact(member);
+                        if (participants.add(chatContact)) {
+                            chatParticipants.add(chatContact);
+                            joinedContacts.add(chatContact);
+                        }
+                    }
+                }
+
+                // Same as for MEMBER_JOINED of each joined member; a live join burst is reported with
+                // MEMBERS_LISTED too, but only the initial occupants list omits the "has joined" messages.
+                if (!evt.isReasonUserList()) {
+                    statusMessage = aTalkApp.getResString(
+                            R.string.chatroom_user_joined, sourceChatRoom.getName());
+                }
+                for (ConferenceChatContact chatContact : joinedContacts) {
+                    room.updatePrivateContactPresenceStatus(chatContact.getDescriptor());
+                    if (statusMessage != null)
+                        sessionRenderer.updateChatContactStatus(chatContact, statusMessage);
+                }
+            }
             else if (eventType.equals(ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT)
                     || eventType.equals(ChatRoomMemberPresenceChangeEvent.MEMBER_KICKED)
                     || eventType.equals(ChatRoomMemberPresenceChangeEvent.MEMBER_QUIT)) {
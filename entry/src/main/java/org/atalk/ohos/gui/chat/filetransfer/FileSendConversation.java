@@ -16,25 +16,14 @@
  */
 package org.atalk.ohos.gui.chat.filetransfer;
 
-import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
-import android.net.Uri;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Date;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.CustomTarget;
-import com.bumptech.glide.request.transition.Transition;
-
 import net.java.sip.communicator.impl.filehistory.FileHistoryServiceImpl;
 import net.java.sip.communicator.impl.protocol.jabber.OutgoingFileSendEntityImpl;
 import net.java.sip.communicator.impl.protocol.jabber.OutgoingFileTransferJabberImpl;
@@ -52,7 +41,6 @@ import org.atalk.ohos.aTalkApp;
 import org.atalk.ohos.gui.AppGUIActivator;
 import org.atalk.ohos.gui.chat.ChatFragment;
 import org.atalk.ohos.gui.chat.ChatMessage;
-import org.atalk.persistance.FileBackend;
 
 import timber.log.Timber;
 
@@ -307,44 +295,27 @@ public class FileSendConversation extends FileTransferConversation implements Fi
     }
 
     /**
-     * Get the file thumbnail if applicable (disabled for OMEMO) and start the file transfer process.
-     * Use asBitmap() to retrieve the thumbnail for smallest size;
-     * The .as(byte[].class) returns a scale of the gif animation file (large size)
+     * Pre-process the media file on the background worker pool before starting the file transfer process:
+     * downscale/re-encode the media content except for sticker; and get the file thumbnail if applicable
+     * (disabled for OMEMO). The optimized media file replaces the original file for the transfer.
+     *
+     * @see MediaPreprocessor
      */
     public void sendFileWithThumbnail() {
-        if (ConfigurationUtils.isSendThumbnail()
-                && (ChatFragment.MSGTYPE_OMEMO != mChatType)
-                && !mStickerMode && FileBackend.isMediaFile(mXferFile)) {
-            Glide.with(aTalkApp.getInstance())
-                    .asBitmap()
-                    .load(Uri.fromFile(mXferFile))
-                    .into(new CustomTarget<Bitmap>(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT) {
-                              @Override
-                              public void onResourceReady(@NonNull Bitmap bitmap,
-                                      @Nullable Transition<? super Bitmap> transition) {
-                                  ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                                  bitmap.compress(Bitmap.CompressFormat.JPEG, 80, stream);
-                                  byte[] byteData = stream.toByteArray();
-                                  Timber.d("Thumbnail byteData size: %s", byteData.length);
-                                  sendFileTransferRequest(byteData);
-                              }
-
-                              @Override
-                              public void onLoadCleared(@Nullable Drawable placeholder) {
-                                  Timber.d("Glide onLoadCleared received!!!");
-                              }
-
-                              @Override
-                              public void onLoadFailed(@Nullable Drawable errorDrawable) {
-                                  // load failed due to some reason, notify callers here about the same
-                                  sendFileTransferRequest(null);
-                              }
-                          }
-                    );
-        }
-        else {
-            sendFileTransferRequest(null);
-        }
+        boolean withThumbnail = ConfigurationUtils.isSendThumbnail()
+                && (ChatFragment.MSGTYPE_OMEMO != mChatType) && !mStickerMode;
+
+        MediaPreprocessor.process(mXferFile, !mStickerMode, withThumbnail, (file, thumbnail) -> runOnUiThread(() -> {
+            if (!file.equals(mXferFile)) {
+                mXferFile = file;
+                mTransferFileSize = file.length();
+                updateFileViewInfo(mXferFile, false);
+            }
+            if (thumbnail != null) {
+                Timber.d("Thumbnail byteData size: %s", thumbnail.length);
+            }
+            sendFileTransferRequest(thumbnail);
+        }));
     }
 
     /**
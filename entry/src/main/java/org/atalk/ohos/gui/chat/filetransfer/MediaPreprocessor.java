@@ -0,0 +1,758 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.ohos.gui.chat.filetransfer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.effect.Presentation;
+import androidx.media3.transformer.Composition;
+import androidx.media3.transformer.DefaultEncoderFactory;
+import androidx.media3.transformer.EditedMediaItem;
+import androidx.media3.transformer.Effects;
+import androidx.media3.transformer.ExportException;
+import androidx.media3.transformer.ExportResult;
+import androidx.media3.transformer.Transformer;
+import androidx.media3.transformer.VideoEncoderSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.atalk.ohos.aTalkApp;
+import org.atalk.ohos.gui.AppGUIActivator;
+import org.atalk.persistance.FileBackend;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.util.concurrent.ExecutorUtils;
+
+import timber.log.Timber;
+
+/**
+ * Background pre-processing of the outgoing media attachments before the file transfer or HTTP file upload.
+ * <p>
+ * An image larger than the configured dimension cap is downscaled and re-encoded as jpeg; a video with a
+ * resolution or bitrate above the configured caps is re-encoded to H.264. The file thumbnail is generated
+ * from the same decoded image; for a video, from a frame retrieved during the media probe.
+ * The results are cached under {@link FileBackend#MEDIA_OPTIMIZED}, keyed by the SHA-256 hash of the original
+ * file content, so resending the same media is instant. Each cache entry records the caps it was processed with,
+ * and is reprocessed when the caps have changed. The cache is bounded in size and age, the least recently used
+ * entries are evicted first. The original file is used whenever the processing fails or does not reduce the
+ * file size.
+ * <p>
+ * All the processing is run on a bounded worker pool, so multiple attachments do not compete for memory.
+ *
+ * @author Eng Chong Meng
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class MediaPreprocessor {
+    /**
+     * Property names and defaults of the media pre-processing caps.
+     */
+    public static final String PNAME_OPTIMIZE_MEDIA = "gui.media.OPTIMIZE_SEND";
+    public static final String PNAME_IMAGE_MAX_DIMENSION = "gui.media.IMAGE_MAX_DIMENSION";
+    public static final String PNAME_IMAGE_QUALITY = "gui.media.IMAGE_QUALITY";
+    public static final String PNAME_VIDEO_MAX_SHORT_SIDE = "gui.media.VIDEO_MAX_SHORT_SIDE";
+    public static final String PNAME_VIDEO_MAX_BITRATE = "gui.media.VIDEO_MAX_BITRATE";
+
+    private static final int DEFAULT_IMAGE_MAX_DIMENSION = 1920;
+    private static final int DEFAULT_IMAGE_QUALITY = 85;
+    private static final int DEFAULT_VIDEO_MAX_SHORT_SIDE = 720;
+    private static final int DEFAULT_VIDEO_MAX_BITRATE = 2000000;
+
+    /**
+     * Thumbnail jpeg quality, the same as used previously for the Glide generated thumbnail.
+     */
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    /**
+     * Images smaller than this size within the dimension cap are not re-encoded.
+     */
+    private static final long IMAGE_MIN_REENCODE_SIZE = 512 * 1024;
+
+    /**
+     * The names of the cache entry thumbnail and completion marker files; the latter contains the processing caps.
+     */
+    private static final String THUMBNAIL_FILE = ".thumbnail";
+    private static final String DONE_FILE = ".done";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The max total size of the media cache; the least recently used entries are evicted beyond it.
+     */
+    private static final long CACHE_MAX_SIZE = 512 * 1024 * 1024;
+
+    /**
+     * The max age in ms of an unused media cache entry.
+     */
+    private static final long CACHE_MAX_AGE = 30L * 24 * 3600 * 1000;
+
+    /**
+     * The entries used within this period in ms are never evicted; their files may still be in transfer.
+     */
+    private static final long CACHE_MIN_AGE = 3600 * 1000;
+
+    /**
+     * The max number of the file content hashes kept in memory.
+     */
+    private static final int MAX_HASH_ENTRIES = 256;
+
+    /**
+     * The video transcoding timeout in ms, in addition to twice the video duration; the export is then cancelled.
+     */
+    private static final long TRANSCODE_MIN_TIMEOUT = 60 * 1000;
+
+    /**
+     * The max wait in ms for a cancelled export to be stopped on the transcoder thread.
+     */
+    private static final long CANCEL_TIMEOUT = 5000;
+
+    /**
+     * Bounded worker pool; image decoding and video transcoding are memory and codec intensive.
+     */
+    private static final ExecutorService mExecutor = ExecutorUtils.newFixedThreadPool(2, true, "MediaPreprocessor");
+
+    /**
+     * Map of file path/length/lastModified to content hash, to avoid re-hashing the same file on resend.
+     */
+    private static final LruCache<String, String> mHashCache = new LruCache<>(MAX_HASH_ENTRIES);
+
+    /**
+     * Map of content hash to the lock of its cache entry; the same content is processed by one worker at a time.
+     * An entry is removed when no worker is holding or waiting for the lock.
+     */
+    private static final Map<String, EntryLock> mEntryLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Looper thread for the media3 Transformer callbacks.
+     */
+    private static HandlerThread mTranscoderThread;
+
+    /**
+     * Callback for the media pre-processing result; called on the worker thread.
+     */
+    public interface Callback {
+        /**
+         * @param file the file to send; the processed file or the original file
+         * @param thumbnail the jpeg thumbnail of the media, or null if not requested or not available
+         */
+        void onProcessed(File file, byte[] thumbnail);
+    }
+
+    /**
+     * Pre-process the given file on the worker pool.
+     *
+     * @param file the original file to send
+     * @param optimize true to downscale/re-encode the media content according to the configured caps
+     * @param withThumbnail true to return the thumbnail of the media
+     * @param callback the result callback
+     */
+    public static void process(File file, boolean optimize, boolean withThumbnail, Callback callback) {
+        mExecutor.execute(() -> {
+            Result result = null;
+            try {
+                result = processFile(file, optimize && isOptimizeEnabled(), withThumbnail);
+            } catch (Exception e) {
+                Timber.w(e, "Media pre-processing failed: %s", file.getPath());
+            }
+
+            if (result == null) {
+                callback.onProcessed(file, null);
+            }
+            else {
+                callback.onProcessed(result.file, withThumbnail ? result.thumbnail : null);
+            }
+        });
+    }
+
+    private static Result processFile(File file, boolean optimize, boolean withThumbnail)
+            throws IOException {
+        Context ctx = aTalkApp.getInstance();
+        String mimeType = FileBackend.getMimeType(ctx, FileBackend.getUriForFile(ctx, file));
+        boolean isImage = (mimeType != null) && mimeType.startsWith("image/");
+        boolean isVideo = (mimeType != null) && mimeType.startsWith("video/") && !mimeType.contains("3gp");
+        if (!(isImage || isVideo) || !(optimize || withThumbnail)) {
+            return null;
+        }
+
+        String hash = contentHash(file);
+        File cacheDir = getCacheDir();
+        Result result;
+        boolean cacheHit;
+        EntryLock entryLock = acquireLock(hash);
+        try {
+            synchronized (entryLock) {
+                File entryDir = new File(cacheDir, hash);
+                result = loadCache(entryDir, file, optimize, getCaps(isImage));
+                cacheHit = (result != null);
+                if (cacheHit) {
+                    Timber.d("Media pre-processing cache hit: %s => %s", file.getName(), result.file.getName());
+                    // Mark the entry as recently used for the cache eviction
+                    if (!entryDir.setLastModified(System.currentTimeMillis())) {
+                        Timber.w("Could not update media cache entry time: %s", entryDir);
+                    }
+                }
+                else {
+                    result = processEntry(file, mimeType, isImage, entryDir, optimize);
+                }
+            }
+        } finally {
+            releaseLock(hash);
+        }
+
+        if (!cacheHit) {
+            trimCache(cacheDir);
+        }
+        return result;
+    }
+
+    private static EntryLock acquireLock(String hash) {
+        return mEntryLocks.compute(hash, (k, lock) -> {
+            if (lock == null)
+                lock = new EntryLock();
+            lock.users++;
+            return lock;
+        });
+    }
+
+    private static void releaseLock(String hash) {
+        mEntryLocks.computeIfPresent(hash, (k, lock) -> (--lock.users == 0) ? null : lock);
+    }
+
+    /**
+     * Process the file into a new cache entry. The caller must hold the lock of the cache entry.
+     */
+    private static Result processEntry(File file, String mimeType, boolean isImage, File entryDir, boolean optimize)
+            throws IOException {
+        // Clear any incomplete or outdated entry e.g. left by a failed transcoding, a thumbnail only
+        // processing, or processed with different caps
+        deleteEntry(entryDir);
+        if (!(entryDir.isDirectory() || entryDir.mkdirs())) {
+            Timber.w("Could not create media cache folder: %s", entryDir);
+            return null;
+        }
+
+        long startTime = System.currentTimeMillis();
+        String caps = getCaps(isImage);
+        Result result = isImage ? processImage(file, mimeType, entryDir, optimize) : processVideo(file, entryDir, optimize);
+
+        // Cache the thumbnail and mark entry completion only when the file has been processed as requested.
+        if (result.thumbnail != null) {
+            Files.write(new File(entryDir, THUMBNAIL_FILE).toPath(), result.thumbnail);
+        }
+        if (optimize) {
+            Files.write(new File(entryDir, DONE_FILE).toPath(), caps.getBytes(StandardCharsets.UTF_8));
+        }
+        Timber.d("Media pre-processed in %s ms: %s (%s) => %s (%s)", System.currentTimeMillis() - startTime,
+                file.getName(), file.length(), result.file.getName(), result.file.length());
+        return result;
+    }
+
+    /**
+     * Downscale and re-encode the image in a single decode pass, generating the thumbnail from the same bitmap.
+     */
+    private static Result processImage(File file, String mimeType, File entryDir, boolean optimize)
+            throws IOException {
+        int maxDimension = getConfig(PNAME_IMAGE_MAX_DIMENSION, DEFAULT_IMAGE_MAX_DIMENSION);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return new Result(file, null);
+        }
+
+        // Re-encode only the photo formats; png, gif and webp may contain transparency or animation.
+        boolean isPhoto = "image/jpeg".equals(mimeType) || "image/heic".equals(mimeType) || "image/heif".equals(mimeType);
+        int longSide = Math.max(options.outWidth, options.outHeight);
+        boolean reEncode = optimize && isPhoto && (longSide > maxDimension || file.length() > IMAGE_MIN_REENCODE_SIZE);
+
+        // Decode at the largest power of 2 sub-sampling still at or above the target size
+        int targetSide = reEncode ? maxDimension : Math.max(FileSendConversation.THUMBNAIL_WIDTH,
+                FileSendConversation.THUMBNAIL_HEIGHT);
+        options.inSampleSize = 1;
+        while (longSide / (options.inSampleSize * 2) >= targetSide) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            return new Result(file, null);
+        }
+        bitmap = rotateBitmap(bitmap, file);
+
+        File outFile = file;
+        if (reEncode) {
+            Bitmap scaled = scaleBitmap(bitmap, maxDimension, maxDimension);
+            File jpegFile = new File(entryDir, baseName(file) + ".jpg");
+            try (OutputStream out = new FileOutputStream(jpegFile)) {
+                scaled.compress(Bitmap.CompressFormat.JPEG, getConfig(PNAME_IMAGE_QUALITY, DEFAULT_IMAGE_QUALITY), out);
+            }
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+            if (jpegFile.length() > 0 && jpegFile.length() < file.length()) {
+                outFile = jpegFile;
+            }
+            else if (!jpegFile.delete()) {
+                Timber.w("Could not delete media cache file: %s", jpegFile);
+            }
+        }
+
+        byte[] thumbnail = createThumbnail(bitmap);
+        bitmap.recycle();
+        return new Result(outFile, thumbnail);
+    }
+
+    /**
+     * Probe the video for the thumbnail frame and its resolution/bitrate; re-encode the video if above the caps.
+     */
+    private static Result processVideo(File file, File entryDir, boolean optimize)
+            throws IOException {
+        int width, height, bitrate, duration;
+        byte[] thumbnail = null;
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getPath());
+            width = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            height = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            bitrate = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE));
+            duration = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+
+            Bitmap frame = retriever.getFrameAtTime();
+            if (frame != null) {
+                thumbnail = createThumbnail(frame);
+                frame.recycle();
+            }
+        } catch (RuntimeException e) {
+            Timber.w("Video probe failed: %s", e.getMessage());
+            return new Result(file, null);
+        } finally {
+            retriever.release();
+        }
+
+        int maxShortSide = getConfig(PNAME_VIDEO_MAX_SHORT_SIDE, DEFAULT_VIDEO_MAX_SHORT_SIDE);
+        int maxBitrate = getConfig(PNAME_VIDEO_MAX_BITRATE, DEFAULT_VIDEO_MAX_BITRATE);
+        if (!optimize || (Math.min(width, height) <= maxShortSide && bitrate <= maxBitrate)) {
+            return new Result(file, thumbnail);
+        }
+
+        File outFile = new File(entryDir, baseName(file) + ".mp4");
+        if (transcodeVideo(file, outFile, Math.min(maxShortSide, Math.min(width, height)), maxBitrate, duration)
+                && outFile.length() > 0 && outFile.length() < file.length()) {
+            return new Result(outFile, thumbnail);
+        }
+        if (outFile.exists() && !outFile.delete()) {
+            Timber.w("Could not delete media cache file: %s", outFile);
+        }
+        return new Result(file, thumbnail);
+    }
+
+    /**
+     * Re-encode the video to H.264 with the given short side and bitrate caps; the audio track is passed through.
+     * Blocks the worker thread until the media3 Transformer export has completed; the export is cancelled if it
+     * has not completed within the timeout, so a stalled encoder cannot hold the worker.
+     *
+     * @param duration the video duration in ms
+     *
+     * @return true if the export completed successfully
+     */
+    private static boolean transcodeVideo(File inFile, File outFile, int shortSide, int bitrate, long duration) {
+        Context ctx = aTalkApp.getInstance();
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<ExportException> error = new AtomicReference<>();
+
+        Transformer transformer = new Transformer.Builder(ctx)
+                .setLooper(getTranscoderThread().getLooper())
+                .setVideoMimeType(MimeTypes.VIDEO_H264)
+                .setEncoderFactory(new DefaultEncoderFactory.Builder(ctx)
+                        .setRequestedVideoEncoderSettings(new VideoEncoderSettings.Builder()
+                                .setBitrate(bitrate)
+                                .build())
+                        .build())
+                .addListener(new Transformer.Listener() {
+                    @Override
+                    public void onCompleted(Composition composition, ExportResult exportResult) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onError(Composition composition, ExportResult exportResult,
+                            ExportException exportException) {
+                        error.set(exportException);
+                        latch.countDown();
+                    }
+                })
+                .build();
+
+        EditedMediaItem mediaItem = new EditedMediaItem.Builder(MediaItem.fromUri(Uri.fromFile(inFile)))
+                .setEffects(new Effects(Collections.emptyList(),
+                        Collections.singletonList(Presentation.createForShortSide(shortSide))))
+                .build();
+
+        // The Transformer must be accessed from its application looper thread.
+        Handler handler = new Handler(getTranscoderThread().getLooper());
+        handler.post(() -> transformer.start(mediaItem, outFile.getPath()));
+        try {
+            if (!latch.await(TRANSCODE_MIN_TIMEOUT + 2 * duration, TimeUnit.MILLISECONDS)) {
+                Timber.w("Video transcoding timeout: %s", inFile.getName());
+                cancelExport(handler, transformer);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            cancelExport(handler, transformer);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (error.get() != null) {
+            Timber.w("Video transcoding failed: %s", error.get().getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cancel the Transformer export on its looper thread, and wait for the cancellation so the output file
+     * is no longer written to when it is deleted.
+     */
+    private static void cancelExport(Handler handler, Transformer transformer) {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        handler.post(() -> {
+            transformer.cancel();
+            cancelled.countDown();
+        });
+        try {
+            if (!cancelled.await(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Timber.w("Video transcoding cancel timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the media cache folder; exclude its content from the device media gallery scan.
+     */
+    private static File getCacheDir()
+            throws IOException {
+        File cacheDir = FileBackend.getaTalkStore(FileBackend.MEDIA_OPTIMIZED, true);
+        File noMedia = new File(cacheDir, ".nomedia");
+        if (!noMedia.exists() && !noMedia.createNewFile()) {
+            Timber.w("Could not create file: %s", noMedia);
+        }
+        return cacheDir;
+    }
+
+    /**
+     * Evict the media cache entries unused for longer than the max age; then the least recently used entries
+     * until the cache is within its max size. The entries in use or recently used are never evicted.
+     *
+     * @param cacheDir the media cache folder
+     */
+    private static void trimCache(File cacheDir) {
+        File[] entryDirs = cacheDir.listFiles(File::isDirectory);
+        if (entryDirs == null) {
+            return;
+        }
+
+        // Most recently used first
+        Arrays.sort(entryDirs, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        long now = System.currentTimeMillis();
+        long totalSize = 0;
+        int evicted = 0;
+        for (File entryDir : entryDirs) {
+            long entrySize = 0;
+            File[] files = entryDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    entrySize += file.length();
+                }
+            }
+
+            long age = now - entryDir.lastModified();
+            if (age < CACHE_MIN_AGE || (age < CACHE_MAX_AGE && totalSize + entrySize <= CACHE_MAX_SIZE)) {
+                totalSize += entrySize;
+                continue;
+            }
+
+            // Skip the entry being processed or loaded; it is in use
+            String hash = entryDir.getName();
+            if (mEntryLocks.containsKey(hash)) {
+                totalSize += entrySize;
+                continue;
+            }
+
+            EntryLock entryLock = acquireLock(hash);
+            try {
+                synchronized (entryLock) {
+                    // The entry may have been used since it was listed
+                    if (now - entryDir.lastModified() >= CACHE_MIN_AGE) {
+                        deleteEntry(entryDir);
+                        if (entryDir.delete()) {
+                            evicted++;
+                        }
+                    }
+                }
+            } finally {
+                releaseLock(hash);
+            }
+        }
+        if (evicted > 0) {
+            Timber.d("Media cache evicted entries: %s; cache size: %s", evicted, totalSize);
+        }
+    }
+
+    private static synchronized HandlerThread getTranscoderThread() {
+        if (mTranscoderThread == null) {
+            mTranscoderThread = new HandlerThread("MediaTranscoder");
+            mTranscoderThread.start();
+        }
+        return mTranscoderThread;
+    }
+
+    /**
+     * Load the cached result of the given cache entry.
+     *
+     * @param entryDir the cache entry folder
+     * @param file the original file
+     * @param optimize true if the optimized file is required
+     * @param caps the current processing caps of the media type
+     *
+     * @return the cached result, or null if none, incomplete or processed with different caps
+     */
+    private static Result loadCache(File entryDir, File file, boolean optimize, String caps)
+            throws IOException {
+        File thumbnailFile = new File(entryDir, THUMBNAIL_FILE);
+        File doneFile = new File(entryDir, DONE_FILE);
+        if (optimize) {
+            if (!doneFile.exists()
+                    || !caps.equals(new String(Files.readAllBytes(doneFile.toPath()), StandardCharsets.UTF_8))) {
+                return null;
+            }
+        }
+        else if (!thumbnailFile.exists()) {
+            return null;
+        }
+
+        byte[] thumbnail = thumbnailFile.exists() ? Files.readAllBytes(thumbnailFile.toPath()) : null;
+        File outFile = file;
+        if (optimize) {
+            // The optimized media file is absent if the processing did not reduce the file size
+            File[] files = entryDir.listFiles((dir, name) -> !name.startsWith("."));
+            if (files != null && files.length > 0) {
+                outFile = files[0];
+            }
+        }
+        return new Result(outFile, thumbnail);
+    }
+
+    private static void deleteEntry(File entryDir) {
+        File[] files = entryDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Timber.w("Could not delete media cache file: %s", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the SHA-256 hash of the file content, reading via its FileChannel in large chunks.
+     *
+     * @param file the file to hash
+     *
+     * @return the hex string of the content hash
+     */
+    private static String contentHash(File file)
+            throws IOException {
+        String key = file.getPath() + "/" + file.length() + "/" + file.lastModified();
+        String hash = mHashCache.get(key);
+        if (hash != null) {
+            return hash;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        hash = sb.toString();
+        mHashCache.put(key, hash);
+        return hash;
+    }
+
+    /**
+     * Rotate the bitmap according to the image exif orientation, as the re-encoded jpeg has no exif data.
+     */
+    private static Bitmap rotateBitmap(Bitmap bitmap, File file) {
+        int degrees;
+        try {
+            ExifInterface exif = new ExifInterface(file.getPath());
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    degrees = 90;
+                    break;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    degrees = 180;
+                    break;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    degrees = 270;
+                    break;
+                default:
+                    return bitmap;
+            }
+        } catch (IOException e) {
+            return bitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    /**
+     * Scale the bitmap down to fit within the given width and height, keeping its aspect ratio.
+     */
+    private static Bitmap scaleBitmap(Bitmap bitmap, int maxWidth, int maxHeight) {
+        float scale = Math.min((float) maxWidth / bitmap.getWidth(), (float) maxHeight / bitmap.getHeight());
+        if (scale >= 1.0f) {
+            return bitmap;
+        }
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    private static byte[] createThumbnail(Bitmap bitmap) {
+        Bitmap thumbnail = scaleBitmap(bitmap, FileSendConversation.THUMBNAIL_WIDTH,
+                FileSendConversation.THUMBNAIL_HEIGHT);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, stream);
+        if (thumbnail != bitmap) {
+            thumbnail.recycle();
+        }
+        return stream.toByteArray();
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int idx = name.lastIndexOf('.');
+        return (idx > 0) ? name.substring(0, idx) : name;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return TextUtils.isEmpty(value) ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isOptimizeEnabled() {
+        ConfigurationService configService = AppGUIActivator.getConfigurationService();
+        return (configService == null) || configService.getBoolean(PNAME_OPTIMIZE_MEDIA, true);
+    }
+
+    /**
+     * Get the current processing caps of the media type, recorded in the cache entry processed with them.
+     */
+    private static String getCaps(boolean isImage) {
+        if (isImage) {
+            return "image:" + getConfig(PNAME_IMAGE_MAX_DIMENSION, DEFAULT_IMAGE_MAX_DIMENSION)
+                    + ":" + getConfig(PNAME_IMAGE_QUALITY, DEFAULT_IMAGE_QUALITY);
+        }
+        return "video:" + getConfig(PNAME_VIDEO_MAX_SHORT_SIDE, DEFAULT_VIDEO_MAX_SHORT_SIDE)
+                + ":" + getConfig(PNAME_VIDEO_MAX_BITRATE, DEFAULT_VIDEO_MAX_BITRATE);
+    }
+
+    private static int getConfig(String pName, int defaultValue) {
+        ConfigurationService configService = AppGUIActivator.getConfigurationService();
+        return (configService == null) ? defaultValue : configService.getInt(pName, defaultValue);
+    }
+
+    /**
+     * The lock of a cache entry, with the number of the workers holding or waiting for it; the count is only
+     * updated within the mEntryLocks compute functions.
+     */
+    private static class EntryLock {
+        int users;
+    }
+
+    /**
+     * The media pre-processing result.
+     */
+    private static class Result {
+        final File file;
+        final byte[] thumbnail;
+
+        Result(File file, byte[] thumbnail) {
+            this.file = file;
+            this.thumbnail = thumbnail;
+        }
+    }
+}
@@ -27,8 +27,9 @@ import org.atalk.ohos.R;
 import org.atalk.ohos.aTalkApp;
 import org.atalk.ohos.gui.chat.ChatSessionManager;
 import org.atalk.ohos.util.AppImageUtil;
-import org.atalk.ohos.gui.util.DrawableCache;
+import org.jivesoftware.smackx.avatar.AvatarManager;
 import org.jxmpp.jid.DomainBareJid;
+import org.jxmpp.jid.Jid;
 
 /**
  * Class used to obtain UI specific data for <code>MetaContact</code> instances.
@@ -165,32 +166,67 @@ public class MetaContactRenderer implements UIContactRenderer {
      * @return a <code>BitmapDrawable</code> object representing the status of the given <code>MetaContact</code>
      */
     public static BitmapDrawable getAvatarDrawable(MetaContact metaContact) {
-        return getCachedAvatarFromBytes(metaContact.getAvatar());
+        byte[] avatar = metaContact.getAvatar();
+        if (avatar == null || avatar.length == 0)
+            return null;
+
+        // Take the hash id from the proto contact the avatar bytes belong to; else keyed by the avatar content
+        String avatarId = null;
+        if (metaContact.getContactCount() == 1) {
+            avatarId = getAvatarId(metaContact.getDefaultContact());
+        }
+        else {
+            Iterator<Contact> protoContacts = metaContact.getContacts();
+            while (protoContacts.hasNext()) {
+                Contact contact = protoContacts.next();
+                if (contact.getImage(false) == avatar) {
+                    avatarId = getAvatarId(contact);
+                    break;
+                }
+            }
+        }
+        return getCachedAvatarFromBytes(avatarId, avatar);
+    }
+
+    /**
+     * Returns the avatar hash id of the given contact.
+     *
+     * @param contact the protocol contact
+     *
+     * @return the avatar hash id, or <code>null</code> if none
+     */
+    public static String getAvatarId(Contact contact) {
+        Jid jid = (contact == null) ? null : contact.getJid();
+        return (jid == null) ? null : AvatarManager.getAvatarHashByJid(jid.asBareJid());
     }
 
     /**
-     * Returns avatar <code>BitmapDrawable</code> with rounded corners. Bitmap will be cached in app global drawable cache.
+     * Returns avatar <code>BitmapDrawable</code> with rounded corners, downscaled to the contact list avatar size.
+     * The image has no avatar hash id, so it is cached by its content digest.
      *
      * @param avatar raw avatar image data.
      *
      * @return avatar <code>BitmapDrawable</code> with rounded corners
      */
     public static BitmapDrawable getCachedAvatarFromBytes(byte[] avatar) {
-        if (avatar == null)
-            return null;
+        return getCachedAvatarFromBytes(null, avatar);
+    }
 
-        String bmpKey = String.valueOf(avatar.hashCode());
-        DrawableCache cache = aTalkApp.getImageCache();
+    /**
+     * Returns avatar <code>BitmapDrawable</code> with rounded corners, downscaled to the contact list avatar size.
+     * Bitmap will be cached in app global drawable cache, keyed by the avatar hash id and size.
+     *
+     * @param avatarId the avatar hash id or any other stable image key, or <code>null</code> if unknown
+     * @param avatar raw avatar image data.
+     *
+     * @return avatar <code>BitmapDrawable</code> with rounded corners
+     */
+    public static BitmapDrawable getCachedAvatarFromBytes(String avatarId, byte[] avatar) {
+        if (avatar == null || avatar.length == 0)
+            return null;
 
-        BitmapDrawable avatarImage = cache.getBitmapFromMemCache(bmpKey);
-        if (avatarImage == null) {
-            BitmapDrawable roundedAvatar = AppImageUtil.roundedDrawableFromBytes(avatar);
-            if (roundedAvatar != null) {
-                avatarImage = roundedAvatar;
-                cache.cacheImage(bmpKey, avatarImage);
-            }
-        }
-        return avatarImage;
+        int size = aTalkApp.getAppResources().getDimensionPixelSize(R.dimen.contact_list_avatar_width);
+        return aTalkApp.getImageCache().getAvatarFromMemCache(avatarId, avatar, size);
     }
 
     /**
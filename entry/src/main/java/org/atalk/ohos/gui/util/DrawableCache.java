@@ -5,6 +5,7 @@
  */
 package org.atalk.ohos.gui.util;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -12,12 +13,21 @@ import android.graphics.drawable.BitmapDrawable;
 
 import androidx.collection.LruCache;
 
+import java.util.Locale;
+
+import org.jivesoftware.smack.util.SHA1;
+
 import org.atalk.ohos.aTalkApp;
+import org.atalk.ohos.util.AppImageUtil;
+
+import timber.log.Timber;
 
 /**
  * Implements bitmap cache using <code>LruCache</code> utility class. Single cache instance uses up to 1/8 of total runtime memory available.
+ * Avatars are cached decoded and downscaled to the size they are displayed, keyed by the avatar hash id and size.
  *
  * @author Pawel Domas
+ * @author Eng Chong Meng
  */
 public class DrawableCache
 {
@@ -97,4 +107,57 @@ public class DrawableCache
     {
         cache.put(key, bmp);
     }
+
+    /**
+     * Gets the rounded avatar <code>BitmapDrawable</code> decoded and downscaled to the given display size.
+     * The decoded avatar is cached by its hash id and size; so the same avatar received in a different
+     * array instance is not decoded again. An avatar without hash id is cached by its content digest.
+     *
+     * @param avatarId the avatar hash id or any other stable image key, or <code>null</code> if unknown.
+     * @param avatar raw avatar image data.
+     * @param size the avatar display width and height in pixels.
+     * @return avatar <code>BitmapDrawable</code> with rounded corners, or <code>null</code> if avatar cannot be decoded.
+     */
+    public BitmapDrawable getAvatarFromMemCache(String avatarId, byte[] avatar, int size)
+    {
+        String key = "avatar:" + ((avatarId == null) ? SHA1.hex(avatar) : avatarId) + ":" + size;
+        BitmapDrawable img = cache.get(key);
+        if (img == null) {
+            Bitmap bmp = AppImageUtil.scaledBitmapFromBytes(avatar, size, size);
+            if (bmp == null)
+                return null;
+
+            img = new BitmapDrawable(aTalkApp.getAppResources(), AppImageUtil.getRoundedCornerBitmap(bmp, 0.10f));
+            cache.put(key, img);
+        }
+        return img;
+    }
+
+    /**
+     * Release the cached drawables on system memory pressure.
+     *
+     * @param level the memory trim level as defined in {@link ComponentCallbacks2}
+     */
+    public void trimMemory(int level)
+    {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.evictAll();
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+        Timber.d("Drawable cache trimmed at level %s: %s", level, getStats());
+    }
+
+    /**
+     * @return the cache usage and hit-rate statistics for diagnostic purpose.
+     */
+    public String getStats()
+    {
+        int hits = cache.hitCount();
+        int accesses = hits + cache.missCount();
+        return String.format(Locale.US, "DrawableCache[size=%d/%d KB, hits=%d, misses=%d, hitRate=%d%%, evictions=%d]",
+                cache.size(), cache.maxSize(), hits, cache.missCount(),
+                (accesses == 0) ? 0 : (100 * hits / accesses), cache.evictionCount());
+    }
 }
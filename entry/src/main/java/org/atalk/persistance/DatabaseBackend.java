@@ -85,8 +85,9 @@ public class DatabaseBackend extends SQLiteOpenHelper {
      * Increment DATABASE_VERSION when there is a change in database records
      */
     public static final String DATABASE_NAME = "dbRecords.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static DatabaseBackend instance = null;
+    private static WriteBehindQueue mWriteQueue = null;
     private ProtocolProviderService mProvider;
 
     // Create preKeys table
@@ -173,6 +174,37 @@ public class DatabaseBackend extends SQLiteOpenHelper {
             + EntityCapsCache.ENTITY_NODE_VER
             + ") ON CONFLICT REPLACE);";
 
+    // XEP-0237: Roster Versioning store tables
+    public static String CREATE_ROSTER_ENTRIES_STATEMENT = "CREATE TABLE "
+            + SQLiteRosterStore.TABLE_ENTRIES + "("
+            + SQLiteRosterStore.ACCOUNT_UUID + " TEXT, "
+            + SQLiteRosterStore.ENTRY_JID + " TEXT, "
+            + SQLiteRosterStore.ENTRY_ITEM + " TEXT, FOREIGN KEY("
+            + SQLiteRosterStore.ACCOUNT_UUID + ") REFERENCES "
+            + AccountID.TABLE_NAME + "(" + AccountID.ACCOUNT_UUID
+            + ") ON DELETE CASCADE, UNIQUE(" + SQLiteRosterStore.ACCOUNT_UUID
+            + ", " + SQLiteRosterStore.ENTRY_JID
+            + ") ON CONFLICT REPLACE);";
+
+    public static String CREATE_ROSTER_VERSION_STATEMENT = "CREATE TABLE "
+            + SQLiteRosterStore.TABLE_VERSION + "("
+            + SQLiteRosterStore.ACCOUNT_UUID + " TEXT PRIMARY KEY, "
+            + SQLiteRosterStore.ROSTER_VERSION + " TEXT, FOREIGN KEY("
+            + SQLiteRosterStore.ACCOUNT_UUID + ") REFERENCES "
+            + AccountID.TABLE_NAME + "(" + AccountID.ACCOUNT_UUID
+            + ") ON DELETE CASCADE);";
+
+    // XEP-0030: Service Discovery results cache table
+    public static String CREATE_SERVICE_DISCO_STATEMENT = "CREATE TABLE "
+            + ServiceDiscoveryCache.TABLE_NAME + "("
+            + ServiceDiscoveryCache.SERVER_DOMAIN + " TEXT, "
+            + ServiceDiscoveryCache.ENTITY_JID + " TEXT, "
+            + ServiceDiscoveryCache.DISCO_TYPE + " TEXT, "
+            + ServiceDiscoveryCache.DISCO_CONTENT + " TEXT, "
+            + ServiceDiscoveryCache.TIME_STAMP + " NUMBER, UNIQUE("
+            + ServiceDiscoveryCache.ENTITY_JID + ", " + ServiceDiscoveryCache.DISCO_TYPE
+            + ") ON CONFLICT REPLACE);";
+
     private DatabaseBackend(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -199,6 +231,18 @@ public class DatabaseBackend extends SQLiteOpenHelper {
         return instance.getReadableDatabase();
     }
 
+    /**
+     * Get the shared write-behind queue for group commit of the frequent database writes e.g. chat messages.
+     *
+     * @return the WriteBehindQueue instance
+     */
+    public static synchronized WriteBehindQueue getWriteQueue() {
+        if (mWriteQueue == null) {
+            mWriteQueue = new WriteBehindQueue(getWritableDB());
+        }
+        return mWriteQueue;
+    }
+
     @Override
     public void onUpgrade(final SQLiteDatabase db, int oldVersion, int newVersion) {
         Timber.i("Upgrading database from version %s to version %s", oldVersion, newVersion);
@@ -385,6 +429,13 @@ public class DatabaseBackend extends SQLiteOpenHelper {
         // Create Entity Caps DB
         db.execSQL(CREATE_ENTITY_CAPS_STATEMENT);
 
+        // Create Roster Versioning store DB
+        db.execSQL(CREATE_ROSTER_ENTRIES_STATEMENT);
+        db.execSQL(CREATE_ROSTER_VERSION_STATEMENT);
+
+        // Create Service Discovery cache DB
+        db.execSQL(CREATE_SERVICE_DISCO_STATEMENT);
+
         // Create all relevant tables for OMEMO support
         db.execSQL(CREATE_OMEMO_DEVICES_STATEMENT);
         db.execSQL(CREATE_PREKEYS_STATEMENT);
@@ -421,6 +472,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
     }
 
     public List<String> getAllAccountIDs() {
+        // Commit any pending account changes queued by the configuration store
+        getWriteQueue().flush();
         List<String> userIDs = new ArrayList<>();
         SQLiteDatabase db = getReadableDatabase();
         String[] columns = {AccountID.USER_ID};
@@ -434,6 +487,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
     }
 
     public List<AccountID> getAccounts(ProtocolProviderFactory factory) {
+        // The accountProperties may have pending writes queued by the configuration store
+        getWriteQueue().flush();
         SQLiteDatabase db = getReadableDatabase();
         List<AccountID> accountIDs = new ArrayList<>();
         String[] args = {factory.getProtocolName()};
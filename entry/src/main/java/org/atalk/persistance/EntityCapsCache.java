@@ -1,6 +1,6 @@
 /*
  * aTalk, android VoIP and Instant Messaging client
- * Copyright 2014~2022 Eng Chong Meng
+ * Copyright 2014~2026 Eng Chong Meng
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,7 +21,11 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
+import android.util.LruCache;
 
+import java.util.concurrent.ExecutorService;
+
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.packet.XmlEnvironment;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache;
@@ -33,6 +37,14 @@ import timber.log.Timber;
 /**
  * Simple implementation of an EntityCapsPersistentCache that uses
  * MySQLite to store the Caps information in record for every known node.
+ * <p>
+ * The parsed DiscoverInfo are kept in an in-memory LRU cache in front of the DB table; the table is
+ * preloaded in the background on creation, and new entries are persisted via the write-behind queue.
+ * When the whole table fits in the memory cache, a lookup miss needs no DB access at all.
+ * <p>
+ * The DB table is read directly instead of via the write-behind queue query, which would first commit
+ * all the queued writes of the other tables on the caller thread; the entries not yet committed are
+ * already in the memory cache.
  *
  * @author Eng Chong Meng
  */
@@ -41,13 +53,68 @@ public class EntityCapsCache implements EntityCapsPersistentCache {
     public static final String ENTITY_NODE_VER = "nodeVer";
     public static final String ENTITY_DISC_INFO = "discInfo";
 
+    /**
+     * Max number of DiscoverInfo kept in memory.
+     */
+    private static final int MAX_CACHE_ENTRIES = 500;
+
+    private final WriteBehindQueue mWriteQueue;
+
     private final SQLiteDatabase mDB;
 
+    /**
+     * Map of nodeVer to the parsed DiscoverInfo.
+     */
+    private final LruCache<String, DiscoverInfo> mCache = new LruCache<String, DiscoverInfo>(MAX_CACHE_ENTRIES) {
+        @Override
+        protected void entryRemoved(boolean evicted, String nodeVer, DiscoverInfo oldInfo, DiscoverInfo newInfo) {
+            // The evicted entry is now only in the DB table
+            if (evicted)
+                isAllCached = false;
+        }
+    };
+
+    /**
+     * Set when all the DB table entries are also in mCache, i.e. a cache miss is also a DB miss.
+     */
+    private volatile boolean isAllCached = false;
+
+    private static final ExecutorService preloadExecutor = ExecutorUtils.newCachedThreadPool(true, "EntityCapsCache");
+
     /**
      * Creates a new EntityCapsCache Object.
      */
     public EntityCapsCache() {
-        mDB = DatabaseBackend.getWritableDB();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
+        mDB = DatabaseBackend.getReadableDB();
+        preloadExecutor.execute(this::preload);
+    }
+
+    /**
+     * Load the most recent entries of the DB table into the memory cache.
+     */
+    @SuppressLint("Range")
+    private void preload() {
+        int count = 0;
+        int evictions = mCache.evictionCount();
+        boolean isComplete = true;
+        Cursor cursor = mDB.query(TABLE_NAME, null, null, null, null, null, "ROWID DESC");
+        while (cursor.moveToNext()) {
+            if (++count > MAX_CACHE_ENTRIES) {
+                isComplete = false;
+                break;
+            }
+            String nodeVer = cursor.getString(cursor.getColumnIndex(ENTITY_NODE_VER));
+            if (mCache.get(nodeVer) == null) {
+                DiscoverInfo info = parseDiscoverInfo(cursor.getString(cursor.getColumnIndex(ENTITY_DISC_INFO)));
+                if (info != null)
+                    mCache.put(nodeVer, info);
+            }
+        }
+        cursor.close();
+        // Any eviction while preloading, may have dropped an entry that is only in the DB table
+        isAllCached = isComplete && (evictions == mCache.evictionCount());
+        Timber.d("EntityCaps cache preloaded with %s entries; all cached: %s", mCache.size(), isAllCached);
     }
 
     /**
@@ -58,15 +125,16 @@ public class EntityCapsCache implements EntityCapsPersistentCache {
      */
     @Override
     public void addDiscoverInfoByNodePersistent(String nodeVer, DiscoverInfo info) {
-        ContentValues values = new ContentValues();
+        mCache.put(nodeVer, info);
 
+        ContentValues values = new ContentValues();
         values.put(ENTITY_NODE_VER, nodeVer);
         values.put(ENTITY_DISC_INFO, info.toXML().toString());
-        mDB.insert(TABLE_NAME, null, values);
+        mWriteQueue.replace(TABLE_NAME, values);
     }
 
     /**
-     * Restore an DiscoverInfo stanza from DB.
+     * Restore an DiscoverInfo stanza from memory cache, else from DB.
      *
      * @param nodeVer Entity nodeVersion for retrieving from DB
      *
@@ -75,6 +143,10 @@ public class EntityCapsCache implements EntityCapsPersistentCache {
     @SuppressLint("Range")
     @Override
     public DiscoverInfo lookup(String nodeVer) {
+        DiscoverInfo info = mCache.get(nodeVer);
+        if (info != null || isAllCached)
+            return info;
+
         String[] selectionArgs = {nodeVer};
         Cursor cursor = mDB.query(TABLE_NAME, null, ENTITY_NODE_VER + "=?", selectionArgs, null, null, null);
 
@@ -84,6 +156,13 @@ public class EntityCapsCache implements EntityCapsPersistentCache {
         }
         cursor.close();
 
+        info = parseDiscoverInfo(content);
+        if (info != null)
+            mCache.put(nodeVer, info);
+        return info;
+    }
+
+    private DiscoverInfo parseDiscoverInfo(String content) {
         DiscoverInfo info = null;
         if (!TextUtils.isEmpty(content)) {
             try {
@@ -98,6 +177,8 @@ public class EntityCapsCache implements EntityCapsPersistentCache {
 
     @Override
     public void emptyCache() {
-        mDB.delete(TABLE_NAME, null, null);
+        mCache.evictAll();
+        mWriteQueue.deleteNow(TABLE_NAME, null, null);
+        isAllCached = true;
     }
 }
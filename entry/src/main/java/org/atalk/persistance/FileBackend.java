@@ -66,6 +66,7 @@ public class FileBackend {
     public static String MEDIA_DOCUMENT = "Media/Documents";
     public static String MEDIA_VOICE_RECEIVE = "Media/Voice_Receive";
     public static String MEDIA_VOICE_SEND = "Media/Voice_Send";
+    public static String MEDIA_OPTIMIZED = "Media/Optimized";
     public static String TMP = "tmp";
 
     public static boolean IsExternalStorageWritable() {
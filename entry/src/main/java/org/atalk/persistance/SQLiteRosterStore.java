@@ -0,0 +1,195 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.persistance;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.provider.RosterPacketProvider;
+import org.jivesoftware.smack.roster.rosterstore.RosterStore;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jxmpp.jid.Jid;
+
+import timber.log.Timber;
+
+/**
+ * XEP-0237: Roster Versioning persistent store of an account roster in the aTalk database. The roster
+ * entries are stored as their XML items, together with the roster version they correspond to; so
+ * the server only needs to push the roster changes since that version on login.
+ * <p>
+ * The entry and version updates of a roster push are committed via the write-behind queue, with the
+ * version written after the entry; so the stored version never gets ahead of the stored entries.
+ *
+ * @author Eng Chong Meng
+ */
+public class SQLiteRosterStore implements RosterStore {
+    public static final String TABLE_ENTRIES = "rosterEntries";
+    public static final String TABLE_VERSION = "rosterVersion";
+    public static final String ACCOUNT_UUID = "accountUuid";
+    public static final String ENTRY_JID = "entryJid";
+    public static final String ENTRY_ITEM = "entryItem";
+    public static final String ROSTER_VERSION = "version";
+
+    private final SQLiteDatabase mDB;
+    private final WriteBehindQueue mWriteQueue;
+    private final String mAccountUuid;
+    private final String[] mArgs;
+
+    /**
+     * Creates the roster store of the given account.
+     *
+     * @param accountUuid the account uuid which the roster belongs to
+     */
+    public SQLiteRosterStore(String accountUuid) {
+        mDB = DatabaseBackend.getWritableDB();
+        mWriteQueue = DatabaseBackend.getWriteQueue();
+        mAccountUuid = accountUuid;
+        mArgs = new String[]{accountUuid};
+    }
+
+    @Override
+    public List<Item> getEntries() {
+        List<Item> entries = new ArrayList<>();
+        Cursor cursor = mWriteQueue.query(TABLE_ENTRIES, new String[]{ENTRY_ITEM},
+                ACCOUNT_UUID + "=?", mArgs, null, null, null);
+        while (cursor.moveToNext()) {
+            Item item = parseItem(cursor.getString(0));
+            if (item == null) {
+                // Force the server to resend the full roster on a corrupted entry
+                cursor.close();
+                resetStore();
+                return null;
+            }
+            entries.add(item);
+        }
+        cursor.close();
+        return entries;
+    }
+
+    @Override
+    public Item getEntry(Jid bareJid) {
+        String[] args = {mAccountUuid, bareJid.toString()};
+        Cursor cursor = mWriteQueue.query(TABLE_ENTRIES, new String[]{ENTRY_ITEM},
+                ACCOUNT_UUID + "=? AND " + ENTRY_JID + "=?", args, null, null, null);
+
+        Item item = null;
+        if (cursor.moveToNext())
+            item = parseItem(cursor.getString(0));
+        cursor.close();
+        return item;
+    }
+
+    @Override
+    public String getRosterVersion() {
+        Cursor cursor = mWriteQueue.query(TABLE_VERSION, new String[]{ROSTER_VERSION},
+                ACCOUNT_UUID + "=?", mArgs, null, null, null);
+
+        String version = "";
+        if (cursor.moveToNext())
+            version = cursor.getString(0);
+        cursor.close();
+        return version;
+    }
+
+    @Override
+    public boolean addEntry(Item item, String version) {
+        ContentValues values = new ContentValues();
+        values.put(ACCOUNT_UUID, mAccountUuid);
+        values.put(ENTRY_JID, item.getJid().toString());
+        values.put(ENTRY_ITEM, item.toXML().toString());
+        mWriteQueue.replace(TABLE_ENTRIES, values);
+        setRosterVersion(version);
+        return true;
+    }
+
+    @Override
+    public boolean resetEntries(Collection<Item> items, String version) {
+        mWriteQueue.flush();
+        mDB.beginTransaction();
+        try {
+            mDB.delete(TABLE_ENTRIES, ACCOUNT_UUID + "=?", mArgs);
+            ContentValues values = new ContentValues();
+            values.put(ACCOUNT_UUID, mAccountUuid);
+            for (Item item : items) {
+                values.put(ENTRY_JID, item.getJid().toString());
+                values.put(ENTRY_ITEM, item.toXML().toString());
+                mDB.insert(TABLE_ENTRIES, null, values);
+            }
+
+            values.clear();
+            values.put(ACCOUNT_UUID, mAccountUuid);
+            values.put(ROSTER_VERSION, version);
+            mDB.insertWithOnConflict(TABLE_VERSION, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            mDB.setTransactionSuccessful();
+        } finally {
+            mDB.endTransaction();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeEntry(Jid bareJid, String version) {
+        mWriteQueue.delete(TABLE_ENTRIES, ACCOUNT_UUID + "=? AND " + ENTRY_JID + "=?",
+                new String[]{mAccountUuid, bareJid.toString()});
+        setRosterVersion(version);
+        return true;
+    }
+
+    /**
+     * Remove all the stored entries and version of the account roster; the server then sends the
+     * full roster on next login.
+     */
+    @Override
+    public void resetStore() {
+        mWriteQueue.delete(TABLE_ENTRIES, ACCOUNT_UUID + "=?", mArgs);
+        mWriteQueue.delete(TABLE_VERSION, ACCOUNT_UUID + "=?", mArgs);
+        mWriteQueue.flush();
+    }
+
+    /**
+     * Remove the stored roster versions of all accounts, so the server sends the full roster on next login.
+     */
+    public static void resetAllRosterVersions() {
+        DatabaseBackend.getWriteQueue().deleteNow(TABLE_VERSION, null, null);
+    }
+
+    private void setRosterVersion(String version) {
+        ContentValues values = new ContentValues();
+        values.put(ACCOUNT_UUID, mAccountUuid);
+        values.put(ROSTER_VERSION, version);
+        mWriteQueue.replace(TABLE_VERSION, values);
+    }
+
+    private Item parseItem(String content) {
+        if (TextUtils.isEmpty(content))
+            return null;
+
+        try {
+            return RosterPacketProvider.parseItem(PacketParserUtils.getParserFor(content));
+        } catch (Exception e) {
+            Timber.w("Could not restore roster entry from DB: %s", e.getMessage());
+            return null;
+        }
+    }
+}
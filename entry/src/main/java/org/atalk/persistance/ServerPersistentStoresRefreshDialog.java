@@ -140,14 +140,9 @@ public class ServerPersistentStoresRefreshDialog extends BaseFragment {
         for (ProtocolProviderService pps : ppServices) {
             ProtocolProviderServiceJabberImpl jabberProvider = (ProtocolProviderServiceJabberImpl) pps;
 
-            File rosterStoreDirectory = jabberProvider.getRosterStoreDirectory();
-            if ((rosterStoreDirectory != null) && rosterStoreDirectory.exists()) {
-                try {
-                    FileBackend.deleteRecursive(rosterStoreDirectory);
-                } catch (IOException e) {
-                    Timber.e("Failed to purge store for: %s", R.string.refresh_store_roster);
-                }
-                jabberProvider.initRosterStore();
+            SQLiteRosterStore rosterStore = jabberProvider.getRosterStore();
+            if (rosterStore != null) {
+                rosterStore.resetStore();
             }
         }
     }
@@ -0,0 +1,166 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.persistance;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jxmpp.JxmppContext;
+import org.jxmpp.jid.DomainBareJid;
+import org.jxmpp.jid.Jid;
+
+import timber.log.Timber;
+
+/**
+ * XEP-0030: Service Discovery results cache of the server and its components, persisted in the DB.
+ * Entries older than {@link #CACHE_TTL} are treated as absent, and are refreshed from the server.
+ * A server changes its services rarely; so on login, the features of the services can be made
+ * available immediately from the cache instead of waiting for the disco#info/#items round trips.
+ *
+ * @author Eng Chong Meng
+ */
+public class ServiceDiscoveryCache {
+    public static final String TABLE_NAME = "serviceDisco";
+    public static final String SERVER_DOMAIN = "serverDomain";
+    public static final String ENTITY_JID = "entityJid";
+    public static final String DISCO_TYPE = "discoType";
+    public static final String DISCO_CONTENT = "discoContent";
+    public static final String TIME_STAMP = "timeStamp";
+
+    private static final String TYPE_INFO = "info";
+    private static final String TYPE_ITEMS = "items";
+
+    /**
+     * Max age in ms of a cached service discovery result.
+     */
+    public static final long CACHE_TTL = TimeUnit.HOURS.toMillis(24);
+
+    private final WriteBehindQueue mWriteQueue;
+
+    /**
+     * Map of discoType/entityJid to the parsed cached result.
+     */
+    private final Map<String, CacheEntry> mCache = new ConcurrentHashMap<>();
+
+    public ServiceDiscoveryCache() {
+        mWriteQueue = DatabaseBackend.getWriteQueue();
+    }
+
+    /**
+     * Get the cached disco#info result of the given entity.
+     *
+     * @param entityJid the service entity jid
+     *
+     * @return the DiscoverInfo, or null if none or expired
+     */
+    public DiscoverInfo getDiscoverInfo(Jid entityJid) {
+        return (DiscoverInfo) get(TYPE_INFO, entityJid);
+    }
+
+    /**
+     * Get the cached disco#items result of the given entity.
+     *
+     * @param entityJid the service entity jid
+     *
+     * @return the DiscoverItems, or null if none or expired
+     */
+    public DiscoverItems getDiscoverItems(Jid entityJid) {
+        return (DiscoverItems) get(TYPE_ITEMS, entityJid);
+    }
+
+    public void addDiscoverInfo(DomainBareJid serverDomain, Jid entityJid, DiscoverInfo info) {
+        put(TYPE_INFO, serverDomain, entityJid, info);
+    }
+
+    public void addDiscoverItems(DomainBareJid serverDomain, Jid entityJid, DiscoverItems items) {
+        put(TYPE_ITEMS, serverDomain, entityJid, items);
+    }
+
+    private IQ get(String type, Jid entityJid) {
+        String key = type + "/" + entityJid;
+        CacheEntry entry = mCache.get(key);
+        if (entry == null) {
+            entry = load(type, entityJid);
+            if (entry != null)
+                mCache.put(key, entry);
+        }
+        if ((entry == null) || (System.currentTimeMillis() - entry.timeStamp > CACHE_TTL))
+            return null;
+
+        return entry.result;
+    }
+
+    private void put(String type, DomainBareJid serverDomain, Jid entityJid, IQ result) {
+        long timeStamp = System.currentTimeMillis();
+        mCache.put(type + "/" + entityJid, new CacheEntry(result, timeStamp));
+
+        ContentValues values = new ContentValues();
+        values.put(SERVER_DOMAIN, serverDomain.toString());
+        values.put(ENTITY_JID, entityJid.toString());
+        values.put(DISCO_TYPE, type);
+        values.put(DISCO_CONTENT, result.toXML().toString());
+        values.put(TIME_STAMP, timeStamp);
+        mWriteQueue.replace(TABLE_NAME, values);
+    }
+
+    private CacheEntry load(String type, Jid entityJid) {
+        String[] args = {entityJid.toString(), type};
+        Cursor cursor = mWriteQueue.query(TABLE_NAME, new String[]{DISCO_CONTENT, TIME_STAMP},
+                ENTITY_JID + "=? AND " + DISCO_TYPE + "=?", args, null, null, null);
+
+        CacheEntry entry = null;
+        if (cursor.moveToNext()) {
+            String content = cursor.getString(0);
+            if (!TextUtils.isEmpty(content)) {
+                try {
+                    IQ result = (IQ) PacketParserUtils.parseStanza(PacketParserUtils.getParserFor(content),
+                            XmlEnvironment.EMPTY, JxmppContext.getDefaultContext());
+                    entry = new CacheEntry(result, cursor.getLong(1));
+                } catch (Exception e) {
+                    Timber.w("Could not restore service discovery from DB: %s", e.getMessage());
+                }
+            }
+        }
+        cursor.close();
+        return entry;
+    }
+
+    public void emptyCache() {
+        mCache.clear();
+        mWriteQueue.deleteNow(TABLE_NAME, null, null);
+    }
+
+    private static class CacheEntry {
+        final IQ result;
+        final long timeStamp;
+
+        CacheEntry(IQ result, long timeStamp) {
+            this.result = result;
+            this.timeStamp = timeStamp;
+        }
+    }
+}
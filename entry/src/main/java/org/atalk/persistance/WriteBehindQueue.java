@@ -0,0 +1,264 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.persistance;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.atalk.util.concurrent.ExecutorUtils;
+
+import timber.log.Timber;
+
+/**
+ * Write-behind queue for the aTalk database. Inserts and updates are queued by the caller and
+ * committed by a single background thread as a group commit, i.e. all pending operations are
+ * executed within one SQLite transaction, either every {@link #GROUP_COMMIT_DELAY} ms or when
+ * {@link #GROUP_COMMIT_SIZE} operations have been queued, whichever comes first.
+ * <p>
+ * Consecutive updates with the same table, where clause and arguments are coalesced into a single
+ * update. Readers that must see their own writes (e.g. the chat UI) must use {@link #query} or call
+ * {@link #flush()} before accessing the tables; flush() commits all the pending operations on the
+ * caller thread.
+ *
+ * @author Eng Chong Meng
+ */
+public class WriteBehindQueue {
+    /**
+     * Max delay in ms before the queued operations are committed to the database.
+     */
+    public static final long GROUP_COMMIT_DELAY = 20;
+
+    /**
+     * Number of queued operations that triggers an immediate group commit.
+     */
+    public static final int GROUP_COMMIT_SIZE = 64;
+
+    private final SQLiteDatabase mDB;
+
+    /**
+     * Pending operations in the order they were queued; guarded by this.
+     */
+    private final List<WriteOp> mPendingOps = new ArrayList<>();
+
+    /**
+     * Serializes the group commits so that a flush() returns only after all earlier queued ops are committed.
+     */
+    private final Object commitLock = new Object();
+
+    private final ScheduledExecutorService mExecutor
+            = ExecutorUtils.newScheduledThreadPool(1, true, "WriteBehindQueue");
+
+    private ScheduledFuture<?> mCommitTask = null;
+
+    public WriteBehindQueue(SQLiteDatabase db) {
+        mDB = db;
+    }
+
+    /**
+     * Queue a row insert into the given table.
+     *
+     * @param table the table to insert the row into
+     * @param values the initial column values for the row; a copy is taken
+     */
+    public void insert(String table, ContentValues values) {
+        enqueue(new WriteOp(WriteOp.INSERT, table, values, null, null));
+    }
+
+    /**
+     * Queue a row insert into the given table, replacing any row with the conflicting unique key.
+     *
+     * @param table the table to insert the row into
+     * @param values the initial column values for the row; a copy is taken
+     */
+    public void replace(String table, ContentValues values) {
+        enqueue(new WriteOp(WriteOp.REPLACE, table, values, null, null));
+    }
+
+    /**
+     * Queue an update of the rows in the given table.
+     *
+     * @param table the table to update in
+     * @param values the new column values; a copy is taken
+     * @param whereClause the optional WHERE clause to apply when updating
+     * @param whereArgs the where clause arguments
+     */
+    public void update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        enqueue(new WriteOp(WriteOp.UPDATE, table, values, whereClause, whereArgs));
+    }
+
+    /**
+     * Queue a delete of the rows in the given table.
+     *
+     * @param table the table to delete from
+     * @param whereClause the optional WHERE clause to apply when deleting
+     * @param whereArgs the where clause arguments
+     */
+    public void delete(String table, String whereClause, String[] whereArgs) {
+        enqueue(new WriteOp(WriteOp.DELETE, table, null, whereClause, whereArgs));
+    }
+
+    /**
+     * Delete the rows in the given table synchronously, after committing all the pending operations.
+     *
+     * @return the number of rows deleted
+     */
+    public int deleteNow(String table, String whereClause, String[] whereArgs) {
+        flush();
+        return mDB.delete(table, whereClause, whereArgs);
+    }
+
+    /**
+     * Query the given table after committing all the pending operations; so the caller always
+     * reads its own writes. Parameters are as per {@link SQLiteDatabase#query}.
+     */
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+            String groupBy, String having, String orderBy) {
+        flush();
+        return mDB.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+    }
+
+    /**
+     * Query the given table after committing all the pending operations; so the caller always
+     * reads its own writes. Parameters are as per {@link SQLiteDatabase#query}.
+     */
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+            String groupBy, String having, String orderBy, String limit) {
+        flush();
+        return mDB.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+    }
+
+    private void enqueue(WriteOp op) {
+        boolean commitNow;
+        synchronized (this) {
+            if (WriteOp.UPDATE.equals(op.type)) {
+                // Coalesce with an earlier pending update of the same rows, provided there is no
+                // other operation on the same table in between that may change the rows matched.
+                for (int i = mPendingOps.size() - 1; i >= 0; i--) {
+                    WriteOp pendingOp = mPendingOps.get(i);
+                    if (!pendingOp.table.equals(op.table))
+                        continue;
+
+                    if (pendingOp.isSameRows(op)) {
+                        pendingOp.values.putAll(op.values);
+                        return;
+                    }
+                    break;
+                }
+            }
+            mPendingOps.add(op);
+            commitNow = (mPendingOps.size() >= GROUP_COMMIT_SIZE);
+            if (!commitNow && (mCommitTask == null)) {
+                mCommitTask = mExecutor.schedule(this::flush, GROUP_COMMIT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (commitNow) {
+            mExecutor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Commit all the pending operations to the database in a single transaction on the caller thread.
+     * Must be called before reading back the queued data, and on service shutdown.
+     */
+    public void flush() {
+        synchronized (commitLock) {
+            List<WriteOp> ops;
+            synchronized (this) {
+                if (mCommitTask != null) {
+                    mCommitTask.cancel(false);
+                    mCommitTask = null;
+                }
+                if (mPendingOps.isEmpty())
+                    return;
+
+                ops = new ArrayList<>(mPendingOps);
+                mPendingOps.clear();
+            }
+
+            mDB.beginTransaction();
+            try {
+                for (WriteOp op : ops) {
+                    try {
+                        op.execute(mDB);
+                    } catch (SQLException | IllegalArgumentException e) {
+                        // Skip only the failed op e.g. FOREIGN KEY constraint; keep the rest of the group commit
+                        Timber.w("Write-behind %s on %s failed: %s", op.type, op.table, e.getMessage());
+                    }
+                }
+                mDB.setTransactionSuccessful();
+            } finally {
+                mDB.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Queued database write operation.
+     */
+    private static class WriteOp {
+        static final String INSERT = "insert";
+        static final String REPLACE = "replace";
+        static final String UPDATE = "update";
+        static final String DELETE = "delete";
+
+        final String type;
+        final String table;
+        final ContentValues values;
+        final String whereClause;
+        final String[] whereArgs;
+
+        WriteOp(String type, String table, ContentValues values, String whereClause, String[] whereArgs) {
+            this.type = type;
+            this.table = table;
+            this.values = (values == null) ? null : new ContentValues(values);
+            this.whereClause = whereClause;
+            this.whereArgs = whereArgs;
+        }
+
+        boolean isSameRows(WriteOp op) {
+            return UPDATE.equals(type) && Objects.equals(whereClause, op.whereClause)
+                    && Arrays.equals(whereArgs, op.whereArgs);
+        }
+
+        void execute(SQLiteDatabase db) {
+            switch (type) {
+                case INSERT:
+                    db.insert(table, null, values);
+                    break;
+                case REPLACE:
+                    db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    break;
+                case UPDATE:
+                    db.update(table, values, whereClause, whereArgs);
+                    break;
+                case DELETE:
+                    db.delete(table, whereClause, whereArgs);
+                    break;
+            }
+        }
+    }
+}
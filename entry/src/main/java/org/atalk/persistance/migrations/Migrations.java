@@ -16,6 +16,10 @@
  */
 package org.atalk.persistance.migrations;
 
+import static org.atalk.persistance.DatabaseBackend.CREATE_ROSTER_ENTRIES_STATEMENT;
+import static org.atalk.persistance.DatabaseBackend.CREATE_ROSTER_VERSION_STATEMENT;
+import static org.atalk.persistance.DatabaseBackend.CREATE_SERVICE_DISCO_STATEMENT;
+
 import android.database.sqlite.SQLiteDatabase;
 
 public class Migrations {
@@ -24,6 +28,10 @@ public class Migrations {
         switch (db.getVersion()) {
             case 1:
                 // OmemoDBCreate.createOmemoTables(db);
+                db.execSQL(CREATE_ROSTER_ENTRIES_STATEMENT);
+                db.execSQL(CREATE_ROSTER_VERSION_STATEMENT);
+            case 2:
+                db.execSQL(CREATE_SERVICE_DISCO_STATEMENT);
                 break;
         }
     }
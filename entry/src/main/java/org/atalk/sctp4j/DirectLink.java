@@ -16,11 +16,18 @@
 package org.atalk.sctp4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+
+import org.atalk.util.concurrent.ExecutorUtils;
 
 import timber.log.Timber;
 
 /**
  * A direct connection that passes packets between two <code>SctpSocket</code> instances.
+ * <p>
+ * The packets of each direction are delivered in order on a single dedicated thread, as the usrsctp
+ * stack must not be re-entered from within its own output callback.
  *
  * @author Pawel Domas
  * @author Eng Chong Meng
@@ -37,6 +44,16 @@ public class DirectLink implements NetworkLink
 	 */
 	private final SctpSocket b;
 
+	/**
+	 * The packet delivery thread towards instance "a".
+	 */
+	private final ExecutorService toA = ExecutorUtils.newFixedThreadPool(1, true, "DirectLink-a");
+
+	/**
+	 * The packet delivery thread towards instance "b".
+	 */
+	private final ExecutorService toB = ExecutorUtils.newFixedThreadPool(1, true, "DirectLink-b");
+
 	public DirectLink(SctpSocket a, SctpSocket b)
 	{
 		this.a = a;
@@ -48,15 +65,48 @@ public class DirectLink implements NetworkLink
 	 */
 	public void onConnOut(final SctpSocket s, final byte[] packet)
 			throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(packet.length);
+		buffer.put(packet);
+		buffer.flip();
+		deliver(s, buffer);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The packet is copied into a new direct buffer, as it is delivered asynchronously.
+	 */
+	@Override
+	public void onConnOut(final SctpSocket s, final ByteBuffer packet)
+			throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(packet.remaining());
+		buffer.put(packet);
+		buffer.flip();
+		deliver(s, buffer);
+	}
+
+	private void deliver(final SctpSocket s, final ByteBuffer packet)
 	{
 		final SctpSocket dest = s == this.a ? this.b : this.a;
-		new Thread(() -> {
-            try {
-                dest.onConnIn(packet, 0, packet.length);
-            }
-            catch (IOException e) {
-                Timber.e(e, "%s", e.getMessage());
-            }
-        }).start();
+		ExecutorService executor = (dest == this.a) ? toA : toB;
+		executor.execute(() -> {
+			try {
+				dest.onConnIn(packet);
+			}
+			catch (IOException e) {
+				Timber.e(e, "%s", e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Stops the packet delivery threads.
+	 */
+	public void close()
+	{
+		toA.shutdownNow();
+		toB.shutdownNow();
 	}
 }
@@ -16,12 +16,14 @@
 package org.atalk.sctp4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Interface used by {@link SctpSocket} for sending network packets.
  * <p>
- * FIXME: introduce offset and length parameters in order to be able to re-use single buffer
- * instance
+ * A link implementation may override the <code>ByteBuffer</code> variants to send the packets
+ * without the <code>byte[]</code> copy; and to send a batch of packets e.g. in a single DTLS
+ * transport write.
  *
  * @author Pawel Domas
  */
@@ -40,4 +42,46 @@ public interface NetworkLink
 	 */
 	public void onConnOut(final org.atalk.sctp4j.SctpSocket s, final byte[] packet)
 			throws IOException;
+
+	/**
+	 * Callback triggered by <code>SctpSocket</code> whenever it wants to send some network packet
+	 * held in a direct buffer. The buffer may wrap the native usrsctp memory and is valid only for
+	 * the duration of the call; an implementation that sends the packet asynchronously must copy it.
+	 *
+	 * @param s
+	 * 		source <code>SctpSocket</code> instance.
+	 * @param packet
+	 * 		network packet data, from the buffer position to its limit.
+	 * @throws java.io.IOException
+	 * 		in case of transport error.
+	 */
+	default void onConnOut(final SctpSocket s, final ByteBuffer packet)
+			throws IOException
+	{
+		byte[] bytes = new byte[packet.remaining()];
+		packet.get(bytes);
+		onConnOut(s, bytes);
+	}
+
+	/**
+	 * Callback triggered by <code>SctpSocket</code> to send the network packets generated by the
+	 * SCTP stack during a single send or receive operation. The buffers are reused by the socket
+	 * after the call returns.
+	 *
+	 * @param s
+	 * 		source <code>SctpSocket</code> instance.
+	 * @param packets
+	 * 		the network packets buffers.
+	 * @param count
+	 * 		the number of packets in the <code>packets</code> array.
+	 * @throws java.io.IOException
+	 * 		in case of transport error.
+	 */
+	default void onConnOut(final SctpSocket s, final ByteBuffer[] packets, int count)
+			throws IOException
+	{
+		for (int i = 0; i < count; i++) {
+			onConnOut(s, packets[i]);
+		}
+	}
 }
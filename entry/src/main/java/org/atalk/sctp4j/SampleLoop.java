@@ -69,6 +69,7 @@ public class SampleLoop
 
         server.close();
         client.close();
+        link.close();
         Sctp.finish();
     }
 }
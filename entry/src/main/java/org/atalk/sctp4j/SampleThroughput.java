@@ -0,0 +1,120 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.sctp4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Loopback data channel throughput benchmark: two <code>SctpSocket</code>s connected with
+ * {@link DirectLink}, as in {@link SampleLoop}. The client sends the given number of messages
+ * from a direct buffer; the server consumes them with the direct buffer data callback.
+ * Run once with "array" as the third argument to measure the <code>byte[]</code> path.
+ * <p>
+ * Arguments: [messageSize] [messageCount] [direct|array]
+ *
+ * @author Eng Chong Meng
+ */
+public class SampleThroughput
+{
+    public static void main(String[] args)
+            throws Exception
+    {
+        final int msgSize = (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+        final int msgCount = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+        final boolean direct = (args.length <= 2) || !"array".equals(args[2]);
+
+        Sctp.init();
+
+        final SctpSocket server = Sctp.createSocket(5001);
+        final SctpSocket client = Sctp.createSocket(5002);
+
+        DirectLink link = new DirectLink(server, client);
+        server.setLink(link);
+        client.setLink(link);
+
+        final AtomicLong received = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long totalBytes = (long) msgSize * msgCount;
+
+        server.setDataCallback(new SctpDataCallback()
+        {
+            @Override
+            public void onSctpPacket(byte[] data, int sid, int ssn, int tsn, long ppid,
+                    int context, int flags)
+            {
+                if (received.addAndGet(data.length) >= totalBytes)
+                    done.countDown();
+            }
+
+            @Override
+            public void onSctpPacket(ByteBuffer data, int sid, int ssn, int tsn, long ppid,
+                    int context, int flags)
+            {
+                if (!direct) {
+                    SctpDataCallback.super.onSctpPacket(data, sid, ssn, tsn, ppid, context, flags);
+                }
+                else if (received.addAndGet(data.remaining()) >= totalBytes) {
+                    done.countDown();
+                }
+            }
+        });
+
+        // Make server passive
+        server.listen();
+        client.connect(server.getPort());
+        while (!server.accept()) {
+            Thread.sleep(10);
+        }
+        Timber.i("Throughput test: %d x %d bytes (%s)", msgCount, msgSize, direct ? "direct" : "array");
+
+        ByteBuffer directData = ByteBuffer.allocateDirect(msgSize);
+        byte[] arrayData = new byte[msgSize];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < msgCount; i++) {
+            int sent;
+            do {
+                if (direct) {
+                    directData.clear();
+                    sent = client.send(directData, true, 0, 0);
+                }
+                else {
+                    sent = client.send(arrayData, true, 0, 0);
+                }
+                // usrsctp socket is non-blocking; back off while its send buffer is full
+                if (sent < 0)
+                    Thread.sleep(1);
+            } while (sent < 0);
+        }
+
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            Timber.w("Throughput test timeout; received %d of %d bytes", received.get(), totalBytes);
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        Timber.i("Throughput: %d bytes in %.3f s = %.2f MB/s; %.0f msg/s", received.get(), seconds,
+                received.get() / seconds / (1024 * 1024), msgCount / seconds);
+
+        server.close();
+        client.close();
+        link.close();
+        Sctp.finish();
+    }
+}
@@ -16,6 +16,7 @@
 package org.atalk.sctp4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -187,11 +188,37 @@ public class Sctp
         on_network_in(socketPtr, packet, offset, len);
     }
 
+    /**
+     * Passes network packet held in a direct buffer to native SCTP stack counterpart.
+     *
+     * @param ptr native socket pointer.
+     * @param pkt direct buffer holding network packet data.
+     * @param off the position in the buffer where packet data starts.
+     * @param len packet data length.
+     */
+    private static native void on_network_in_direct(
+            long ptr, ByteBuffer pkt, int off, int len);
+
+    /**
+     * Used by {@link SctpSocket} to pass received network packet held in a direct buffer to native
+     * counterpart, without copying the packet across JNI.
+     *
+     * @param socketPtr native socket pointer.
+     * @param packet direct buffer holding network packet data.
+     * @param offset position in the buffer where packet data starts.
+     * @param len length of packet data in the buffer.
+     */
+    static void onConnIn(long socketPtr, ByteBuffer packet, int offset, int len)
+    {
+        on_network_in_direct(socketPtr, packet, offset, len);
+    }
+
     /**
      * Method fired by native counterpart to notify about incoming data.
+     * The direct buffer wraps the native memory and is valid only for the duration of the call.
      *
      * @param socketAddr native socket pointer
-     * @param data buffer holding received data
+     * @param data direct buffer holding received data
      * @param sid stream id
      * @param ssn
      * @param tsn
@@ -200,7 +227,7 @@ public class Sctp
      * @param flags
      */
     public static void onSctpInboundPacket(
-            long socketAddr, byte[] data, int sid, int ssn, int tsn, long ppid,
+            long socketAddr, ByteBuffer data, int sid, int ssn, int tsn, long ppid,
             int context, int flags)
     {
         SctpSocket socket = sockets.get(socketAddr);
@@ -215,15 +242,16 @@ public class Sctp
 
     /**
      * Method fired by native counterpart when SCTP stack wants to send network packet.
+     * The direct buffer wraps the native memory and is valid only for the duration of the call.
      *
      * @param socketAddr native socket pointer
-     * @param data buffer holding packet data
+     * @param data direct buffer holding packet data
      * @param tos type of service???
      * @param set_df use IP don't fragment option
      * @return 0 if the packet has been successfully sent or -1 otherwise.
      */
     public static int onSctpOutboundPacket(
-            long socketAddr, byte[] data, int tos, int set_df)
+            long socketAddr, ByteBuffer data, int tos, int set_df)
     {
         // FIXME handle tos and set_df
 
@@ -302,6 +330,22 @@ public class Sctp
     static native int usrsctp_send(
             long ptr, byte[] data, int off, int len, boolean ordered, int sid, int ppid);
 
+    /**
+     * Sends given <code>data</code> held in a direct buffer on selected SCTP stream using given
+     * payload protocol identifier, without copying the data across JNI.
+     *
+     * @param ptr native socket pointer.
+     * @param data direct buffer holding the data to send.
+     * @param off the position of the data inside the buffer
+     * @param len data length.
+     * @param ordered should we care about message order ?
+     * @param sid SCTP stream identifier
+     * @param ppid payload protocol identifier
+     * @return sent bytes count or <code>-1</code> in case of an error.
+     */
+    static native int usrsctp_send_direct(
+            long ptr, ByteBuffer data, int off, int len, boolean ordered, int sid, int ppid);
+
     /**
      * Creates native SCTP socket and returns pointer to it.
      *
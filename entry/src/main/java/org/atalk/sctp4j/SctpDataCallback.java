@@ -15,6 +15,8 @@
  */
 package org.atalk.sctp4j;
 
+import java.nio.ByteBuffer;
+
 /**
  * Callback used to listen for incoming data on SCTP socket.
  *
@@ -38,4 +40,29 @@ public interface SctpDataCallback
 	 */
 	void onSctpPacket(byte[] data, int sid, int ssn, int tsn, long ppid,
 			int context, int flags);
+
+	/**
+	 * Callback fired by <code>SctpSocket</code> to notify about incoming data held in a direct
+	 * buffer that wraps the native usrsctp memory. The buffer is valid only for the duration of the
+	 * call; an implementation that needs to keep the data must copy it. Override this method to
+	 * consume the data without the <code>byte[]</code> copy made by the default implementation.
+	 *
+	 * @param data
+	 * 		direct buffer holding received data, from its position to its limit.
+	 * @param sid
+	 * 		SCTP stream identifier.
+	 * @param ssn
+	 * @param tsn
+	 * @param ppid
+	 * 		payload protocol identifier.
+	 * @param context
+	 * @param flags
+	 */
+	default void onSctpPacket(ByteBuffer data, int sid, int ssn, int tsn, long ppid,
+			int context, int flags)
+	{
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		onSctpPacket(bytes, sid, ssn, tsn, ppid, context, flags);
+	}
 }
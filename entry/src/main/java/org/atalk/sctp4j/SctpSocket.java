@@ -16,6 +16,8 @@
 package org.atalk.sctp4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import timber.log.Timber;
 
@@ -29,6 +31,17 @@ import timber.log.Timber;
  */
 public class SctpSocket
 {
+    /**
+     * The initial capacity of the buffers holding the batched outbound network packets; usrsctp
+     * packets are bounded by the path MTU.
+     */
+    private static final int PACKET_BUFFER_SIZE = 2048;
+
+    /**
+     * The max number of outbound network packets batched before they are sent to the link.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
     /**
      * Reads 32 bit unsigned int from the buffer at specified offset
      *
@@ -213,6 +226,14 @@ public class SctpSocket
         }
     };
 
+    /**
+     * The outbound network packets batch of the thread currently executing a send or receive
+     * operation on this socket. The packets generated by usrsctp on that thread are collected
+     * and sent to the link in a single call when the operation completes; the packets generated
+     * on the usrsctp timer thread e.g. retransmissions are sent immediately.
+     */
+    private final ThreadLocal<PacketBatch> outboundBatch = new ThreadLocal<>();
+
     /**
      * Pointer to native socket counterpart.
      */
@@ -425,12 +446,54 @@ public class SctpSocket
                     "o: " + offset + " l: " + len + " packet l: " + packet.length);
         }
 
-        long ptr = lockPtr();
+        PacketBatch batch = beginBatch();
+        try {
+            long ptr = lockPtr();
+
+            try {
+                Sctp.onConnIn(ptr, packet, offset, len);
+            } finally {
+                unlockPtr();
+            }
+        } finally {
+            endBatch(batch);
+        }
+    }
+
+    /**
+     * Call this method to pass network packets received on the link. A direct buffer is passed to
+     * the SCTP stack without copying.
+     *
+     * @param packet network packet received, from the buffer position to its limit; the buffer
+     * position is advanced to its limit.
+     */
+    public void onConnIn(ByteBuffer packet)
+            throws IOException
+    {
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        if (!packet.hasRemaining()) {
+            throw new IllegalArgumentException("packet l: 0");
+        }
+        if (!packet.isDirect()) {
+            onConnIn(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+            packet.position(packet.limit());
+            return;
+        }
 
+        PacketBatch batch = beginBatch();
         try {
-            Sctp.onConnIn(ptr, packet, offset, len);
+            long ptr = lockPtr();
+
+            try {
+                Sctp.onConnIn(ptr, packet, packet.position(), packet.remaining());
+                packet.position(packet.limit());
+            } finally {
+                unlockPtr();
+            }
         } finally {
-            unlockPtr();
+            endBatch(batch);
         }
     }
 
@@ -449,7 +512,7 @@ public class SctpSocket
     /**
      * Method fired by SCTP stack to notify about incoming data.
      *
-     * @param data buffer holding received data
+     * @param data direct buffer holding received data; valid only for the duration of the call
      * @param sid stream id
      * @param ssn
      * @param tsn
@@ -458,7 +521,7 @@ public class SctpSocket
      * @param flags
      */
     private void onSctpIn(
-            byte[] data, int sid, int ssn, int tsn, long ppid, int context,
+            ByteBuffer data, int sid, int ssn, int tsn, long ppid, int context,
             int flags)
     {
         if (dataCallback != null) {
@@ -473,7 +536,7 @@ public class SctpSocket
     /**
      * Notifies this <code>SctpSocket</code> about incoming data.
      *
-     * @param data buffer holding received data
+     * @param data direct buffer holding received data; valid only for the duration of the call
      * @param sid stream id
      * @param ssn
      * @param tsn
@@ -481,11 +544,13 @@ public class SctpSocket
      * @param context
      * @param flags
      */
-    void onSctpInboundPacket(byte[] data, int sid, int ssn, int tsn, long ppid,
+    void onSctpInboundPacket(ByteBuffer data, int sid, int ssn, int tsn, long ppid,
             int context, int flags)
     {
         if ((flags & Sctp.MSG_NOTIFICATION) != 0) {
-            onNotification(SctpNotification.parse(data));
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            onNotification(SctpNotification.parse(bytes));
         }
         else {
             onSctpIn(data, sid, ssn, tsn, ppid, context, flags);
@@ -494,19 +559,29 @@ public class SctpSocket
 
     /**
      * Callback triggered by Sctp stack whenever it wants to send some network
-     * packet.
+     * packet. The packet is added to the outbound batch if the current thread is
+     * executing a send or receive operation on this socket; else it is sent
+     * immediately.
      *
-     * @param packet network packet buffer.
+     * @param packet direct buffer holding the network packet; valid only for the duration of the call
      * @param tos type of service???
      * @param set_df use IP don't fragment option
      * @return 0 if the packet was successfully sent or -1 otherwise.
      */
-    int onSctpOut(byte[] packet, int tos, int set_df)
+    int onSctpOut(ByteBuffer packet, int tos, int set_df)
     {
         NetworkLink link = this.link;
         int ret = -1;
 
         if (link != null) {
+            PacketBatch batch = outboundBatch.get();
+            if ((batch != null) && (batch.depth > 0)) {
+                batch.add(packet);
+                if (batch.count >= MAX_BATCH_SIZE)
+                    flushBatch(batch);
+                return 0;
+            }
+
             try {
                 link.onConnOut(this, packet);
                 ret = 0;
@@ -517,6 +592,57 @@ public class SctpSocket
         return ret;
     }
 
+    /**
+     * Starts collecting the outbound network packets generated on the current thread.
+     * Each <code>beginBatch</code> invocation must be balanced with an <code>endBatch</code>
+     * invocation; nested invocations e.g. a send from within the data callback join the
+     * outer batch.
+     *
+     * @return the outbound packets batch of the current thread.
+     */
+    private PacketBatch beginBatch()
+    {
+        PacketBatch batch = outboundBatch.get();
+        if (batch == null) {
+            batch = new PacketBatch();
+            outboundBatch.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * Ends the outbound packets collection; sends the batched packets to the link when the
+     * outermost operation completes.
+     *
+     * @param batch the batch returned by {@link #beginBatch()}
+     */
+    private void endBatch(PacketBatch batch)
+    {
+        if (--batch.depth == 0 && batch.count > 0)
+            flushBatch(batch);
+    }
+
+    /**
+     * Sends the batched outbound network packets to the link.
+     *
+     * @param batch the outbound packets batch.
+     */
+    private void flushBatch(PacketBatch batch)
+    {
+        NetworkLink link = this.link;
+        int count = batch.count;
+
+        batch.count = 0;
+        if (link != null) {
+            try {
+                link.onConnOut(this, batch.packets, count);
+            } catch (IOException e) {
+                Timber.e(e, "Error while sending %d packets trough the link: %s,", count, link);
+            }
+        }
+    }
+
     /**
      * Sends given <code>data</code> on selected SCTP stream using given payload
      * protocol identifier.
@@ -559,17 +685,71 @@ public class SctpSocket
                     "o: " + offset + " l: " + len + " data l: " + data.length);
         }
 
-        long ptr = lockPtr();
+        PacketBatch batch = beginBatch();
         int r;
 
         try {
-            r = Sctp.usrsctp_send(ptr, data, offset, len, ordered, sid, ppid);
+            long ptr = lockPtr();
+
+            try {
+                r = Sctp.usrsctp_send(ptr, data, offset, len, ordered, sid, ppid);
+            } finally {
+                unlockPtr();
+            }
         } finally {
-            unlockPtr();
+            endBatch(batch);
         }
         return r;
     }
 
+    /**
+     * Sends given <code>data</code> on selected SCTP stream using given payload
+     * protocol identifier. A direct buffer is passed to the SCTP stack without copying.
+     *
+     * @param data the data to send, from the buffer position to its limit; the buffer
+     * position is advanced by the number of bytes sent.
+     * @param ordered should we care about message order ?
+     * @param sid SCTP stream identifier
+     * @param ppid payload protocol identifier
+     * @return sent bytes count or <code>-1</code> in case of an error.
+     */
+    public int send(ByteBuffer data, boolean ordered, int sid, int ppid)
+            throws IOException
+    {
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        if (!data.hasRemaining()) {
+            throw new IllegalArgumentException("data l: 0");
+        }
+        if (!data.isDirect()) {
+            int r = send(data.array(), data.arrayOffset() + data.position(), data.remaining(),
+                    ordered, sid, ppid);
+            if (r > 0)
+                data.position(data.position() + r);
+            return r;
+        }
+
+        PacketBatch batch = beginBatch();
+        int r;
+
+        try {
+            long ptr = lockPtr();
+
+            try {
+                r = Sctp.usrsctp_send_direct(ptr, data, data.position(), data.remaining(),
+                        ordered, sid, ppid);
+            } finally {
+                unlockPtr();
+            }
+        } finally {
+            endBatch(batch);
+        }
+        if (r > 0)
+            data.position(data.position() + r);
+        return r;
+    }
+
     /**
      * Sets the callback that will be fired when new data is received.
      *
@@ -653,4 +833,44 @@ public class SctpSocket
                 SctpSocket socket,
                 SctpNotification notification);
     }
+
+    /**
+     * The outbound network packets collected during a send or receive operation. The packet
+     * buffers are direct and are reused for the subsequent batches of the same thread.
+     */
+    private static class PacketBatch
+    {
+        /**
+         * The nesting depth of the send/receive operations on the owner thread.
+         */
+        int depth = 0;
+
+        /**
+         * The number of packets in the batch.
+         */
+        int count = 0;
+
+        ByteBuffer[] packets = new ByteBuffer[8];
+
+        /**
+         * Copies the packet into the batch; the source buffer is valid only during the usrsctp callback.
+         *
+         * @param packet the network packet.
+         */
+        void add(ByteBuffer packet)
+        {
+            if (count == packets.length)
+                packets = Arrays.copyOf(packets, count * 2);
+
+            ByteBuffer buffer = packets[count];
+            if (buffer == null || buffer.capacity() < packet.remaining()) {
+                buffer = ByteBuffer.allocateDirect(Math.max(PACKET_BUFFER_SIZE, packet.remaining()));
+                packets[count] = buffer;
+            }
+            buffer.clear();
+            buffer.put(packet);
+            buffer.flip();
+            count++;
+        }
+    }
 }
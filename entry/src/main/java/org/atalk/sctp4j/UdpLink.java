@@ -16,16 +16,19 @@
 package org.atalk.sctp4j;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 
 import timber.log.Timber;
 
 /**
  * Class used in code samples to send SCTP packets through UDP sockets.
  * <p>
- * FIXME: fix receiving loop
+ * The UDP socket is read with a NIO <code>DatagramChannel</code> into a reused direct buffer, which is
+ * passed to the SCTP stack without copying.
  *
  * @author Pawel Domas
  * @author Eng Chong Meng
@@ -33,24 +36,19 @@ import timber.log.Timber;
 public class UdpLink implements NetworkLink
 {
     /**
-     * <code>SctpSocket</code> instance that is used in this connection.
-     */
-    private final SctpSocket sctpSocket;
-
-    /**
-     * Udp socket used for transport.
+     * The max size of the received UDP datagram.
      */
-    private final DatagramSocket udpSocket;
+    private static final int MAX_DATAGRAM_SIZE = 2048;
 
     /**
-     * Destination UDP port.
+     * <code>SctpSocket</code> instance that is used in this connection.
      */
-    private final int remotePort;
+    private final SctpSocket sctpSocket;
 
     /**
-     * Destination <code>InetAddress</code>.
+     * Udp channel used for transport; connected to the remote address.
      */
-    private final InetAddress remoteIp;
+    private final DatagramChannel udpChannel;
 
     /**
      * Creates new instance of <code>UdpConnection</code>.
@@ -69,25 +67,41 @@ public class UdpLink implements NetworkLink
             throws IOException
     {
         this.sctpSocket = sctpSocket;
-        this.udpSocket = new DatagramSocket(localPort, InetAddress.getByName(localIp));
-
-        this.remotePort = remotePort;
-        this.remoteIp = InetAddress.getByName(remoteIp);
+        this.udpChannel = DatagramChannel.open();
+        udpChannel.bind(new InetSocketAddress(InetAddress.getByName(localIp), localPort));
+        udpChannel.connect(new InetSocketAddress(InetAddress.getByName(remoteIp), remotePort));
 
         // Listening thread
-        new Thread(() -> {
+        Thread receiver = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
             try {
-                byte[] buff = new byte[2048];
-                DatagramPacket p = new DatagramPacket(buff, 2048);
-                while (true) {
-                    udpSocket.receive(p);
-                    UdpLink.this.sctpSocket.onConnIn(p.getData(), p.getOffset(), p.getLength());
+                while (udpChannel.isOpen()) {
+                    buffer.clear();
+                    udpChannel.receive(buffer);
+                    buffer.flip();
+                    if (buffer.hasRemaining())
+                        UdpLink.this.sctpSocket.onConnIn(buffer);
                 }
+            } catch (ClosedChannelException e) {
+                Timber.d("UdpLink closed");
             } catch (IOException e) {
                 Timber.e(e);
             }
+        }, "UdpLink-" + localPort);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Closes the UDP channel; the listening thread exits.
+     */
+    public void close()
+    {
+        try {
+            udpChannel.close();
+        } catch (IOException e) {
+            Timber.w("Failed to close UdpLink: %s", e.getMessage());
         }
-        ).start();
     }
 
     /**
@@ -97,8 +111,16 @@ public class UdpLink implements NetworkLink
     public void onConnOut(final SctpSocket s, final byte[] packetData)
             throws IOException
     {
-        DatagramPacket packet = new DatagramPacket(packetData,
-                packetData.length, remoteIp, remotePort);
-        udpSocket.send(packet);
+        udpChannel.write(ByteBuffer.wrap(packetData));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnOut(final SctpSocket s, final ByteBuffer packet)
+            throws IOException
+    {
+        udpChannel.write(packet);
     }
 }
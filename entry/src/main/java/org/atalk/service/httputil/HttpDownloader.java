@@ -0,0 +1,606 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.service.httputil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.atalk.util.concurrent.ExecutorUtils;
+
+import timber.log.Timber;
+
+/**
+ * HTTP file downloader supporting the HTTP Range requests:
+ * <ul>
+ * <li>A download interrupted by e.g. a network change is resumed from where it stopped, with the
+ * If-Range validator guarding against the file being changed on the server.</li>
+ * <li>A large file is fetched in parallel segments, when the server accepts range requests.</li>
+ * <li>The segments progress of a plain download is saved alongside the target file; so a download
+ * started again later resumes instead of starting over.</li>
+ * <li>An encrypted file is fetched in a single stream, and decrypted as the data arrive straight into
+ * the target file; without any temporary copy.</li>
+ * </ul>
+ *
+ * @author Eng Chong Meng
+ */
+public class HttpDownloader {
+    /**
+     * Callback for the download progress and result; called on the download thread.
+     */
+    public interface DownloadListener {
+        /**
+         * Notifies the number of bytes downloaded so far.
+         *
+         * @param bytes the number of bytes downloaded
+         */
+        void onProgress(long bytes);
+
+        /**
+         * Notifies the download has completed, and the content is saved in the target file.
+         *
+         * @param target the downloaded file
+         */
+        void onCompleted(File target);
+
+        /**
+         * Notifies the download has failed after all the retries.
+         *
+         * @param reason the failure reason
+         */
+        void onFailed(String reason);
+    }
+
+    /**
+     * The min file size for a download to be fetched in parallel segments.
+     */
+    private static final long MIN_SEGMENT_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * The max number of parallel segments of a download.
+     */
+    private static final int MAX_SEGMENTS = 4;
+
+    /**
+     * The max number of consecutive resume attempts of a segment, and the retry delay per attempt in ms.
+     */
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_DELAY = 2000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The min interval in ms between the progress callbacks, and between the saving of the download state.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+    private static final long STATE_SAVE_INTERVAL = 1000;
+
+    /**
+     * The file suffix of the saved download state.
+     */
+    private static final String STATE_SUFFIX = ".dnstate";
+
+    private static final ExecutorService downloadExecutor
+            = ExecutorUtils.newCachedThreadPool(true, "HttpDownloader");
+
+    private final String mUrl;
+    private final OkHttpClient mHttpClient;
+
+    /* The on-going http calls; for cancel */
+    private final Set<Call> mCalls = ConcurrentHashMap.newKeySet();
+
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+
+    private File mTarget;
+    private File mStateFile;
+    private Cipher mCipher;
+    private DownloadListener mListener;
+
+    /* The target file writers; a FileChannel for a plain download, and an OutputStream for decryption */
+    private FileChannel mFileChannel;
+    private OutputStream mDecryptStream;
+
+    private long mFileSize = -1;
+    private boolean mRangeSupported = false;
+    private String mValidator;
+    private boolean mProbed = false;
+
+    private long mLastProgress = 0;
+    private long mLastStateSave = 0;
+    private volatile boolean mCancelled = false;
+
+    /* set when a parallel segment has failed, to stop the other segments */
+    private volatile boolean mAborted = false;
+
+    /**
+     * Creates a downloader for the given url.
+     *
+     * @param url the https download url
+     */
+    public HttpDownloader(String url) {
+        mUrl = url;
+        OkHttpClient.Builder builder = OkHttpUtils.OK_HTTP_CLIENT.newBuilder()
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .retryOnConnectionFailure(true);
+        OkHttpUtils.setupTrustManager(builder, url);
+        mHttpClient = builder.build();
+    }
+
+    /**
+     * Queries the server for the file size, range support and validator; blocks until done.
+     *
+     * @return the file size, or -1 if unknown
+     */
+    public synchronized long probe() {
+        if (mProbed)
+            return mFileSize;
+
+        Request request = new Request.Builder().url(mUrl).head().build();
+        try (Response response = mHttpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String length = response.header("Content-Length");
+                mFileSize = (length == null) ? -1 : Long.parseLong(length);
+                mRangeSupported = "bytes".equalsIgnoreCase(response.header("Accept-Ranges"));
+                mValidator = response.header("ETag");
+                if (mValidator == null || mValidator.startsWith("W/")) {
+                    // A weak ETag is not allowed in If-Range
+                    mValidator = response.header("Last-Modified");
+                }
+                mProbed = true;
+            } else {
+                Timber.w("Http download probe failed: %s (%s)", response.code(), mUrl);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Timber.w("Http download probe exception: %s", e.getMessage());
+        }
+        return mFileSize;
+    }
+
+    /**
+     * Starts the download in the background.
+     *
+     * @param target the file to save the content to
+     * @param cipher the cipher to decrypt the content with; null for a plain download
+     * @param listener the download progress and result callback
+     */
+    public void start(File target, Cipher cipher, DownloadListener listener) {
+        mTarget = target;
+        mStateFile = new File(target.getPath() + STATE_SUFFIX);
+        mCipher = cipher;
+        mListener = listener;
+        mCancelled = false;
+        mAborted = false;
+        downloadExecutor.execute(this::download);
+    }
+
+    /**
+     * Cancels the download, and deletes the partially downloaded file.
+     */
+    public void cancel() {
+        mCancelled = true;
+        for (Call call : mCalls) {
+            call.cancel();
+        }
+        if (mTarget != null) {
+            deleteFiles();
+        }
+    }
+
+    /**
+     * Returns the file size; -1 if unknown.
+     *
+     * @return the file size
+     */
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    private void download() {
+        String failure = null;
+        try {
+            probe();
+            planSegments();
+            openTarget();
+
+            if (mSegments.size() == 1) {
+                downloadSegment(mSegments.get(0));
+            } else {
+                downloadSegments();
+            }
+
+            if (!mCancelled) {
+                if (mFileSize > 0 && mBytesDownloaded.get() != mFileSize)
+                    throw new IOException("Incomplete download: " + mBytesDownloaded.get() + "/" + mFileSize);
+
+                if (mCipher != null) {
+                    mDecryptStream.write(mCipher.doFinal());
+                }
+            }
+        } catch (IOException e) {
+            failure = e.getMessage();
+        } catch (GeneralSecurityException e) {
+            failure = "Failed to decrypt file: " + e.getMessage();
+        } finally {
+            closeTarget();
+        }
+
+        if (mCancelled) {
+            deleteFiles();
+        } else if (failure != null) {
+            Timber.w("Http download failed: %s (%s)", failure, mUrl);
+            if (mCipher == null) {
+                saveState();
+            } else {
+                // Never keep an unauthenticated partially decrypted file
+                deleteFiles();
+            }
+            mListener.onFailed(failure);
+        } else {
+            if (!mStateFile.delete() && mStateFile.exists()) {
+                Timber.w("Failed to delete download state: %s", mStateFile);
+            }
+            mListener.onProgress(mBytesDownloaded.get());
+            mListener.onCompleted(mTarget);
+        }
+    }
+
+    /**
+     * Splits the download into segments; or restores the segments progress of a previous download.
+     */
+    private void planSegments() {
+        mSegments.clear();
+        mBytesDownloaded.set(0);
+        if (mCipher == null && restoreState())
+            return;
+
+        int count = 1;
+        if (mCipher == null && mRangeSupported && mFileSize >= MIN_SEGMENT_SIZE) {
+            count = (int) Math.min(MAX_SEGMENTS, mFileSize / (MIN_SEGMENT_SIZE / 2));
+        }
+
+        if (count == 1) {
+            mSegments.add(new Segment(0, (mFileSize > 0) ? mFileSize - 1 : -1, 0));
+        } else {
+            long size = mFileSize / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = (i == count - 1) ? mFileSize - 1 : start + size - 1;
+                mSegments.add(new Segment(start, end, 0));
+            }
+        }
+    }
+
+    private void openTarget() throws IOException {
+        if (mCipher != null) {
+            mDecryptStream = new FileOutputStream(mTarget);
+        } else {
+            RandomAccessFile file = new RandomAccessFile(mTarget, "rw");
+            if (mBytesDownloaded.get() == 0) {
+                file.setLength(0);
+            }
+            mFileChannel = file.getChannel();
+        }
+    }
+
+    private void closeTarget() {
+        try {
+            if (mFileChannel != null)
+                mFileChannel.close();
+            if (mDecryptStream != null)
+                mDecryptStream.close();
+        } catch (IOException e) {
+            Timber.w("Http download close file exception: %s", e.getMessage());
+        }
+        mFileChannel = null;
+        mDecryptStream = null;
+    }
+
+    private void deleteFiles() {
+        if (mTarget.exists() && !mTarget.delete())
+            Timber.w("Failed to delete partial download: %s", mTarget);
+        if (mStateFile.exists() && !mStateFile.delete())
+            Timber.w("Failed to delete download state: %s", mStateFile);
+    }
+
+    /**
+     * Downloads all the segments in parallel; waits for all to end.
+     *
+     * @throws IOException if any of the segments has failed
+     */
+    private void downloadSegments() throws IOException {
+        final CountDownLatch latch = new CountDownLatch(mSegments.size());
+        final List<IOException> failures = new ArrayList<>();
+        for (final Segment segment : mSegments) {
+            downloadExecutor.execute(() -> {
+                try {
+                    downloadSegment(segment);
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                    // No point to continue with the other segments
+                    mAborted = true;
+                    for (Call call : mCalls) {
+                        call.cancel();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted");
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        if (mAborted) {
+            throw new IOException("Download aborted");
+        }
+    }
+
+    /**
+     * Downloads the segment; resuming from where it stopped on an interrupted connection.
+     *
+     * @param segment the segment to download
+     *
+     * @throws IOException if the download failed after all the retries
+     */
+    private void downloadSegment(Segment segment) throws IOException {
+        int retries = 0;
+        while (!mCancelled && !mAborted && !segment.isCompleted()) {
+            long done = segment.done.get();
+            try {
+                fetchSegment(segment);
+            } catch (IOException e) {
+                if (mCancelled)
+                    return;
+                if (mAborted)
+                    throw e;
+
+                // Reset the retry count as long as progress is being made
+                if (segment.done.get() > done)
+                    retries = 0;
+                if (++retries > MAX_RETRIES)
+                    throw e;
+
+                Timber.d("Http download resume after %s: %s", e.getMessage(), segment);
+                try {
+                    Thread.sleep(retries * RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void fetchSegment(Segment segment) throws IOException {
+        long offset = segment.start + segment.done.get();
+        boolean ranged = (offset > 0) || (mSegments.size() > 1);
+
+        Request.Builder builder = new Request.Builder().url(mUrl);
+        if (ranged) {
+            builder.header("Range", "bytes=" + offset + "-" + ((segment.end >= 0) ? segment.end : ""));
+            if (mValidator != null) {
+                builder.header("If-Range", mValidator);
+            }
+        }
+
+        Call call = mHttpClient.newCall(builder.build());
+        mCalls.add(call);
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP error " + response.code());
+            }
+            if (ranged && response.code() != 206) {
+                // Range not honoured, or the file has changed on the server: a single plain stream can restart
+                if (mSegments.size() == 1 && mCipher == null && response.code() == 200) {
+                    mBytesDownloaded.addAndGet(-segment.done.getAndSet(0));
+                    offset = 0;
+                    mFileChannel.truncate(0);
+                } else {
+                    throw new IOException("HTTP range request not supported: " + response.code());
+                }
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("No response body");
+            }
+            writeSegment(segment, body.byteStream(), offset);
+        } finally {
+            mCalls.remove(call);
+        }
+    }
+
+    private void writeSegment(Segment segment, InputStream in, long position) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+        while (!mCancelled && !mAborted) {
+            int length = buffer.length;
+            if (segment.end >= 0) {
+                length = (int) Math.min(length, segment.end + 1 - position);
+                if (length <= 0)
+                    break;
+            }
+            int count = in.read(buffer, 0, length);
+            if (count < 0) {
+                if (segment.end >= 0)
+                    throw new IOException("Connection closed at " + position);
+                segment.eos = true;
+                break;
+            }
+
+            if (mCipher != null) {
+                byte[] plain = mCipher.update(buffer, 0, count);
+                if (plain != null) {
+                    mDecryptStream.write(plain);
+                }
+            } else {
+                byteBuffer.clear().limit(count);
+                long writePosition = position;
+                while (byteBuffer.hasRemaining()) {
+                    writePosition += mFileChannel.write(byteBuffer, writePosition);
+                }
+            }
+            position += count;
+            segment.done.addAndGet(count);
+            onBytesDownloaded(count);
+        }
+    }
+
+    private void onBytesDownloaded(int count) {
+        long bytes = mBytesDownloaded.addAndGet(count);
+        long now = System.currentTimeMillis();
+        boolean notify = false;
+        boolean save = false;
+        synchronized (this) {
+            if (now - mLastProgress >= PROGRESS_INTERVAL) {
+                mLastProgress = now;
+                notify = true;
+            }
+            if (mCipher == null && now - mLastStateSave >= STATE_SAVE_INTERVAL) {
+                mLastStateSave = now;
+                save = true;
+            }
+        }
+        if (notify)
+            mListener.onProgress(bytes);
+        if (save)
+            saveState();
+    }
+
+    /**
+     * Saves the segments progress of a plain download; for resume on a later download start.
+     */
+    private synchronized void saveState() {
+        if (!mRangeSupported || mValidator == null || mFileSize <= 0)
+            return;
+
+        Properties state = new Properties();
+        state.setProperty("url", mUrl);
+        state.setProperty("validator", mValidator);
+        state.setProperty("size", Long.toString(mFileSize));
+        state.setProperty("segments", Integer.toString(mSegments.size()));
+        for (int i = 0; i < mSegments.size(); i++) {
+            Segment segment = mSegments.get(i);
+            state.setProperty("segment." + i, segment.start + "," + segment.end + "," + segment.done.get());
+        }
+        try (OutputStream out = new FileOutputStream(mStateFile)) {
+            state.store(out, null);
+        } catch (IOException e) {
+            Timber.w("Failed to save download state: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the segments progress of a previous download of the same unchanged file.
+     *
+     * @return true if the segments are restored
+     */
+    private boolean restoreState() {
+        if (!mStateFile.exists() || !mTarget.exists() || !mRangeSupported || mValidator == null)
+            return false;
+
+        Properties state = new Properties();
+        try (InputStream in = new FileInputStream(mStateFile)) {
+            state.load(in);
+            if (!mUrl.equals(state.getProperty("url"))
+                    || !mValidator.equals(state.getProperty("validator"))
+                    || mFileSize != Long.parseLong(state.getProperty("size")))
+                return false;
+
+            int count = Integer.parseInt(state.getProperty("segments"));
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                String[] values = state.getProperty("segment." + i).split(",");
+                Segment segment = new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2]));
+                mSegments.add(segment);
+                bytes += segment.done.get();
+            }
+            mBytesDownloaded.set(bytes);
+            Timber.d("Http download resumed at %s/%s: %s", bytes, mFileSize, mUrl);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Timber.w("Invalid download state: %s", e.getMessage());
+            mSegments.clear();
+            return false;
+        }
+    }
+
+    /**
+     * A byte range of the download, and its progress.
+     */
+    private static class Segment {
+        final long start;
+        /* the inclusive end of the segment; -1 if the file size is unknown */
+        final long end;
+        final AtomicLong done;
+        /* end of stream reached for a segment of unknown size */
+        volatile boolean eos = false;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = new AtomicLong(done);
+        }
+
+        boolean isCompleted() {
+            return (end >= 0) ? (start + done.get() > end) : eos;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes=" + start + "-" + end + " done: " + done.get();
+        }
+    }
+}
@@ -7,8 +7,11 @@ package org.atalk.util.concurrent;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -34,6 +37,27 @@ public class ExecutorUtils {
         return Executors.newCachedThreadPool(newThreadFactory(daemon, baseName));
     }
 
+    /**
+     * Creates a thread pool with a bounded number of threads operating off an unbounded queue.
+     * The idle threads are terminated after a minute; so a pool used only occasionally e.g. on
+     * startup does not keep its threads alive. Optionally, the new threads are created as daemon
+     * threads and their names are based on a specific (prefix) string.
+     *
+     * @param nThreads the max number of threads in the pool
+     * @param daemon <code>true</code> to create the new threads as daemon threads
+     * or <code>false</code> to create the new threads as user threads
+     * @param baseName the base/prefix to use for the names of the new threads
+     * or <code>null</code> to leave them with their default names
+     *
+     * @return the newly created thread pool
+     */
+    public static ExecutorService newFixedThreadPool(int nThreads, boolean daemon, String baseName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), newThreadFactory(daemon, baseName));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * A thread factory creating threads, which are created as daemon threads(optionally)
      * and their names are based on a specific (prefix) string.
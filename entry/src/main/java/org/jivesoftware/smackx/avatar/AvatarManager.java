@@ -19,13 +19,18 @@ package org.jivesoftware.smackx.avatar;
 import java.io.File;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.XMPPConnection;
@@ -63,10 +68,20 @@ public class AvatarManager extends Manager {
      */
     private final Set<AvatarChangeListener> mListeners = new CopyOnWriteArraySet<>();
 
+    /**
+     * Max total byte size of the avatars kept in memory.
+     */
+    private static final int AVATAR_CACHE_SIZE = 4 * 1024 * 1024;
+
     /**
      * Map of avatarHash" to Avatar byte data
      */
-    private static final AvatarCacheMemory cacheAvatar = new AvatarCacheMemory(1000, -1);
+    private static final AvatarCacheMemory cacheAvatar = new AvatarCacheMemory(AVATAR_CACHE_SIZE);
+
+    /**
+     * Single background thread to load the avatars from the persistent storage into cacheAvatar.
+     */
+    private static final ExecutorService diskLoader = ExecutorUtils.newScheduledThreadPool(1, true, "AvatarDiskLoader");
 
     /**
      * Use for the persistent avatar storage in additional to cacheAvatar
@@ -241,6 +256,54 @@ public class AvatarManager extends Manager {
         return avatarImage;
     }
 
+    /**
+     * Asynchronously load the avatars of the given jids from the persistent storage into the memory cache;
+     * so the UI thread fetching the avatars later e.g. contact list rendering, does not block on file I/O.
+     * Loading stops once the memory cache budget has been used up, to avoid evicting the prefetched avatars.
+     *
+     * @param jids the list of user bareJid for which their avatars are to be loaded
+     */
+    public static void prefetchAvatarImages(Collection<BareJid> jids) {
+        if (persistentAvatarCache == null || jids.isEmpty())
+            return;
+
+        final List<BareJid> userJids = new ArrayList<>(jids);
+        diskLoader.execute(() -> {
+            long loaded = 0;
+            for (BareJid jid : userJids) {
+                String avatarId = getAvatarHashByJid(jid);
+                if (StringUtils.isNullOrEmpty(avatarId) || cacheAvatar.contains(avatarId))
+                    continue;
+
+                byte[] avatarImage = persistentAvatarCache.getAvatarForHash(avatarId);
+                if (avatarImage != null) {
+                    loaded += avatarImage.length;
+                    if (loaded > cacheAvatar.maxSize())
+                        break;
+                    cacheAvatar.addAvatarByHash(avatarId, avatarImage);
+                }
+            }
+            Timber.d("Avatars prefetched for %s jids: %s", userJids.size(), cacheAvatar.getStats());
+        });
+    }
+
+    /**
+     * Release the avatars memory cache on system memory pressure; all avatars remain in the persistent storage.
+     *
+     * @param evictAll true to evict all the avatars from memory, else only half of the cache budget is retained.
+     */
+    public static void trimMemoryCache(boolean evictAll) {
+        cacheAvatar.trimToSize(evictAll ? 0 : cacheAvatar.maxSize() / 2);
+        Timber.d("Avatar memory cache trimmed: %s", cacheAvatar.getStats());
+    }
+
+    /**
+     * @return the avatar memory cache usage and hit-rate statistics.
+     */
+    public static String getMemoryCacheStats() {
+        return cacheAvatar.getStats();
+    }
+
     /**
      * Get the Avatar for a jid. Returns the avatar or null if
      * AvatarManager does not have any information.
@@ -17,29 +17,34 @@
 
 package org.jivesoftware.smackx.avatar.cache;
 
-import org.jxmpp.util.cache.LruCache;
+import android.util.LruCache;
 
 import java.io.*;
+import java.util.Locale;
 
 /**
- * An avatar cache which store the avatars in memory.
+ * An avatar cache which store the avatars in memory. The cache is bounded by the total byte size
+ * of the stored avatars, and not by the number of entries; so a few large avatars cannot push
+ * the memory usage beyond the given budget.
  *
  * @author Eng Chong Meng
  */
 public class AvatarCacheMemory implements AvatarCache {
     private static final int BUFFER_SIZE = 1024;
-    private LruCache<String, byte[]> mCache;
+    private final LruCache<String, byte[]> mCache;
 
     /**
      * Create a MemoryVCardAvatarCache.
      *
-     * @param maxSize the maximum number of objects the cache will hold. -1 means the cache has no max size.
-     * @param maxLifeTime the maximum amount of time (in ms) objects can exist in cache before being deleted.
-     * -1 means objects never expire.
+     * @param maxBytes the maximum total size in bytes of the avatars the cache will hold.
      */
-    public AvatarCacheMemory(final int maxSize, final long maxLifeTime) {
-        // mCache = new LruCache<String, byte[]>(maxSize, maxLifeTime);
-        mCache = new LruCache<String, byte[]>(maxSize);
+    public AvatarCacheMemory(final int maxBytes) {
+        mCache = new LruCache<String, byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(String photoHash, byte[] data) {
+                return data.length;
+            }
+        };
     }
 
     @Override
@@ -78,7 +83,8 @@ public class AvatarCacheMemory implements AvatarCache {
 
     @Override
     public boolean contains(String photoHash) {
-        return mCache.containsKey(photoHash);
+        // A snapshot() copies the whole cache; the get() hit and entry order refresh is of no concern here
+        return mCache.get(photoHash) != null;
     }
 
     @Override
@@ -88,7 +94,34 @@ public class AvatarCacheMemory implements AvatarCache {
 
     @Override
     public boolean emptyCache() {
-        mCache.clear();
+        mCache.evictAll();
         return true;
     }
+
+    /**
+     * Evict the least recently used avatars until the total size is at or below the given size.
+     *
+     * @param maxBytes the max total size in bytes to retain; 0 to evict all
+     */
+    public void trimToSize(int maxBytes) {
+        mCache.trimToSize(maxBytes);
+    }
+
+    /**
+     * @return the max total size in bytes of the avatars the cache will hold.
+     */
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * @return the cache usage and hit-rate statistics for diagnostic purpose.
+     */
+    public String getStats() {
+        int hits = mCache.hitCount();
+        int accesses = hits + mCache.missCount();
+        return String.format(Locale.US, "AvatarCacheMemory[size=%d/%d bytes, entries=%d, hits=%d, misses=%d, hitRate=%d%%, evictions=%d]",
+                mCache.size(), mCache.maxSize(), mCache.snapshot().size(), hits, mCache.missCount(),
+                (accesses == 0) ? 0 : (100 * hits / accesses), mCache.evictionCount());
+    }
 }
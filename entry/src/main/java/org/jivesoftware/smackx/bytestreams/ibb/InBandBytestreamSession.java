@@ -18,8 +18,11 @@ package org.jivesoftware.smackx.bytestreams.ibb;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +33,7 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.datatypes.UInt16;
 import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
@@ -69,6 +73,20 @@ public class InBandBytestreamSession implements BytestreamSession {
 
     static final String UNEXPECTED_IBB_SEQUENCE = "Unexpected IBB sequence";
 
+    /* initial size of the IQ data packets, adapted within the negotiated block size */
+    private static final int INITIAL_BLOCK_SIZE = 4096;
+
+    /* minimum size of the IQ data packets when throttled */
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    /* initial and max number of unacknowledged IQ data packets */
+    private static final int INITIAL_WINDOW = 2;
+    private static final int MAX_WINDOW = 8;
+
+    /* max number of resends of a throttled IQ data packet, and the resend delay per attempt in ms */
+    private static final int MAX_RESEND = 3;
+    private static final long RESEND_DELAY = 500;
+
     /* XMPP connection */
     private final XMPPConnection connection;
 
@@ -621,7 +639,10 @@ public class InBandBytestreamSession implements BytestreamSession {
     private abstract class IBBOutputStream extends OutputStream {
 
         /* buffer with the size of this sessions block size */
-        private final byte[] buffer;
+        final byte[] buffer;
+
+        /* the size of the data packets to send, adapted within this sessions block size */
+        volatile int blockSize;
 
         /* pointer to next byte to write to buffer */
         private int bufferPointer = 0;
@@ -637,6 +658,7 @@ public class InBandBytestreamSession implements BytestreamSession {
          */
         private IBBOutputStream() {
             this.buffer = new byte[byteStreamRequest.getBlockSize()];
+            this.blockSize = buffer.length;
         }
 
         /**
@@ -649,6 +671,14 @@ public class InBandBytestreamSession implements BytestreamSession {
          */
         abstract void writeToXML(DataPacketExtension data) throws IOException, NotConnectedException, InterruptedException;
 
+        /**
+         * Waits until all the data stanzas sent have been delivered to the remote peer.
+         *
+         * @throws IOException if an I/O error occurred while sending
+         */
+        void drain() throws IOException {
+        }
+
         @Override
         public synchronized void write(int b) throws IOException {
             if (this.isClosed) {
@@ -656,7 +686,7 @@ public class InBandBytestreamSession implements BytestreamSession {
             }
 
             // if buffer is full flush buffer
-            if (bufferPointer >= buffer.length) {
+            if (bufferPointer >= blockSize) {
                 flushBuffer();
             }
 
@@ -680,17 +710,27 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw new IOException("Stream is closed");
             }
 
-            // is data to send greater than buffer size
-            if (len >= buffer.length) {
-
-                // "byte" off the first chunk to write out
-                writeOut(b, off, buffer.length);
-
-                // recursively call this method with the lesser amount
-                write(b, off + buffer.length, len - buffer.length);
-            }
-            else {
-                writeOut(b, off, len);
+            while (len > 0) {
+                int size = blockSize;
+                if (bufferPointer == 0 && len >= size) {
+                    // encode a full data packet straight from the source, bypassing the buffer
+                    sendData(b, off, size);
+                }
+                else {
+                    if (bufferPointer >= size) {
+                        // block size has been reduced below the buffered data
+                        flushBuffer();
+                        continue;
+                    }
+                    size = Math.min(len, size - bufferPointer);
+                    System.arraycopy(b, off, buffer, bufferPointer, size);
+                    bufferPointer += size;
+                    if (bufferPointer >= blockSize) {
+                        flushBuffer();
+                    }
+                }
+                off += size;
+                len -= size;
             }
         }
 
@@ -699,38 +739,6 @@ public class InBandBytestreamSession implements BytestreamSession {
             write(b, 0, b.length);
         }
 
-        /**
-         * Fills the buffer with the given data and sends it over the XMPP stream if the buffers
-         * capacity has been reached. This method is only called from this class so it is assured
-         * that the amount of data to send is <= buffer capacity
-         *
-         * @param b the data
-         * @param off the data
-         * @param len the number of bytes to write
-         * @throws IOException if an I/O error occurred while sending or if the stream is closed
-         */
-        private synchronized void writeOut(byte[] b, int off, int len) throws IOException {
-            if (this.isClosed) {
-                throw new IOException("Stream is closed");
-            }
-
-            // set to 0 in case the next 'if' block is not executed
-            int available = 0;
-
-            // is data to send greater that buffer space left
-            if (len > buffer.length - bufferPointer) {
-                // fill buffer to capacity and send it
-                available = buffer.length - bufferPointer;
-                System.arraycopy(b, off, buffer, bufferPointer, available);
-                bufferPointer += available;
-                flushBuffer();
-            }
-
-            // copy the data left to buffer
-            System.arraycopy(b, off + available, buffer, bufferPointer, len - available);
-            bufferPointer += len - available;
-        }
-
         @Override
         public synchronized void flush() throws IOException {
             if (this.isClosed) {
@@ -746,8 +754,23 @@ public class InBandBytestreamSession implements BytestreamSession {
                 return;
             }
 
+            sendData(buffer, 0, bufferPointer);
+
+            // reset buffer pointer
+            bufferPointer = 0;
+        }
+
+        /**
+         * Encodes the given data into a data packet and sends it over the XMPP stream.
+         *
+         * @param b the data
+         * @param off the start offset in the data
+         * @param len the number of bytes to send
+         * @throws IOException if an I/O error occurred while sending or if the stream is closed
+         */
+        private synchronized void sendData(byte[] b, int off, int len) throws IOException {
             // create data packet
-            String enc = Base64.encodeToString(buffer, 0, bufferPointer);
+            String enc = Base64.encodeToString(b, off, len);
             DataPacketExtension data = new DataPacketExtension(byteStreamRequest.getSessionID(),
                             this.seq, enc);
 
@@ -761,12 +784,8 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw ioException;
             }
 
-            // reset buffer pointer
-            bufferPointer = 0;
-
             // increment sequence, considering sequence overflow
             seq = seq.incrementedByOne();
-
         }
 
         @Override
@@ -791,6 +810,7 @@ public class InBandBytestreamSession implements BytestreamSession {
             try {
                 if (flush) {
                     flushBuffer();
+                    drain();
                 }
             }
             catch (IOException e) {
@@ -805,26 +825,201 @@ public class InBandBytestreamSession implements BytestreamSession {
     /**
      * IQIBBOutputStream class implements IBBOutputStream to be used with IQ stanzas encapsulating
      * the data packets.
+     * <p>
+     * Instead of waiting for the acknowledgement of each data IQ before sending the next one, a window
+     * of unacknowledged data IQs is kept in flight; the stanzas are delivered in order over the XMPP
+     * stream. The window and the data packet size are adapted to the measured round trip time: both
+     * grow while the round trip time stays close to its minimum, and the window shrinks when the round
+     * trip time builds up. A data IQ rejected by the server throttling is resent after a delay, with
+     * the window and data packet size reduced; but only if no later data IQ has been sent, as the
+     * receiver requires a strictly increasing sequence.
      */
     private final class IQIBBOutputStream extends IBBOutputStream {
 
+        /* data IQs sent but not yet acknowledged, in sequence order */
+        private final List<DataTransfer> outstanding = new LinkedList<>();
+
+        /* the max number of unacknowledged data IQs */
+        private int window = INITIAL_WINDOW;
+
+        /* the number of data IQs acknowledged since the last adaptation */
+        private int ackCount = 0;
+
+        /* the minimum round trip time measured for a data IQ */
+        private long minRtt = Long.MAX_VALUE;
+
+        /* the time after which the throttled data IQs may be resent */
+        private long resendTime = 0;
+
+        /* the data IQ with the highest sequence sent so far */
+        private DataTransfer lastSent;
+
+        /* the error which has failed this stream */
+        private IOException failure;
+
+        private IQIBBOutputStream() {
+            blockSize = Math.min(INITIAL_BLOCK_SIZE, buffer.length);
+        }
+
         @Override
         protected synchronized void writeToXML(DataPacketExtension data) throws IOException {
-            // create IQ stanza containing data packet
-            IQ iq = new Data(data);
+            awaitOutstanding(window - 1);
+            transmit(new DataTransfer(data));
+        }
+
+        @Override
+        synchronized void drain() throws IOException {
+            awaitOutstanding(0);
+        }
+
+        /**
+         * Waits until the number of unacknowledged data IQs is no more than the given limit; resending
+         * the throttled data IQs when due.
+         *
+         * @param limit the max number of unacknowledged data IQs
+         * @throws IOException if a data IQ has failed or if the thread was interrupted
+         */
+        private void awaitOutstanding(int limit) throws IOException {
+            while (true) {
+                if (failure != null) {
+                    // close session unless it is already closed
+                    if (!this.isClosed) {
+                        InBandBytestreamSession.this.close();
+                    }
+                    throw failure;
+                }
+
+                long waitTime = resendThrottled();
+                if (outstanding.size() <= limit) {
+                    return;
+                }
+
+                try {
+                    // data IQ responses are guaranteed within the reply timeout; so just a guard
+                    wait((waitTime > 0) ? waitTime : connection.getReplyTimeout());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for IBB data acknowledgement");
+                }
+            }
+        }
+
+        /**
+         * Resends the throttled data IQs in sequence order once the resend delay has elapsed, and
+         * none of the preceding data IQs is still in flight.
+         *
+         * @return the time in ms to wait before the throttled data IQs can be resent, or 0 if none pending
+         */
+        private long resendThrottled() {
+            for (DataTransfer transfer : outstanding) {
+                if (!transfer.throttled) {
+                    return 0;
+                }
+            }
+            if (outstanding.isEmpty()) {
+                return 0;
+            }
+
+            long delay = resendTime - System.currentTimeMillis();
+            if (delay > 0) {
+                return delay;
+            }
+            for (DataTransfer transfer : new LinkedList<>(outstanding)) {
+                transfer.throttled = false;
+                transmit(transfer);
+            }
+            return 0;
+        }
+
+        /**
+         * Sends the data IQ without waiting for its acknowledgement.
+         *
+         * @param transfer the data transfer to send
+         */
+        private void transmit(final DataTransfer transfer) {
+            if (!outstanding.contains(transfer)) {
+                outstanding.add(transfer);
+            }
+            lastSent = transfer;
+
+            IQ iq = new Data(transfer.data);
             iq.setTo(remoteJID);
+            transfer.sentTime = System.currentTimeMillis();
+            connection.sendIqRequestAsync(iq)
+                    .onSuccess(result -> onAcknowledged(transfer))
+                    .onError(exception -> onFailed(transfer, exception));
+        }
 
-            try {
-                connection.sendIqRequestAndWaitForResponse(iq);
+        private synchronized void onAcknowledged(DataTransfer transfer) {
+            outstanding.remove(transfer);
+            long rtt = System.currentTimeMillis() - transfer.sentTime;
+            minRtt = Math.min(minRtt, rtt);
+
+            if (rtt > 2 * minRtt) {
+                // the round trip time builds up, i.e. the data IQs are queued along the path
+                if (window > 1) {
+                    window--;
+                }
+                ackCount = 0;
             }
-            catch (Exception e) {
-                // close session unless it is already closed
-                if (!this.isClosed) {
-                    InBandBytestreamSession.this.close();
-                    throw new IOException(e);
+            else if (++ackCount >= window) {
+                ackCount = 0;
+                if (blockSize < buffer.length) {
+                    blockSize = Math.min(2 * blockSize, buffer.length);
+                }
+                else if (window < MAX_WINDOW) {
+                    window++;
                 }
             }
+            notifyAll();
+        }
+
+        private synchronized void onFailed(DataTransfer transfer, Exception exception) {
+            // A resend after a later sequence has gone out would be rejected as out of order by the receiver
+            if (!this.isClosed && (transfer == lastSent) && isThrottled(exception)
+                    && (transfer.retries++ < MAX_RESEND)) {
+                LOGGER.log(Level.FINE, "IBB data " + transfer.data.getSeq() + " throttled, resend with reduced rate");
+                transfer.throttled = true;
+                blockSize = Math.max(blockSize / 2, Math.min(MIN_BLOCK_SIZE, buffer.length));
+                window = 1;
+                ackCount = 0;
+                resendTime = System.currentTimeMillis() + transfer.retries * RESEND_DELAY;
+            }
+            else if (failure == null) {
+                failure = new IOException(exception);
+            }
+            notifyAll();
+        }
+
+        /**
+         * Checks if the data IQ has been rejected for exceeding the server rate limits.
+         *
+         * @param exception the data IQ failure
+         * @return <code>true</code> if the data IQ can be resent later
+         */
+        private boolean isThrottled(Exception exception) {
+            if (!(exception instanceof XMPPErrorException)) {
+                return false;
+            }
+            StanzaError error = ((XMPPErrorException) exception).getStanzaError();
+            return (error.getType() == StanzaError.Type.WAIT)
+                    || (error.getCondition() == StanzaError.Condition.resource_constraint)
+                    || (error.getCondition() == StanzaError.Condition.policy_violation);
+        }
+    }
 
+    /**
+     * A data packet sent with an IQ stanza, awaiting its acknowledgement.
+     */
+    private static final class DataTransfer {
+        final DataPacketExtension data;
+        long sentTime;
+        int retries = 0;
+        boolean throttled = false;
+
+        DataTransfer(DataPacketExtension data) {
+            this.data = data;
         }
     }
 
@@ -0,0 +1,194 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014~2026 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copies the file content between a file and a bytestream session for the Jingle and legacy SI file
+ * transfers.
+ * <p>
+ * A file source is read via its FileChannel. The data are moved in large chunks, so that each chunk
+ * is hashed, encrypted and written to the bytestream in bulk. The progress callback is throttled to at most once per PROGRESS_INTERVAL.
+ *
+ * @author Eng Chong Meng
+ */
+public class FileTransferEngine {
+    /**
+     * The size of the data chunk read or written in a single operation.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The min interval in ms between the progress callbacks.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * Callback for the file transfer progress and cancellation.
+     */
+    public interface TransferCallback {
+        /**
+         * Checks if the file transfer should be aborted.
+         *
+         * @return <code>true</code> to stop the file transfer
+         */
+        boolean isCancelled();
+
+        /**
+         * Notifies the number of bytes transferred so far.
+         *
+         * @param bytes the number of bytes transferred
+         */
+        void progress(long bytes);
+    }
+
+    /**
+     * Sends the content of the source to the bytestream output stream, and flushes the stream.
+     *
+     * @param source the file content source
+     * @param out the bytestream output stream
+     * @param callback the progress and cancellation callback
+     *
+     * @return the number of bytes sent
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public static long send(InputStream source, OutputStream out, TransferCallback callback)
+            throws IOException {
+        Progress progress = new Progress(callback);
+        if (source instanceof FileInputStream) {
+            FileChannel fileChannel = ((FileInputStream) source).getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (!callback.isCancelled() && (fileChannel.read(buffer) >= 0)) {
+                out.write(buffer.array(), 0, buffer.position());
+                progress.add(buffer.position());
+                buffer.clear();
+            }
+        } else {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while (!callback.isCancelled() && ((length = source.read(buffer)) >= 0)) {
+                out.write(buffer, 0, length);
+                progress.add(length);
+            }
+        }
+        out.flush();
+        progress.finish();
+        return progress.getBytes();
+    }
+
+    /**
+     * Receives the file content from the bytestream input stream into the target.
+     *
+     * @param in the bytestream input stream
+     * @param target the file content target
+     * @param size the expected file size; the transfer stops once reached, or at end of stream if <= 0
+     * @param digest the digest to update with the received content; may be null
+     * @param callback the progress and cancellation callback
+     *
+     * @return the number of bytes received
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public static long receive(InputStream in, OutputStream target, long size, MessageDigest digest,
+            TransferCallback callback)
+            throws IOException {
+        Progress progress = new Progress(callback);
+        FileChannel fileChannel = (target instanceof FileOutputStream) ? ((FileOutputStream) target).getChannel() : null;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] data = buffer.array();
+
+        boolean eos = false;
+        while (!eos && !callback.isCancelled()) {
+            // Fill the whole chunk before writing it out, up to the expected file size
+            int length = 0;
+            while (length < data.length) {
+                int limit = data.length - length;
+                if (size > 0) {
+                    limit = (int) Math.min(limit, size - progress.getBytes() - length);
+                    if (limit == 0) {
+                        eos = true;
+                        break;
+                    }
+                }
+                int count = in.read(data, length, limit);
+                if (count < 0) {
+                    eos = true;
+                    break;
+                }
+                length += count;
+            }
+            if (length == 0) {
+                continue;
+            }
+
+            if (digest != null) {
+                digest.update(data, 0, length);
+            }
+            if (fileChannel != null) {
+                buffer.limit(length);
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                buffer.clear();
+            } else {
+                target.write(data, 0, length);
+            }
+            progress.add(length);
+        }
+        progress.finish();
+        return progress.getBytes();
+    }
+
+    /**
+     * Keeps count of the bytes transferred, and throttles the progress callbacks.
+     */
+    private static class Progress {
+        private final TransferCallback mCallback;
+        private long mBytes = 0;
+        private long mLastUpdate = 0;
+
+        Progress(TransferCallback callback) {
+            mCallback = callback;
+        }
+
+        void add(long count) {
+            mBytes += count;
+            long now = System.currentTimeMillis();
+            if (now - mLastUpdate >= PROGRESS_INTERVAL) {
+                mLastUpdate = now;
+                mCallback.progress(mBytes);
+            }
+        }
+
+        long getBytes() {
+            return mBytes;
+        }
+
+        void finish() {
+            mCallback.progress(mBytes);
+        }
+    }
+}
@@ -249,7 +249,24 @@ public class OutgoingFileTransfer extends FileTransfer {
                 InputStream inputStream = null;
                 try {
                     inputStream = new FileInputStream(file);
-                    writeToStream(inputStream, outputStream);
+                    amountWritten = 0;
+                    FileTransferEngine.send(inputStream, outputStream, new FileTransferEngine.TransferCallback() {
+                        @Override
+                        public boolean isCancelled() {
+                            return isDone();
+                        }
+
+                        @Override
+                        public void progress(long bytes) {
+                            amountWritten = bytes;
+                        }
+                    });
+
+                    // the connection was likely terminated abruptly if these are not equal
+                    if (!isDone() && getAmountWritten() < getFileSize()) {
+                        setStatus(Status.error);
+                        setError(Error.connection);
+                    }
                 } catch (FileNotFoundException e) {
                     setStatus(FileTransfer.Status.error);
                     setError(Error.bad_file);
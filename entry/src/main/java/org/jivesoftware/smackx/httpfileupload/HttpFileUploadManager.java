@@ -16,15 +16,17 @@
  */
 package org.jivesoftware.smackx.httpfileupload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -32,18 +34,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.NoSuchPaddingException;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+
+import org.atalk.service.httputil.HttpUtilActivator;
+import org.atalk.service.httputil.OkHttpUtils;
 
 import org.jivesoftware.smack.AbstractXMPPConnection;
-import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPConnection;
@@ -66,6 +70,13 @@ import org.jivesoftware.smackx.xdata.packet.DataForm;
 
 import org.jxmpp.jid.DomainBareJid;
 
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
 /**
  * A manager for XEP-0363: HTTP File Upload.
  * This manager is also capable of XEP-0454: OMEMO Media Sharing.
@@ -95,6 +106,32 @@ public final class HttpFileUploadManager extends Manager {
 
     private static final Logger LOGGER = Logger.getLogger(HttpFileUploadManager.class.getName());
 
+    /**
+     * The size of the file content chunk read, encrypted and written in a single operation.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The min interval in ms between the upload progress callbacks.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * Max number of upload retries on the same slot after a transient failure.
+     */
+    private static final int MAX_RETRIES = 3;
+
+    /**
+     * The base delay in ms before an upload retry; increases with each attempt.
+     */
+    private static final long RETRY_DELAY = 2000;
+
+    /**
+     * The upload connect and read/write timeouts in seconds.
+     */
+    private static final int CONNECT_TIMEOUT = 15;
+    private static final int IO_TIMEOUT = 60;
+
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(connection -> getInstanceFor(connection));
     }
@@ -124,23 +161,8 @@ public final class HttpFileUploadManager extends Manager {
 
     private HttpFileUploadManager(XMPPConnection connection) {
         super(connection);
-
-        connection.addConnectionListener(new ConnectionListener() {
-            @Override
-            public void authenticated(XMPPConnection connection, boolean resumed) {
-                // No need to reset the cache if the connection got resumed.
-                if (resumed) {
-                    return;
-                }
-
-                try {
-                    discoverUploadService();
-                } catch (XMPPException.XMPPErrorException | SmackException.NotConnectedException
-                        | SmackException.NoResponseException | InterruptedException e) {
-                    LOGGER.log(Level.WARNING, "Error during discovering HTTP File Upload service", e);
-                }
-            }
-        });
+        // The upload service is (re)discovered on each non-resumed login by aTalk concurrent server
+        // service discovery; see ServiceDiscoveryHelper#discoverServerServices()
     }
 
     private static UploadService uploadServiceFrom(DiscoverInfo discoverInfo) {
@@ -182,8 +204,6 @@ public final class HttpFileUploadManager extends Manager {
     /**
      * Discover upload service.
      *
-     * Called automatically when connection is authenticated.
-     *
      * Note that this is a synchronous call -- Smack must wait for the server response.
      *
      * @return true if upload service was discovered
@@ -212,6 +232,39 @@ public final class HttpFileUploadManager extends Manager {
         return true;
     }
 
+    /**
+     * Set the default upload service from a service discovery info obtained elsewhere e.g. login service discovery.
+     * An XEP-0363 v0.3 or higher service is preferred over an older v0.2 service.
+     *
+     * @param discoverInfo the discover info of a service entity
+     * @return true if the default upload service is set with the given discoverInfo
+     */
+    public synchronized boolean setDefaultUploadService(DiscoverInfo discoverInfo) {
+        if (!containsHttpFileUploadNamespace(discoverInfo)) {
+            return false;
+        }
+
+        if (defaultUploadService == null || (defaultUploadService.getVersion() == Version.v0_2
+                && discoverInfo.containsFeature(NAMESPACE))) {
+            defaultUploadService = uploadServiceFrom(discoverInfo);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replace the default upload service e.g. with the services re-validated by the login service discovery.
+     * The default upload service is cleared if none of the given discoverInfos is an upload service.
+     *
+     * @param discoverInfos the discover info of the service entities
+     */
+    public synchronized void resetDefaultUploadService(List<DiscoverInfo> discoverInfos) {
+        defaultUploadService = null;
+        for (DiscoverInfo discoverInfo : discoverInfos) {
+            setDefaultUploadService(discoverInfo);
+        }
+    }
+
     /**
      * Check if upload service was discovered.
      *
@@ -270,9 +323,7 @@ public final class HttpFileUploadManager extends Manager {
         }
         final Slot slot = requestSlot(file.getName(), file.length(), "application/octet-stream");
         final long fileSize = file.length();
-        // Construct the FileInputStream first to make sure we can actually read the file.
-        final FileInputStream fis = new FileInputStream(file);
-        upload(fis, fileSize, slot, listener);
+        upload(new UploadRequestBody(file, null, fileSize, null, null, listener), fileSize, slot);
         return slot.getGetUrl();
     }
 
@@ -318,7 +369,17 @@ public final class HttpFileUploadManager extends Manager {
             throw new IllegalArgumentException("File size cannot be negative");
         }
         final Slot slot = requestSlot(fileName, fileSize, "application/octet-stream");
-        upload(inputStream, fileSize, slot, listener);
+        try {
+            upload(new UploadRequestBody(null, inputStream, fileSize, null, null, listener), fileSize, slot);
+        }
+        finally {
+            try {
+                inputStream.close();
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
+            }
+        }
         return slot.getGetUrl();
     }
 
@@ -365,13 +426,11 @@ public final class HttpFileUploadManager extends Manager {
         // fresh AES key + iv
         byte[] key = OmemoMediaSharingUtils.generateRandomKey();
         byte[] iv = OmemoMediaSharingUtils.generateRandomIV();
-        Cipher cipher = OmemoMediaSharingUtils.encryptionCipherFrom(key, iv);
-
-        FileInputStream fis = new FileInputStream(file);
-        // encrypt the file on the fly - encryption actually happens below in uploadFile()
-        CipherInputStream cis = new CipherInputStream(fis, cipher);
+        // Validate the key and iv; a new cipher is created for each upload attempt, as a GCM cipher cannot be reused
+        OmemoMediaSharingUtils.encryptionCipherFrom(key, iv);
 
-        upload(cis, cipherFileLength, slot, listener);
+        // encrypt the file on the fly - encryption actually happens below in UploadRequestBody#writeTo()
+        upload(new UploadRequestBody(file, null, cipherFileLength, key, iv, listener), cipherFileLength, slot);
         return new AesgcmUrl(slotUrl, key, iv);
     }
 
@@ -488,115 +547,111 @@ public final class HttpFileUploadManager extends Manager {
         this.tlsSocketFactory = tlsContext.getSocketFactory();
     }
 
-    private void upload(InputStream iStream, long fileSize, Slot slot, UploadProgressListener listener) throws IOException {
+    /**
+     * Upload the file content to the slot PUT URL with OkHttp; retry on the same slot on transient failure
+     * i.e. I/O error or HTTP server error, provided the request body can be replayed.
+     *
+     * @param body the upload request body
+     * @param fileSize the number of bytes to upload, i.e. the file or cipher content length
+     * @param slot the upload slot
+     *
+     * @throws IOException if the upload failed.
+     */
+    private void upload(UploadRequestBody body, long fileSize, Slot slot) throws IOException {
         final URL putUrl = slot.getPutUrl();
-        final XMPPConnection connection = connection();
-        final HttpURLConnection urlConnection = createURLConnection(connection, putUrl);
-        if (urlConnection instanceof HttpsURLConnection) {
-            var httpsUrlConnection = (HttpsURLConnection) urlConnection;
-            if (connection instanceof AbstractXMPPConnection) {
-                var abstractConnection = (AbstractXMPPConnection) connection;
-                var connectionConfiguration = abstractConnection.getConfiguration();
-
-                var sslSocketFactory = connectionConfiguration.getSSLSocketFactory();
-                if (sslSocketFactory != null) {
-                    httpsUrlConnection.setSSLSocketFactory(sslSocketFactory);
-                }
-
-                var hostnameVerifier = connectionConfiguration.getHostnameVerifier();
-                if (hostnameVerifier != null) {
-                    httpsUrlConnection.setHostnameVerifier(hostnameVerifier);
-                }
-            }
-        }
+        final OkHttpClient client = createHttpClient(connection(), putUrl);
 
-        urlConnection.setRequestMethod("PUT");
-        urlConnection.setUseCaches(false);
-        urlConnection.setDoOutput(true);
-        urlConnection.setFixedLengthStreamingMode(fileSize);
-        urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(putUrl)
+                .put(body);
         for (Map.Entry<String, String> header : slot.getHeaders().entrySet()) {
-            urlConnection.setRequestProperty(header.getKey(), header.getValue());
-        }
-
-        final SSLSocketFactory tlsSocketFactory = this.tlsSocketFactory;
-        if (tlsSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
-            HttpsURLConnection httpsUrlConnection = (HttpsURLConnection) urlConnection;
-            httpsUrlConnection.setSSLSocketFactory(tlsSocketFactory);
+            requestBuilder.header(header.getKey(), header.getValue());
         }
-
-        try {
-            OutputStream outputStream = urlConnection.getOutputStream();
-
-            long bytesSend = 0;
-
-            if (listener != null) {
-                listener.onUploadProgress(0, fileSize);
-            }
-
-            BufferedInputStream inputStream = new BufferedInputStream(iStream);
-
-            // TODO Factor in extra static method (and re-use e.g. in bytestream code).
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            try {
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    bytesSend += bytesRead;
-
-                    if (listener != null) {
-                        listener.onUploadProgress(bytesSend, fileSize);
-                    }
-                }
+        final Request request = requestBuilder.build();
+
+        int attempt = 0;
+        while (true) {
+            int status;
+            String message;
+            try (Response response = client.newCall(request).execute()) {
+                status = response.code();
+                message = response.message();
             }
-            finally {
-                try {
-                    inputStream.close();
-                }
-                // Must include IllegalStateException: GCM cipher cannot be reused for encryption (happen on Note-5)
-                catch (IOException | IllegalStateException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
-                }
-                try {
-                    outputStream.close();
-                }
-                catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing output stream", e);
+            catch (IOException e) {
+                if (body.isOneShot() || ++attempt > MAX_RETRIES) {
+                    throw new HttpUploadIOException(fileSize, slot, e);
                 }
+                LOGGER.log(Level.WARNING, "Upload attempt " + attempt + " failed, retrying: " + e.getMessage());
+                retryDelay(attempt, fileSize, slot, e);
+                continue;
             }
 
-            int status = urlConnection.getResponseCode();
             switch (status) {
             case HttpURLConnection.HTTP_OK:
             case HttpURLConnection.HTTP_CREATED:
             case HttpURLConnection.HTTP_NO_CONTENT:
-                break;
+                return;
             default:
-                throw new HttpUploadErrorException(status, urlConnection.getResponseMessage(), fileSize, slot);
+                if (status < HttpURLConnection.HTTP_INTERNAL_ERROR || body.isOneShot() || ++attempt > MAX_RETRIES) {
+                    throw new HttpUploadErrorException(status, message, fileSize, slot);
+                }
+                LOGGER.log(Level.WARNING, "Upload attempt " + attempt + " failed, retrying: " + status + " " + message);
+                retryDelay(attempt, fileSize, slot, null);
             }
         }
-        catch (IOException e) {
-            throw new HttpUploadIOException(fileSize, slot, e);
+    }
+
+    private static void retryDelay(int attempt, long fileSize, Slot slot, IOException cause) throws IOException {
+        try {
+            Thread.sleep(RETRY_DELAY * attempt);
         }
-        finally {
-            urlConnection.disconnect();
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpUploadIOException(fileSize, slot, cause != null ? cause : new InterruptedIOException());
         }
     }
 
-    private static HttpURLConnection createURLConnection(XMPPConnection connection, URL putUrl) throws IOException {
+    /**
+     * Create the OkHttp client for the upload, using the XMPP connection proxy and TLS settings. The long upload
+     * is bounded by the read/write timeouts only; no call timeout is applied.
+     */
+    private OkHttpClient createHttpClient(XMPPConnection connection, URL putUrl) {
         Objects.requireNonNull(connection);
         Objects.requireNonNull(putUrl);
+        final OkHttpClient.Builder builder = OkHttpUtils.OK_HTTP_CLIENT.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .writeTimeout(IO_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(IO_TIMEOUT, TimeUnit.SECONDS)
+                .callTimeout(0, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true);
+
         ProxyInfo proxyInfo = fetchProxyInfo(connection);
         if (proxyInfo != null) {
-            return createProxiedURLConnection(proxyInfo, putUrl);
+            builder.proxy(proxyInfo.toJavaProxy());
         }
-        return (HttpURLConnection) putUrl.openConnection();
-    }
 
-    private static HttpURLConnection createProxiedURLConnection(ProxyInfo proxyInfo, URL putUrl) throws IOException {
-        Objects.requireNonNull(proxyInfo);
-        Objects.requireNonNull(putUrl);
-        return (HttpURLConnection) putUrl.openConnection(proxyInfo.toJavaProxy());
+        OkHttpUtils.setupTrustManager(builder, putUrl.getHost());
+        SSLSocketFactory sslSocketFactory = this.tlsSocketFactory;
+        if (connection instanceof AbstractXMPPConnection) {
+            var connectionConfiguration = ((AbstractXMPPConnection) connection).getConfiguration();
+            if (sslSocketFactory == null) {
+                sslSocketFactory = connectionConfiguration.getSSLSocketFactory();
+            }
+            var hostnameVerifier = connectionConfiguration.getHostnameVerifier();
+            if (hostnameVerifier != null) {
+                builder.hostnameVerifier(hostnameVerifier);
+            }
+        }
+        if (sslSocketFactory != null) {
+            try {
+                X509TrustManager trustManager = HttpUtilActivator.getCertificateVerificationService()
+                        .getTrustManager(putUrl.getHost());
+                builder.sslSocketFactory(sslSocketFactory, trustManager);
+            } catch (GeneralSecurityException e) {
+                LOGGER.log(Level.WARNING, "Cannot apply the connection TLS settings to the upload", e);
+            }
+        }
+        return builder.build();
     }
 
     private static ProxyInfo fetchProxyInfo(XMPPConnection connection) {
@@ -626,4 +681,129 @@ public final class HttpFileUploadManager extends Manager {
     private static boolean containsHttpFileUploadNamespace(DiscoverInfo discoverInfo) {
         return discoverInfo.containsFeature(NAMESPACE) || discoverInfo.containsFeature(NAMESPACE_0_2);
     }
+
+    /**
+     * The upload request body which streams the file content to the HTTP connection in large chunks. A file source
+     * is read via its FileChannel; for OMEMO media sharing, each chunk is encrypted in bulk with the AES-GCM cipher
+     * and the authentication tag is appended at the end. The body can be replayed for a retry on the same slot,
+     * with a new cipher instance initialized with the same key and iv; an InputStream source is one-shot.
+     * The progress listener is called at most once per PROGRESS_INTERVAL.
+     */
+    private static final class UploadRequestBody extends RequestBody {
+        private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+        private final File file;
+        private final InputStream inputStream;
+        private final long contentLength;
+        private final byte[] key;
+        private final byte[] iv;
+        private final UploadProgressListener listener;
+
+        private UploadRequestBody(File file, InputStream inputStream, long contentLength, byte[] key, byte[] iv,
+                UploadProgressListener listener) {
+            this.file = file;
+            this.inputStream = inputStream;
+            this.contentLength = contentLength;
+            this.key = key;
+            this.iv = iv;
+            this.listener = listener;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return file == null;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            final Cipher cipher = createCipher();
+            final byte[] cipherOut = (cipher == null) ? null : new byte[cipher.getOutputSize(BUFFER_SIZE)];
+            long bytesSend = 0;
+            long lastProgress = 0;
+            if (listener != null) {
+                listener.onUploadProgress(0, contentLength);
+            }
+
+            try {
+                if (file != null) {
+                    try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
+                        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                        int bytesRead;
+                        while ((bytesRead = channel.read(buffer)) != -1) {
+                            if (bytesRead == 0) {
+                                continue;
+                            }
+                            bytesSend += write(sink, cipher, cipherOut, buffer.array(), bytesRead);
+                            buffer.clear();
+                            lastProgress = notifyProgress(bytesSend, lastProgress);
+                        }
+                    }
+                }
+                else {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int bytesRead;
+                    while ((bytesRead = inputStream.read(buffer)) != -1) {
+                        bytesSend += write(sink, cipher, cipherOut, buffer, bytesRead);
+                        lastProgress = notifyProgress(bytesSend, lastProgress);
+                    }
+                }
+
+                if (cipher != null) {
+                    byte[] tag = cipher.doFinal();
+                    sink.write(tag);
+                    bytesSend += tag.length;
+                }
+            }
+            catch (GeneralSecurityException e) {
+                throw new IOException("Cannot encrypt the upload content", e);
+            }
+            sink.flush();
+
+            if (listener != null) {
+                listener.onUploadProgress(bytesSend, contentLength);
+            }
+        }
+
+        private Cipher createCipher() throws IOException {
+            if (key == null) {
+                return null;
+            }
+            try {
+                return OmemoMediaSharingUtils.encryptionCipherFrom(key, iv);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IOException("Cannot initialize the upload cipher", e);
+            }
+        }
+
+        private static int write(BufferedSink sink, Cipher cipher, byte[] cipherOut, byte[] data, int length)
+                throws IOException, GeneralSecurityException {
+            if (cipher == null) {
+                sink.write(data, 0, length);
+                return length;
+            }
+            int count = cipher.update(data, 0, length, cipherOut);
+            sink.write(cipherOut, 0, count);
+            return count;
+        }
+
+        private long notifyProgress(long bytesSend, long lastProgress) {
+            long now = System.currentTimeMillis();
+            if (listener == null || now - lastProgress < PROGRESS_INTERVAL) {
+                return lastProgress;
+            }
+            listener.onUploadProgress(bytesSend, contentLength);
+            return now;
+        }
+    }
 }
@@ -16,16 +16,24 @@
  */
 package org.jivesoftware.smackx.jet.component;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine;
 import org.jivesoftware.smackx.jingle.component.JingleSecurityBytestreamSession;
 
+/**
+ * Jingle Encrypted Transports bytestream session; the data are encrypted and decrypted in bulk chunks.
+ *
+ * @author Paul Schaub
+ * @author Eng Chong Meng
+ */
 public class JetSecurityBytestreamSession extends JingleSecurityBytestreamSession {
     private final Cipher cipher;
 
@@ -36,7 +44,7 @@ public class JetSecurityBytestreamSession extends JingleSecurityBytestreamSessio
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return new CipherInputStream(wrapped.getInputStream(), cipher);
+        return new BulkCipherInputStream(wrapped.getInputStream(), cipher);
     }
 
     @Override
@@ -48,4 +56,88 @@ public class JetSecurityBytestreamSession extends JingleSecurityBytestreamSessio
     public void close() throws IOException {
         wrapped.close();
     }
+
+    /**
+     * A cipher input stream which decrypts the data in chunks of FileTransferEngine#BUFFER_SIZE;
+     * unlike the CipherInputStream which reads and decrypts the underlying stream 512 bytes at a time.
+     */
+    private static class BulkCipherInputStream extends FilterInputStream {
+        private final Cipher mCipher;
+        private final byte[] mInBuffer = new byte[FileTransferEngine.BUFFER_SIZE];
+        private byte[] mOutBuffer;
+        private int mOutPos = 0;
+        private int mOutLength = 0;
+        private boolean mDone = false;
+
+        BulkCipherInputStream(InputStream in, Cipher cipher) {
+            super(in);
+            mCipher = cipher;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (mOutPos >= mOutLength) {
+                if (mDone) {
+                    return -1;
+                }
+                decrypt();
+            }
+            int count = Math.min(len, mOutLength - mOutPos);
+            System.arraycopy(mOutBuffer, mOutPos, b, off, count);
+            mOutPos += count;
+            return count;
+        }
+
+        /**
+         * Reads and decrypts the next chunk of the underlying stream; finalizes the cipher at end of stream.
+         */
+        private void decrypt() throws IOException {
+            int length = in.read(mInBuffer);
+            try {
+                if (length < 0) {
+                    mDone = true;
+                    mOutBuffer = mCipher.doFinal();
+                } else {
+                    mOutBuffer = mCipher.update(mInBuffer, 0, length);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            mOutPos = 0;
+            mOutLength = (mOutBuffer == null) ? 0 : mOutBuffer.length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            byte[] b = new byte[(int) Math.min(n, FileTransferEngine.BUFFER_SIZE)];
+            while (skipped < n) {
+                int count = read(b, 0, (int) Math.min(n - skipped, b.length));
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mOutLength - mOutPos;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
@@ -47,13 +47,18 @@ public class JingleIBBTransportImpl extends JingleTransport<JingleIBBTransport>
     private static final Logger LOGGER = Logger.getLogger(JingleIBBTransportImpl.class.getName());
 
     public static final Short DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * The block size offered by the initiator; the IQ data packet size is adapted within the negotiated
+     * block size by the InBandBytestreamSession, starting from the DEFAULT_BLOCK_SIZE.
+     */
     public static final Short MAX_BLOCKSIZE = 8192;
 
     private final String streamId;
     private Short blockSize;
 
     public JingleIBBTransportImpl() {
-        this(DEFAULT_BLOCK_SIZE, StringUtils.randomString(10));
+        this(MAX_BLOCKSIZE, StringUtils.randomString(10));
     }
 
     public JingleIBBTransportImpl(Short blockSize, String streamId) {
@@ -21,7 +21,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.logging.Level;
@@ -31,6 +30,7 @@ import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine;
 import org.jivesoftware.smackx.hashes.HashManager;
 import org.jivesoftware.smackx.hashes.element.HashElement;
 import org.jivesoftware.smackx.jingle.JingleSession;
@@ -83,29 +83,23 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
         try {
             inputStream = bytestreamSession.getInputStream();
 
-            if (digest != null) {
-                inputStream = new DigestInputStream(inputStream, digest);
-            }
-
-            int length;
-            int readByte = 0;
-            long fileSize = metadata.getSize();
-            byte[] readBuf = new byte[4096];
-            while ((length = inputStream.read(readBuf)) >= 0) {
-                // User cancels incoming file transfer in active progress.
-                if (mState == State.cancelled) {
-                    LOGGER.log(Level.INFO, "User canceled file offer in active transfer.");
-                    break;
-                }
-
-                target.write(readBuf, 0, length);
-                readByte += length;
-                // LOGGER.log(Level.INFO, "Read " + readByte + " (" + length + ") of " + fileSize + " bytes.");
-                notifyProgressListeners(readByte);
-                if (readByte == fileSize) {
-                    break;
-                }
-            }
+            FileTransferEngine.receive(inputStream, target, metadata.getSize(), digest,
+                    new FileTransferEngine.TransferCallback() {
+                        @Override
+                        public boolean isCancelled() {
+                            // User cancels incoming file transfer in active progress.
+                            if (mState == State.cancelled) {
+                                LOGGER.log(Level.INFO, "User canceled file offer in active transfer.");
+                                return true;
+                            }
+                            return false;
+                        }
+
+                        @Override
+                        public void progress(long bytes) {
+                            notifyProgressListeners((int) bytes);
+                        }
+                    });
             LOGGER.log(Level.INFO, "Reading/Writing file finished: " + fname);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Cannot get InputStream from BytestreamSession: " + e, e);
@@ -133,7 +127,7 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
         }
 
         if (digest != null && inputStream != null) {
-            byte[] mDigest = ((DigestInputStream) inputStream).getMessageDigest().digest();
+            byte[] mDigest = digest.digest();
             if (!Arrays.equals(hashElement.getHash(), mDigest)) {
                 LOGGER.log(Level.WARNING, "CHECKSUM MISMATCH!");
             } else {
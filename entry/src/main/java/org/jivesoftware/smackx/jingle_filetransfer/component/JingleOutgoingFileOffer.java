@@ -26,6 +26,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine;
 import org.jivesoftware.smackx.jingle.JingleSession;
 import org.jivesoftware.smackx.jingle.element.Jingle;
 import org.jivesoftware.smackx.jingle.element.JingleContentDescriptionInfo;
@@ -71,26 +72,22 @@ public class JingleOutgoingFileOffer extends AbstractJingleFileOffer implements
         OutputStream outputStream;
         try {
             outputStream = bytestreamSession.getOutputStream();
-
-            int writeByte = 0;
-            byte[] buf = new byte[8192];
-            while (true) {
-                int length = mSource.read(buf);
-                if (length < 0) {
-                    break;
-                }
-                // User cancels JFT file transfer in active data streaming.
-                if (mState == State.cancelled) {
-                    LOGGER.log(Level.INFO, "User canceled file offer in active streaming.");
-                    break;
+            FileTransferEngine.send(mSource, outputStream, new FileTransferEngine.TransferCallback() {
+                @Override
+                public boolean isCancelled() {
+                    // User cancels JFT file transfer in active data streaming.
+                    if (mState == State.cancelled) {
+                        LOGGER.log(Level.INFO, "User canceled file offer in active streaming.");
+                        return true;
+                    }
+                    return false;
                 }
 
-                outputStream.write(buf, 0, length);
-                writeByte += length;
-                notifyProgressListeners(writeByte);
-            }
-
-            outputStream.flush();
+                @Override
+                public void progress(long bytes) {
+                    notifyProgressListeners((int) bytes);
+                }
+            });
             outputStream.close();
 
         } catch (IOException e) {
@@ -3,108 +3,61 @@ package org.jivesoftware.smackx.jinglenodes.nio;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import timber.log.Timber;
+
+/**
+ * Non-blocking datagram channel served by a single selector event loop shared by all the relay channels.
+ * <p>
+ * The received datagrams are read into a reused direct buffer and dispatched to the channel
+ * {@link DatagramListener} on the event loop thread, without an executor handoff per packet. The buffer
+ * is valid only for the duration of the listener call; a listener must not block, and must copy the
+ * data if it needs to keep it.
+ */
 public class SelDatagramChannel {
-    private final static ExecutorService executorService = Executors.newWorkStealingPool();
-    private static Selector selector;
+    /**
+     * The max size of a received datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 1500;
+
+    /**
+     * The max number of datagrams read from a channel per selection, so a busy channel does not starve the others.
+     */
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private static EventLoop eventLoop;
 
     // Instance Properties
     protected final DatagramChannel channel;
-    private DatagramListener datagramListener;
-    private final static Object obj = new Object();
-
-    private static void init() {
-        try {
-            selector = Selector.open();
-            while (!selector.isOpen()) {
-                Thread.yield();
-            }
-            final Runnable task = () -> {
-                while (true) {
-                    try {
-                        final int n;
-                        synchronized (obj) {
-                        }
-                        n = selector.select();
-                        if (n == 0) {
-                            Thread.sleep(50);
-                            Thread.yield();
-                            continue;
-                        }
-                        final Set<SelectionKey> keys = selector.selectedKeys();
-
-                        // Iterate through the Set of keys.
-                        for (Iterator<SelectionKey> i = keys.iterator(); i.hasNext(); ) {
-                            // Get a key from the set, and remove it from the set
-                            final SelectionKey key = (SelectionKey) i.next();
-                            i.remove();
-
-                            // Get the channel associated with the key
-                            final DatagramChannel c = (DatagramChannel) key.channel();
-
-                            if (key.isValid() && key.isReadable()) {
-                                final SelDatagramChannel sdc = (SelDatagramChannel) key.attachment();
-                                if (sdc == null) {
-                                    // Discard Packet
-                                    c.receive(ByteBuffer.allocate(0));
-                                    continue;
-                                }
-
-                                final ByteBuffer b = ByteBuffer.allocateDirect(1450);
-                                final SocketAddress clientAddress;
-                                synchronized (sdc) {
-                                    clientAddress = sdc.channel.receive(b);
-                                }
-                                // If we got the datagram successfully, broadcast the Event
-                                if (clientAddress != null) {
-                                    // Execute in a different Thread avoid serialization
-                                    if (sdc.datagramListener != null) {
-                                        executorService.submit(()
-                                                -> sdc.datagramListener.datagramReceived(sdc, b, clientAddress));
-                                    }
-                                }
-
-                            }
-                        }
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                    }
-                }
-            };
-            executorService.submit(task);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+    private volatile DatagramListener datagramListener;
 
     protected SelDatagramChannel(final DatagramChannel channel, final DatagramListener datagramListener) {
         this.channel = channel;
         this.datagramListener = datagramListener;
     }
 
-    public static SelDatagramChannel open(final DatagramListener datagramListener, final SocketAddress localAddress)
+    private static synchronized EventLoop getEventLoop()
             throws IOException {
-        synchronized (executorService) {
-            if (selector == null) {
-                init();
-            }
+        if (eventLoop == null) {
+            eventLoop = new EventLoop();
         }
+        return eventLoop;
+    }
 
+    public static SelDatagramChannel open(final DatagramListener datagramListener, final SocketAddress localAddress)
+            throws IOException {
         final DatagramChannel dc = DatagramChannel.open();
         dc.configureBlocking(false);
         dc.socket().bind(localAddress);
         final SelDatagramChannel c = new SelDatagramChannel(dc, datagramListener);
-        synchronized (obj) {
-            selector.wakeup();
-            dc.register(selector, SelectionKey.OP_READ, c);
-        }
+        getEventLoop().register(c);
         return c;
     }
 
@@ -115,19 +68,106 @@ public class SelDatagramChannel {
 
     public void close()
             throws IOException {
-        final SelectionKey k = channel.keyFor(selector);
-        if (k != null) {
-            synchronized (obj) {
-                selector.wakeup();
-                k.cancel();
-            }
-        }
-        synchronized (this) {
-            channel.close();
+        // Closing the channel cancels its key; the selector drops it on the next select
+        channel.close();
+        EventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.selector.wakeup();
         }
     }
 
     public void setDatagramListener(DatagramListener listener) {
         this.datagramListener = listener;
     }
-}
\ No newline at end of file
+
+    /**
+     * The selector event loop running on a single daemon thread.
+     */
+    private static class EventLoop implements Runnable {
+        private final Selector selector;
+
+        /**
+         * The channels pending registration; a channel must be registered on the event loop thread,
+         * as register() blocks while the selector is in select().
+         */
+        private final Queue<SelDatagramChannel> pending = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The receive buffer reused for all the datagrams.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+        EventLoop()
+                throws IOException {
+            selector = Selector.open();
+            Thread thread = new Thread(this, "JingleNodes-EventLoop");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void register(SelDatagramChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    SelDatagramChannel sdc;
+                    while ((sdc = pending.poll()) != null) {
+                        if (sdc.channel.isOpen()) {
+                            sdc.channel.register(selector, SelectionKey.OP_READ, sdc);
+                        }
+                    }
+
+                    if (selector.select() == 0) {
+                        continue;
+                    }
+
+                    for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                        final SelectionKey key = i.next();
+                        i.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read((SelDatagramChannel) key.attachment());
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    Timber.w("JingleNodes event loop selector closed");
+                    return;
+                } catch (Throwable t) {
+                    Timber.e(t, "JingleNodes event loop exception");
+                }
+            }
+        }
+
+        /**
+         * Read the datagrams available on the channel, dispatching each to its listener in-loop.
+         */
+        private void read(SelDatagramChannel sdc) {
+            for (int n = 0; n < MAX_READS_PER_SELECT; n++) {
+                buffer.clear();
+                final SocketAddress clientAddress;
+                try {
+                    clientAddress = sdc.channel.receive(buffer);
+                } catch (IOException e) {
+                    Timber.w("JingleNodes channel receive failed: %s", e.getMessage());
+                    return;
+                }
+                if (clientAddress == null) {
+                    return;
+                }
+
+                // Discard the datagram if there is no listener
+                final DatagramListener listener = sdc.datagramListener;
+                if (listener != null) {
+                    try {
+                        listener.datagramReceived(sdc, buffer, clientAddress);
+                    } catch (Exception e) {
+                        Timber.e(e, "JingleNodes datagram listener exception");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -12,14 +12,14 @@ public class RelayChannel
     private final SelDatagramChannel channelB;
     private final SocketAddress addressA;
     private final SocketAddress addressB;
-    private SocketAddress lastReceivedA;
-    private SocketAddress lastReceivedB;
+    private volatile SocketAddress lastReceivedA;
+    private volatile SocketAddress lastReceivedB;
     private final SelDatagramChannel channelA_;
     private final SelDatagramChannel channelB_;
-    private SocketAddress lastReceivedA_;
-    private SocketAddress lastReceivedB_;
-    private long lastReceivedTimeA;
-    private long lastReceivedTimeB;
+    private volatile SocketAddress lastReceivedA_;
+    private volatile SocketAddress lastReceivedB_;
+    private volatile long lastReceivedTimeA;
+    private volatile long lastReceivedTimeB;
     private final int portA;
     private final int portB;
     private final String ip;
@@ -31,8 +31,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +46,7 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
@@ -109,6 +116,17 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
 
     private static final long MILLIS_PER_HOUR = 1000L * 60 * 60;
 
+    /**
+     * Max number of concurrent bundle fetches and session builds for the recipient devices of a message.
+     */
+    private static final int MAX_CONCURRENT_SESSION_BUILDS = 8;
+
+    /**
+     * Executor for fetching the bundles and building the missing sessions of the recipient devices concurrently.
+     */
+    private static final ExecutorService sessionBuildExecutor
+            = ExecutorUtils.newCachedThreadPool(true, "OmemoSessionBuilder");
+
     private static OmemoService<?, ?, ?, ?, ?, ?, ?, ?, ?> INSTANCE;
 
     private OmemoStore<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> omemoStore;
@@ -356,16 +374,17 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         // Do not encrypt for our own device.
         removeOurDevice(userDevice, contactsDevices);
 
-        buildMissingSessionsWithDevices(manager.getConnection(), userDevice, contactsDevices);
+        // Keep track of skipped devices
+        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
+
+        // Fetch the bundles and build the missing sessions concurrently; failed devices are skipped below.
+        buildMissingSessionsWithDevices(manager.getConnection(), userDevice, contactsDevices, skippedRecipients);
 
         Set<OmemoDevice> undecidedDevices = getUndecidedDevices(userDevice, manager.getTrustCallback(), contactsDevices);
         if (!undecidedDevices.isEmpty()) {
             throw new UndecidedOmemoIdentityException(undecidedDevices);
         }
 
-        // Keep track of skipped devices
-        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
-
         OmemoMessageBuilder<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> builder;
         try {
             builder = new OmemoMessageBuilder<>(
@@ -376,15 +395,9 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         }
 
         for (OmemoDevice contactsDevice : contactsDevices) {
-            // Build missing sessions
-            if (!hasSession(userDevice, contactsDevice)) {
-                try {
-                    buildFreshSessionWithDevice(manager.getConnection(), userDevice, contactsDevice);
-                } catch (CorruptedOmemoKeyException | CannotEstablishOmemoSessionException e) {
-                    LOGGER.log(Level.WARNING, "Could not build session with " + contactsDevice + ".", e);
-                    skippedRecipients.put(contactsDevice, e);
-                    continue;
-                }
+            // Session could not be built; already reported in skippedRecipients
+            if (skippedRecipients.containsKey(contactsDevice)) {
+                continue;
             }
 
             int messageCounter = omemoStore.loadOmemoMessageCounter(userDevice, contactsDevice);
@@ -808,44 +821,100 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
 
     /**
      * Build sessions with all devices from the set, we don't have a session with yet.
-     * Return the set of all devices we have a session with afterwards.
+     * The bundles are fetched and the sessions built concurrently, with at most
+     * {@link #MAX_CONCURRENT_SESSION_BUILDS} in progress; so the total wait is not the sum of all the
+     * bundle fetch round trips. Return the set of all devices we have a session with afterwards.
      *
      * @param connection authenticated XMPP connection
      * @param userDevice our OmemoDevice
      * @param devices set of devices we may want to build a session with if necessary
+     * @param failedDevices map to which each device we failed to build a session with is added with its cause
      * @return set of all devices with sessions
      *
      * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
      * @throws InterruptedException if the calling thread was interrupted.
-     * @throws SmackException.NoResponseException if there was no response from the remote entity.
      * @throws IOException if an I/O error occurred.
      */
     private Set<OmemoDevice> buildMissingSessionsWithDevices(XMPPConnection connection,
                                                              OmemoDevice userDevice,
-                                                             Set<OmemoDevice> devices)
-            throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException, IOException {
+                                                             Set<OmemoDevice> devices,
+                                                             Map<OmemoDevice, Throwable> failedDevices)
+            throws SmackException.NotConnectedException, InterruptedException, IOException {
 
         Set<OmemoDevice> devicesWithSession = new HashSet<>();
+        Queue<OmemoDevice> pendingDevices = new ConcurrentLinkedQueue<>();
         for (OmemoDevice device : devices) {
-
             if (hasSession(userDevice, device)) {
                 devicesWithSession.add(device);
-                continue;
+            } else {
+                pendingDevices.add(device);
             }
+        }
+        if (pendingDevices.isEmpty()) {
+            return devicesWithSession;
+        }
 
-            try {
-                buildFreshSessionWithDevice(connection, userDevice, device);
-                devicesWithSession.add(device);
-            } catch (CannotEstablishOmemoSessionException e) {
-                LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
-                        " because their bundle could not be fetched.", e);
-            } catch (CorruptedOmemoKeyException e) {
-                LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
-                        "because their bundle seems to be corrupt.", e);
+        Set<OmemoDevice> builtDevices = ConcurrentHashMap.newKeySet();
+        Map<OmemoDevice, Throwable> failures = new ConcurrentHashMap<>();
+
+        // Each worker takes the next pending device until none is left.
+        int workers = Math.min(MAX_CONCURRENT_SESSION_BUILDS, pendingDevices.size());
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(sessionBuildExecutor.submit(() -> {
+                OmemoDevice device;
+                while ((device = pendingDevices.poll()) != null) {
+                    try {
+                        buildFreshSessionWithDevice(connection, userDevice, device);
+                        builtDevices.add(device);
+                    } catch (CannotEstablishOmemoSessionException | SmackException.NoResponseException e) {
+                        LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
+                                " because their bundle could not be fetched.", e);
+                        failures.put(device, e);
+                    } catch (CorruptedOmemoKeyException e) {
+                        LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
+                                "because their bundle seems to be corrupt.", e);
+                        failures.put(device, e);
+                    } catch (SmackException.NotConnectedException e) {
+                        failures.put(device, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, userDevice + " failed to build sessions.", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+
+        for (Map.Entry<OmemoDevice, Throwable> failure : failures.entrySet()) {
+            if (failure.getValue() instanceof SmackException.NotConnectedException) {
+                throw (SmackException.NotConnectedException) failure.getValue();
             }
+        }
 
+        // Devices left unprocessed by a failed worker are reported as failed too.
+        for (OmemoDevice device : devices) {
+            if (!devicesWithSession.contains(device) && !builtDevices.contains(device) && !failures.containsKey(device)) {
+                failures.put(device, new CannotEstablishOmemoSessionException(device, null));
+            }
         }
 
+        devicesWithSession.addAll(builtDevices);
+        failedDevices.putAll(failures);
         return devicesWithSession;
     }
 